@@ -0,0 +1,81 @@
+package com.codebutler.websocket.benchmark;
+
+/**
+ * 不依赖第三方库的简易基准测试执行器：先预热，再测量若干轮，输出每次操作耗时和吞吐量。
+ * 预热与测量时间可通过系统属性 bench.warmup / bench.measure（毫秒）、bench.rounds 调整。
+ */
+public final class Bench {
+
+    /**
+     * 被测操作
+     */
+    public interface Op {
+        /**
+         * 连续执行 count 次被测操作
+         */
+        void run(int count) throws Exception;
+    }
+
+    private static final long WARMUP_MILLIS  = Long.getLong("bench.warmup", 1000);
+    private static final long MEASURE_MILLIS = Long.getLong("bench.measure", 1000);
+    private static final int  ROUNDS         = Integer.getInteger("bench.rounds", 3);
+
+    private static boolean headerPrinted;
+
+    private Bench() { }
+
+    /**
+     * 测量并输出一项结果
+     * @param name 名称
+     * @param bytesPerOp 每次操作处理的字节数，用于计算MB/s，0为不计算
+     * @return 平均每次操作耗时（纳秒）
+     */
+    public static double run(String name, long bytesPerOp, Op op) throws Exception {
+        measure(op, WARMUP_MILLIS);
+        double best = Double.MAX_VALUE;
+        double total = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            double nanos = measure(op, MEASURE_MILLIS);
+            best = Math.min(best, nanos);
+            total += nanos;
+        }
+        double mean = total / ROUNDS;
+        print(name, mean, best, bytesPerOp);
+        return mean;
+    }
+
+    private static double measure(Op op, long millis) throws Exception {
+        long duration = millis * 1000 * 1000;
+        long ops = 0;
+        int batch = 1;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            op.run(batch);
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            // Grow the batch so timer calls don't dominate fast operations.
+            if (elapsed < duration / 100 && batch < (1 << 20)) {
+                batch *= 2;
+            }
+        } while (elapsed < duration);
+        return (double) elapsed / ops;
+    }
+
+    static void print(String name, double meanNanos, double bestNanos, long bytesPerOp) {
+        if (!headerPrinted) {
+            headerPrinted = true;
+            System.out.println(String.format("%-44s %14s %14s %12s", "benchmark", "ns/op", "best ns/op", "MB/s"));
+        }
+        String throughput = bytesPerOp > 0
+                ? String.format("%12.1f", bytesPerOp / meanNanos * 1000 * 1000 * 1000 / (1024 * 1024)) : "";
+        System.out.println(String.format("%-44s %14.1f %14.1f %s", name, meanNanos, bestNanos, throughput));
+    }
+
+    /**
+     * 直接输出一行非ns/op格式的结果，如延迟分位数
+     */
+    static void report(String name, String value) {
+        System.out.println(String.format("%-44s %s", name, value));
+    }
+}
@@ -0,0 +1,32 @@
+package com.codebutler.websocket.benchmark;
+
+/**
+ * 运行全部或指定的基准测试：
+ * java -cp classes com.codebutler.websocket.benchmark.BenchmarkSuite [frame] [parse] [mask] [utf8] [echo] [connect]
+ */
+public class BenchmarkSuite {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            args = new String[]{"frame", "parse", "mask", "utf8", "echo", "connect"};
+        }
+        for (String name : args) {
+            System.out.println("# " + name);
+            if (name.equals("frame")) {
+                FrameBenchmark.main(new String[0]);
+            } else if (name.equals("parse")) {
+                ParseBenchmark.main(new String[0]);
+            } else if (name.equals("mask")) {
+                MaskBenchmark.main(new String[0]);
+            } else if (name.equals("utf8")) {
+                Utf8Benchmark.main(new String[0]);
+            } else if (name.equals("echo")) {
+                EchoBenchmark.main(new String[0]);
+            } else if (name.equals("connect")) {
+                ConnectBenchmark.main(new String[0]);
+            } else {
+                System.out.println("Unknown benchmark: " + name);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.WSCallback;
+import com.codebutler.websocket.WebSocketClient;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 建立连接：连接进程内回环回显服务端，完成TCP连接与HTTP升级握手后断开，测量每次连接的耗时。
+ */
+public class ConnectBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final LoopbackEchoServer server = new LoopbackEchoServer();
+        final Semaphore connected = new Semaphore(0);
+        final Semaphore disconnected = new Semaphore(0);
+
+        final WSCallback callback = new WSCallback() {
+            @Override
+            public void onConnect() {
+                connected.release();
+            }
+
+            @Override
+            public void onMessage(String message) { }
+
+            @Override
+            public void onMessage(byte[] data) { }
+
+            @Override
+            public void onDisconnect(int code, String reason) {
+                disconnected.release();
+            }
+
+            @Override
+            public void onError(Exception error) {
+                error.printStackTrace();
+            }
+        };
+
+        Bench.run("connect.handshake", 0, new Bench.Op() {
+            @Override
+            public void run(int count) throws Exception {
+                for (int i = 0; i < count; i++) {
+                    WebSocketClient client = new WebSocketClient(server.uri(), callback);
+                    client.connect();
+                    if (!connected.tryAcquire(10, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("Could not connect to " + server.uri());
+                    }
+                    client.disconnect();
+                    disconnected.acquire();
+                }
+            }
+        });
+
+        server.close();
+    }
+}
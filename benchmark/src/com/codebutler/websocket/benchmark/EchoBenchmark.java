@@ -0,0 +1,100 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.WSCallback;
+import com.codebutler.websocket.WebSocketClient;
+
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 端到端收发：连接进程内回环回显服务端，测量连续发送的吞吐量和逐条往返的延迟分布。
+ */
+public class EchoBenchmark {
+
+    private static final int[] SIZES = {16, 1024, 64 * 1024};
+    private static final int LATENCY_SAMPLES = Integer.getInteger("bench.samples", 20000);
+
+    public static void main(String[] args) throws Exception {
+        LoopbackEchoServer server = new LoopbackEchoServer();
+        final Semaphore received = new Semaphore(0);
+        final Semaphore connected = new Semaphore(0);
+
+        WebSocketClient client = new WebSocketClient(server.uri(), new WSCallback() {
+            @Override
+            public void onConnect() {
+                connected.release();
+            }
+
+            @Override
+            public void onMessage(String message) {
+                received.release();
+            }
+
+            @Override
+            public void onMessage(byte[] data) {
+                received.release();
+            }
+
+            @Override
+            public void onDisconnect(int code, String reason) { }
+
+            @Override
+            public void onError(Exception error) {
+                error.printStackTrace();
+            }
+        });
+        client.connect();
+        if (!connected.tryAcquire(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Could not connect to " + server.uri());
+        }
+
+        for (int size : SIZES) {
+            throughput(client, received, size);
+            latency(client, received, size);
+        }
+
+        client.disconnect();
+        server.close();
+    }
+
+    private static void throughput(final WebSocketClient client, final Semaphore received, int size) throws Exception {
+        final byte[] payload = new byte[size];
+        // Keep at most this many messages in flight so the send queue never refuses a frame.
+        final int window = Math.max(1, 512 * 1024 / Math.max(size, 1));
+        Bench.run("echo.throughput." + size, size, new Bench.Op() {
+            @Override
+            public void run(int count) throws Exception {
+                int inFlight = 0;
+                for (int i = 0; i < count; i++) {
+                    if (inFlight == window) {
+                        received.acquire();
+                        inFlight--;
+                    }
+                    client.send(payload);
+                    inFlight++;
+                }
+                received.acquire(inFlight);
+            }
+        });
+    }
+
+    private static void latency(WebSocketClient client, Semaphore received, int size) throws Exception {
+        byte[] payload = new byte[size];
+        long[] samples = new long[LATENCY_SAMPLES];
+        for (int i = 0; i < samples.length / 4; i++) {
+            client.send(payload);
+            received.acquire();
+        }
+        for (int i = 0; i < samples.length; i++) {
+            long start = System.nanoTime();
+            client.send(payload);
+            received.acquire();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        Bench.report("echo.rtt." + size, String.format("p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                samples[samples.length / 2] / 1000.0, samples[(int) (samples.length * 0.99)] / 1000.0,
+                samples[(int) (samples.length * 0.999)] / 1000.0, samples[samples.length - 1] / 1000.0));
+    }
+}
@@ -0,0 +1,47 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.BufferPool;
+import com.codebutler.websocket.HybiParser;
+import com.codebutler.websocket.WebSocketClient;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HybiParser.pooledFrame() 编码耗时，负载从0到16MB。
+ */
+public class FrameBenchmark {
+
+    static final int[] SIZES = {0, 16, 125, 1024, 16 * 1024, 64 * 1024, 1024 * 1024, 16 * 1024 * 1024};
+
+    public static void main(String[] args) throws Exception {
+        final HybiParser parser = new HybiParser(new WebSocketClient("ws://localhost/", new NullCallback()));
+        final BufferPool pool = BufferPool.getDefault();
+
+        for (int size : SIZES) {
+            final byte[] binary = new byte[size];
+            char[] chars = new char[size];
+            Arrays.fill(chars, 'a');
+            final String text = new String(chars);
+
+            Bench.run("frame.binary." + size, size, new Bench.Op() {
+                @Override
+                public void run(int count) {
+                    for (int i = 0; i < count; i++) {
+                        ByteBuffer frame = parser.pooledFrame(binary);
+                        pool.release(frame);
+                    }
+                }
+            });
+            Bench.run("frame.text." + size, size, new Bench.Op() {
+                @Override
+                public void run(int count) {
+                    for (int i = 0; i < count; i++) {
+                        ByteBuffer frame = parser.pooledFrame(text);
+                        pool.release(frame);
+                    }
+                }
+            });
+        }
+    }
+}
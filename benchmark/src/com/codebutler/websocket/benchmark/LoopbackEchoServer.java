@@ -0,0 +1,163 @@
+package com.codebutler.websocket.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+
+/**
+ * 进程内回环WebSocket回显服务端，只用于基准测试：完成握手后将收到的每个帧去掉掩码原样发回。
+ */
+class LoopbackEchoServer implements Runnable {
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final ServerSocket serverSocket;
+
+    LoopbackEchoServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread thread = new Thread(this, "echo-accept");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String uri() {
+        return "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        echo(socket);
+                    } catch (Exception ignored) {
+                        // Client went away.
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            }, "echo-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void echo(Socket socket) throws Exception {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+
+        String key = null;
+        String line;
+        while ((line = readLine(in)).length() > 0) {
+            if (line.regionMatches(true, 0, "Sec-WebSocket-Key:", 0, 18)) {
+                key = line.substring(18).trim();
+            }
+        }
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        String accept = base64(sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes("US-ASCII")));
+        out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes("US-ASCII"));
+        out.flush();
+
+        byte[] payload = new byte[64 * 1024];
+        byte[] mask = new byte[4];
+        while (true) {
+            int b0 = in.read();
+            if (b0 == -1) return;
+            int b1 = in.readUnsignedByte();
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = in.readLong();
+            }
+            boolean masked = (b1 & 0x80) != 0;
+            if (masked) {
+                in.readFully(mask);
+            }
+            if (payload.length < length) {
+                payload = new byte[(int) length];
+            }
+            in.readFully(payload, 0, (int) length);
+            if (masked) {
+                for (int i = 0; i < length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+            }
+
+            int opcode = b0 & 0x0F;
+            if (opcode == 9) {
+                b0 = (b0 & 0xF0) | 10;
+            }
+            out.write(b0);
+            if (length <= 125) {
+                out.write((int) length);
+            } else if (length <= 65535) {
+                out.write(126);
+                out.write((int) (length >>> 8));
+                out.write((int) (length & 0xFF));
+            } else {
+                out.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (length >>> shift) & 0xFF);
+                }
+            }
+            out.write(payload, 0, (int) length);
+            if (in.available() == 0) {
+                out.flush();
+            }
+            if (opcode == 8) {
+                out.flush();
+                return;
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) throw new EOFException();
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    private static String base64(byte[] data) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < data.length; i += 3) {
+            int bits = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) bits |= (data[i + 1] & 0xFF) << 8;
+            if (i + 2 < data.length) bits |= data[i + 2] & 0xFF;
+            out.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3F]);
+            out.append(i + 1 < data.length ? BASE64[(bits >>> 6) & 0x3F] : '=');
+            out.append(i + 2 < data.length ? BASE64[bits & 0x3F] : '=');
+        }
+        return out.toString();
+    }
+}
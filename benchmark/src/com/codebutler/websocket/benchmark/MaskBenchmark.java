@@ -0,0 +1,72 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.Masker;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 对比 Masker 的64位掩码与原 HybiParser.mask() 的逐字节循环。
+ */
+public class MaskBenchmark {
+
+    private static final int[] SIZES = {16, 125, 1024, 64 * 1024, 4 * 1024 * 1024};
+
+    private static final byte[] MASK = {(byte) 0x37, (byte) 0xfa, (byte) 0x21, (byte) 0x3d};
+
+    public static void main(String[] args) throws Exception {
+        verify();
+        for (int size : SIZES) {
+            final byte[] payload = new byte[size];
+            new Random(size).nextBytes(payload);
+            final ByteBuffer buffer = ByteBuffer.wrap(payload);
+            final int key = Masker.key(MASK, 0);
+
+            Bench.run("mask.bytewise." + size, size, new Bench.Op() {
+                @Override
+                public void run(int count) {
+                    for (int i = 0; i < count; i++) {
+                        maskBytewise(payload, MASK, 0);
+                    }
+                }
+            });
+            Bench.run("mask.wide." + size, size, new Bench.Op() {
+                @Override
+                public void run(int count) {
+                    for (int i = 0; i < count; i++) {
+                        Masker.mask(buffer, 0, payload.length, key);
+                    }
+                }
+            });
+        }
+    }
+
+    // The loop HybiParser.mask() used before Masker.
+    private static byte[] maskBytewise(byte[] payload, byte[] mask, int offset) {
+        for (int i = 0; i < payload.length - offset; i++) {
+            payload[offset + i] = (byte) (payload[offset + i] ^ mask[i % 4]);
+        }
+        return payload;
+    }
+
+    private static void verify() {
+        Random random = new Random(42);
+        for (int size = 0; size < 300; size++) {
+            for (int offset = 0; offset < 9; offset++) {
+                byte[] expected = new byte[size + offset];
+                random.nextBytes(expected);
+                byte[] actual = expected.clone();
+
+                for (int i = 0; i < size; i++) {
+                    expected[offset + i] = (byte) (expected[offset + i] ^ MASK[i % 4]);
+                }
+                Masker.mask(actual, offset, size, Masker.key(MASK, 0));
+
+                if (!Arrays.equals(expected, actual)) {
+                    throw new AssertionError("Masker output differs at size " + size + " offset " + offset);
+                }
+            }
+        }
+    }
+}
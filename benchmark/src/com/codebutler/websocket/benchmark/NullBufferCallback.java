@@ -0,0 +1,15 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.ByteBufferCallback;
+import com.codebutler.websocket.PooledMessage;
+
+/**
+ * 以缓冲池接收字节消息、不做任何处理的回调
+ */
+class NullBufferCallback extends NullCallback implements ByteBufferCallback {
+
+    @Override
+    public void onMessage(PooledMessage message) {
+        messages++;
+    }
+}
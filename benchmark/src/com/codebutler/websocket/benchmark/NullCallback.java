@@ -0,0 +1,30 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.WSCallback;
+
+/**
+ * 丢弃所有事件的回调，只记录收到的消息数
+ */
+class NullCallback implements WSCallback {
+
+    volatile long messages;
+
+    @Override
+    public void onConnect() { }
+
+    @Override
+    public void onMessage(String message) {
+        messages++;
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+        messages++;
+    }
+
+    @Override
+    public void onDisconnect(int code, String reason) { }
+
+    @Override
+    public void onError(Exception error) { }
+}
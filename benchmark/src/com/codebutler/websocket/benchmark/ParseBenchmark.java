@@ -0,0 +1,111 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.HybiParser;
+import com.codebutler.websocket.WebSocketClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * 接收解析路径：从预先生成的字节流中解码服务端帧并回调。
+ * 以每次 read() 最多返回16KB模拟Socket读取。
+ */
+public class ParseBenchmark {
+
+    private static final int[] SIZES = {16, 125, 1024, 64 * 1024, 1024 * 1024};
+    private static final int STREAM_SIZE = 8 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        for (int size : SIZES) {
+            run("parse.binary." + size, size, 2, new NullCallback());
+            run("parse.binary.pooled." + size, size, 2, new NullBufferCallback());
+            run("parse.text." + size, size, 1, new NullCallback());
+        }
+    }
+
+    private static void run(String name, int size, int opcode, NullCallback callback) throws Exception {
+        final byte[] stream = stream(size, opcode);
+        final int frames = Math.max(1, STREAM_SIZE / (size + 10));
+        final HybiParser parser = new HybiParser(new WebSocketClient("ws://localhost/", callback));
+        final ReplayStream in = new ReplayStream(stream, 16 * 1024);
+
+        double nanos = Bench.run(name + " (stream)", stream.length, new Bench.Op() {
+            @Override
+            public void run(int count) throws Exception {
+                for (int i = 0; i < count; i++) {
+                    in.rewind();
+                    try {
+                        parser.start(in);
+                    } catch (EOFException expected) {
+                        // End of the canned stream.
+                    }
+                }
+            }
+        });
+        Bench.report(name + " (per frame)", String.format("%.1f ns/frame, %d frames per stream", nanos / frames, frames));
+    }
+
+    /**
+     * 生成服务端发往客户端的未掩码帧序列
+     */
+    static byte[] stream(int size, int opcode) {
+        byte[] payload = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            payload[i] = (byte) ('a' + random.nextInt(26));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int frames = Math.max(1, STREAM_SIZE / (size + 10));
+        for (int f = 0; f < frames; f++) {
+            out.write(0x80 | opcode);
+            if (size <= 125) {
+                out.write(size);
+            } else if (size <= 65535) {
+                out.write(126);
+                out.write(size >>> 8);
+                out.write(size & 0xFF);
+            } else {
+                out.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) ((long) size >>> shift) & 0xFF);
+                }
+            }
+            out.write(payload, 0, size);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 可重复读取的内存流，每次 read() 最多返回 chunk 个字节
+     */
+    static class ReplayStream extends InputStream {
+        private final byte[] data;
+        private final int chunk;
+        private int position;
+
+        ReplayStream(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        void rewind() {
+            position = 0;
+        }
+
+        @Override
+        public int read() {
+            return position < data.length ? data[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= data.length) return -1;
+            int count = Math.min(Math.min(len, chunk), data.length - position);
+            System.arraycopy(data, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+}
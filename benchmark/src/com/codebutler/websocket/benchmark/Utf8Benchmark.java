@@ -0,0 +1,67 @@
+package com.codebutler.websocket.benchmark;
+
+import com.codebutler.websocket.Utf8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 文本编解码：Utf8.encode 与 String.getBytes 对比，以及 new String 解码。
+ */
+public class Utf8Benchmark {
+
+    private static final int[] SIZES = {16, 1024, 64 * 1024};
+
+    public static void main(String[] args) throws Exception {
+        for (int size : SIZES) {
+            run("ascii", text(size, false));
+            run("mixed", text(size, true));
+        }
+    }
+
+    private static void run(String kind, final String text) throws Exception {
+        final byte[] utf8 = text.getBytes("UTF-8");
+        final ByteBuffer buffer = ByteBuffer.allocate(utf8.length);
+        String suffix = kind + "." + text.length();
+
+        Bench.run("utf8.encode.getBytes." + suffix, utf8.length, new Bench.Op() {
+            @Override
+            public void run(int count) throws Exception {
+                for (int i = 0; i < count; i++) {
+                    buffer.clear();
+                    buffer.put(text.getBytes("UTF-8"));
+                }
+            }
+        });
+        Bench.run("utf8.encode.Utf8." + suffix, utf8.length, new Bench.Op() {
+            @Override
+            public void run(int count) {
+                for (int i = 0; i < count; i++) {
+                    buffer.clear();
+                    Utf8.encode(text, buffer);
+                }
+            }
+        });
+        Bench.run("utf8.decode.newString." + suffix, utf8.length, new Bench.Op() {
+            @Override
+            public void run(int count) throws Exception {
+                for (int i = 0; i < count; i++) {
+                    if (new String(utf8, 0, utf8.length, "UTF-8").length() != text.length()) {
+                        throw new AssertionError();
+                    }
+                }
+            }
+        });
+    }
+
+    static String text(int length, boolean mixed) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            if (mixed && i % 4 == 3) {
+                builder.append((char) ('一' + i % 500));
+            } else {
+                builder.append((char) ('a' + i % 26));
+            }
+        }
+        return builder.toString();
+    }
+}
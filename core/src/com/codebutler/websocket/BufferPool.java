@@ -0,0 +1,97 @@
+package com.codebutler.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 可复用的ByteBuffer池，按2的幂分级缓存。
+ * 超过 maxBufferSize 的缓冲区不入池；池中缓冲区总字节数不超过 maxPooledBytes。
+ * 使用堆内缓冲区：Socket的OutputStream只能写数组，直接缓冲区反而要多拷贝一次。
+ */
+public final class BufferPool {
+
+    private static final int MIN_SHIFT = 8;
+    private static final int MAX_SHIFT = 30;
+
+    private static final BufferPool DEFAULT = new BufferPool(256 * 1024, 4 * 1024 * 1024);
+
+    private final int maxBufferSize;
+    private final int maxPooledBytes;
+    private final ByteBuffer[][] free = new ByteBuffer[MAX_SHIFT + 1][];
+    private final int[] counts = new int[MAX_SHIFT + 1];
+    private int pooledBytes;
+
+    /**
+     * @param maxBufferSize 可入池的最大缓冲区容量
+     * @param maxPooledBytes 池中保留的最大总字节数
+     */
+    public BufferPool(int maxBufferSize, int maxPooledBytes) {
+        this.maxBufferSize = maxBufferSize;
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * 所有WebSocket默认共用的缓冲池
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    int maxBufferSize() {
+        return maxBufferSize;
+    }
+
+    /**
+     * 取得容量不小于 capacity 的缓冲区，position为0，limit为容量。
+     */
+    public ByteBuffer acquire(int capacity) {
+        int shift = shiftFor(capacity);
+        if (shift <= MAX_SHIFT && (1 << shift) <= maxBufferSize) {
+            synchronized (this) {
+                int count = counts[shift];
+                if (count > 0) {
+                    ByteBuffer[] stack = free[shift];
+                    ByteBuffer buffer = stack[--count];
+                    stack[count] = null;
+                    counts[shift] = count;
+                    pooledBytes -= buffer.capacity();
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+            return ByteBuffer.allocate(1 << shift);
+        }
+        return ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * 归还缓冲区。不属于任何分级或池已满的缓冲区直接丢弃。
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.isDirect() || buffer.isReadOnly()) return;
+        int capacity = buffer.capacity();
+        if (capacity > maxBufferSize || Integer.bitCount(capacity) != 1) return;
+        int shift = Integer.numberOfTrailingZeros(capacity);
+        if (shift < MIN_SHIFT) return;
+
+        synchronized (this) {
+            if (pooledBytes + capacity > maxPooledBytes) return;
+            ByteBuffer[] stack = free[shift];
+            int count = counts[shift];
+            if (stack == null || count == stack.length) {
+                ByteBuffer[] grown = new ByteBuffer[stack == null ? 4 : stack.length * 2];
+                if (stack != null) {
+                    System.arraycopy(stack, 0, grown, 0, count);
+                }
+                free[shift] = stack = grown;
+            }
+            stack[count] = buffer;
+            counts[shift] = count + 1;
+            pooledBytes += capacity;
+        }
+    }
+
+    private static int shiftFor(int capacity) {
+        if (capacity <= (1 << MIN_SHIFT)) return MIN_SHIFT;
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    }
+}
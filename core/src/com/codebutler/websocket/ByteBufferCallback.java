@@ -0,0 +1,15 @@
+package com.codebutler.websocket;
+
+/**
+ * 以缓冲池中的ByteBuffer接收字节消息。WSCallback 的实现类同时实现本接口后，字节消息不再通过
+ * onMessage(byte[]) 返回，不需要为每条消息分配数组，可以直接从缓冲区解析（例如protobuf）。
+ * 同时实现 {@link StreamCallback} 时以流式接收为准。文本消息仍通过 onMessage(String) 返回。
+ */
+public interface ByteBufferCallback {
+
+    /**
+     * 收到字节消息
+     * @param message 只读数据，回调返回后归还缓冲池；需要保留时先调用 {@link PooledMessage#retain()}
+     */
+    public void onMessage(PooledMessage message);
+}
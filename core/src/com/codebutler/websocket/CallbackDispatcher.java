@@ -0,0 +1,374 @@
+package com.codebutler.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers WSCallback events for one client, either inline on the thread that produced them
+ * or through an Executor, optionally via a bounded queue that keeps them in order. Inline
+ * callbacks are plain calls unless stats are enabled; then every callback is wrapped in an
+ * Event and timed into {@link CallbackStats}.
+ */
+final class CallbackDispatcher implements WSCallback {
+    private static final String TAG = "CallbackDispatcher";
+
+    private final WSCallback    mCallback;
+    private final CallbackStats mStats = new CallbackStats();
+
+    // Written under this, read without it on the inline fast path.
+    private volatile Executor     mExecutor;
+    private volatile boolean      mStatsEnabled;
+    // Guarded by this.
+    private int                   mCapacity;
+    private final ArrayDeque<Event> mQueue = new ArrayDeque<Event>();
+    private boolean               mDraining;
+    private Thread                mDispatchThread;
+    private int                   mPending;
+    private NioConnection         mPausedReader;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    CallbackDispatcher(WSCallback callback) {
+        mCallback = callback;
+    }
+
+    CallbackStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * @param executor null to run callbacks inline
+     * @param capacity ordered queue size; 0 hands every callback straight to the executor
+     */
+    void configure(Executor executor, int capacity) {
+        NioConnection paused;
+        synchronized (this) {
+            mExecutor = executor;
+            mCapacity = capacity;
+            notifyAll();
+            paused = mPausedReader;
+            mPausedReader = null;
+        }
+        if (paused != null) {
+            paused.resumeReading();
+        }
+    }
+
+    /**
+     * Called by an NioConnection after handing a read's worth of frames over. An event loop
+     * thread cannot wait for the ordered queue like the blocking reader does, so the connection
+     * stops reading instead until the queue has drained to half its capacity.
+     * @return whether the connection should stop reading; it is resumed through
+     *         {@link NioConnection#resumeReading}
+     */
+    synchronized boolean pauseReading(NioConnection reader) {
+        if (mExecutor == null || mCapacity == 0 || mQueue.size() < mCapacity) return false;
+        mPausedReader = reader;
+        return true;
+    }
+
+    void setStatsEnabled(boolean enabled) {
+        mStatsEnabled = enabled;
+    }
+
+    boolean isInline() {
+        return mExecutor == null;
+    }
+
+    /**
+     * Whether a callback can be called straight away: no Event, no lock, no timing.
+     */
+    private boolean isDirect() {
+        return mExecutor == null && !mStatsEnabled;
+    }
+
+    @Override
+    public void onConnect() {
+        if (isDirect()) {
+            mCallback.onConnect();
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_CONNECT) {
+            @Override
+            void invoke() {
+                mCallback.onConnect();
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(final String message) {
+        if (isDirect()) {
+            mCallback.onMessage(message);
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_MESSAGE) {
+            @Override
+            void invoke() {
+                mCallback.onMessage(message);
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(final byte[] data) {
+        if (isDirect()) {
+            mCallback.onMessage(data);
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_MESSAGE) {
+            @Override
+            void invoke() {
+                mCallback.onMessage(data);
+            }
+        });
+    }
+
+    @Override
+    public void onDisconnect(final int code, final String reason) {
+        if (isDirect()) {
+            mCallback.onDisconnect(code, reason);
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_DISCONNECT) {
+            @Override
+            void invoke() {
+                mCallback.onDisconnect(code, reason);
+            }
+        });
+    }
+
+    @Override
+    public void onError(final Exception error) {
+        if (isDirect()) {
+            mCallback.onError(error);
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_ERROR) {
+            @Override
+            void invoke() {
+                mCallback.onError(error);
+            }
+        });
+    }
+
+    void onWritabilityChanged(final boolean writable) {
+        if (!(mCallback instanceof WritabilityCallback)) return;
+        if (isDirect()) {
+            ((WritabilityCallback) mCallback).onWritabilityChanged(writable);
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_WRITABILITY) {
+            @Override
+            void invoke() {
+                ((WritabilityCallback) mCallback).onWritabilityChanged(writable);
+            }
+        });
+    }
+
+    void onReconnecting(final int attempt, final long delayMillis) {
+        if (!(mCallback instanceof ReconnectCallback)) return;
+        if (isDirect()) {
+            ((ReconnectCallback) mCallback).onReconnecting(attempt, delayMillis);
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_RECONNECT) {
+            @Override
+            void invoke() {
+                ((ReconnectCallback) mCallback).onReconnecting(attempt, delayMillis);
+            }
+        });
+    }
+
+    void onReconnectFailed(final int attempts) {
+        if (!(mCallback instanceof ReconnectCallback)) return;
+        if (isDirect()) {
+            ((ReconnectCallback) mCallback).onReconnectFailed(attempts);
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_RECONNECT) {
+            @Override
+            void invoke() {
+                ((ReconnectCallback) mCallback).onReconnectFailed(attempts);
+            }
+        });
+    }
+
+    /**
+     * The dispatcher owns the message's first reference and drops it once the callback returns.
+     */
+    void onMessage(final ByteBufferCallback callback, final PooledMessage message) {
+        if (isDirect()) {
+            try {
+                callback.onMessage(message);
+            } finally {
+                message.release();
+            }
+            return;
+        }
+        dispatch(new Event(CallbackStats.TYPE_MESSAGE) {
+            @Override
+            void invoke() {
+                try {
+                    callback.onMessage(message);
+                } finally {
+                    message.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * The chunk is a view onto the parser's buffers, so it is copied when the callback does not
+     * run before this method returns.
+     */
+    void onMessageChunk(final StreamCallback stream, final int type, ByteBuffer chunk,
+                        final boolean first, final boolean last) {
+        if (isDirect()) {
+            stream.onMessageChunk(type, chunk, first, last);
+            return;
+        }
+        final ByteBuffer data;
+        if (isInline()) {
+            data = chunk;
+        } else {
+            ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+            copy.put(chunk.duplicate());
+            copy.flip();
+            data = copy.asReadOnlyBuffer();
+        }
+        dispatch(new Event(CallbackStats.TYPE_CHUNK) {
+            @Override
+            void invoke() {
+                stream.onMessageChunk(type, data, first, last);
+            }
+        });
+    }
+
+    private void dispatch(Event event) {
+        Executor executor;
+        synchronized (this) {
+            executor = mExecutor;
+            if (executor != null && mCapacity > 0) {
+                enqueue(event);
+                return;
+            }
+            if (executor != null) {
+                event.mCounted = true;
+                mStats.setQueueDepth(++mPending);
+            }
+        }
+        if (executor == null) {
+            event.run();
+            return;
+        }
+        event.mAsync = true;
+        if (mStatsEnabled) {
+            event.mEnqueued = System.nanoTime();
+        }
+        executor.execute(event);
+    }
+
+    /**
+     * Ordered mode: blocks the producing thread (the socket reader) while the queue is full,
+     * which leaves unread data in the socket and pushes back on the server. Callbacks raised
+     * from inside a callback never block, and neither do event loop threads, which serve other
+     * connections too: they go past the capacity and {@link #pauseReading} pushes back instead.
+     */
+    private void enqueue(Event event) {
+        boolean interrupted = false;
+        while (mQueue.size() >= mCapacity && Thread.currentThread() != mDispatchThread && mCapacity > 0
+                && !EventLoop.isLoopThread()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        event.mAsync = true;
+        if (mStatsEnabled) {
+            event.mEnqueued = System.nanoTime();
+        }
+        mQueue.add(event);
+        mStats.setQueueDepth(mQueue.size());
+        if (!mDraining) {
+            mDraining = true;
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Event event;
+            NioConnection resume = null;
+            synchronized (this) {
+                event = mQueue.poll();
+                if (mPausedReader != null && mQueue.size() <= mCapacity / 2) {
+                    resume = mPausedReader;
+                    mPausedReader = null;
+                }
+                if (event == null) {
+                    mDraining = false;
+                    mDispatchThread = null;
+                } else {
+                    mDispatchThread = Thread.currentThread();
+                    mStats.setQueueDepth(mQueue.size());
+                    notifyAll();
+                }
+            }
+            if (resume != null) {
+                resume.resumeReading();
+            }
+            if (event == null) return;
+            event.run();
+        }
+    }
+
+    private abstract class Event implements Runnable {
+        final int mType;
+        long mEnqueued;
+        boolean mAsync;
+        boolean mCounted;
+
+        Event(int type) {
+            mType = type;
+        }
+
+        abstract void invoke();
+
+        @Override
+        public void run() {
+            boolean timed = mStatsEnabled;
+            long start = timed ? System.nanoTime() : 0;
+            long waited = 0;
+            if (timed && mEnqueued != 0) {
+                waited = start - mEnqueued;
+            }
+            if (mCounted) {
+                synchronized (CallbackDispatcher.this) {
+                    mStats.setQueueDepth(--mPending);
+                }
+            }
+            try {
+                invoke();
+            } catch (RuntimeException e) {
+                if (!mAsync) throw e;
+                WSLog.w(TAG, "Callback threw", e);
+            } finally {
+                if (timed) {
+                    mStats.record(mType, waited, System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
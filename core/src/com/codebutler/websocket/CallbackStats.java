@@ -0,0 +1,115 @@
+package com.codebutler.websocket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 回调分发统计：分发队列深度、回调排队等待时间和回调执行耗时，按回调类型分别统计，用于找出阻塞的回调。
+ * 其他线程可随时读取。
+ */
+public class CallbackStats {
+
+    public static final int TYPE_CONNECT = 0;
+    public static final int TYPE_MESSAGE = 1;
+    public static final int TYPE_CHUNK = 2;
+    public static final int TYPE_DISCONNECT = 3;
+    public static final int TYPE_ERROR = 4;
+    public static final int TYPE_WRITABILITY = 5;
+    public static final int TYPE_RECONNECT = 6;
+
+    private static final String[] TYPE_NAMES = {
+            "onConnect", "onMessage", "onMessageChunk", "onDisconnect", "onError", "onWritabilityChanged",
+            "onReconnecting"
+    };
+    private static final int TYPES = TYPE_NAMES.length;
+
+    private final AtomicLongArray counts = new AtomicLongArray(TYPES);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(TYPES);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(TYPES);
+    private final AtomicLongArray wait = new AtomicLongArray(2);   // total, max
+    private volatile int queueDepth;
+    private volatile int maxQueueDepth;
+
+    void record(int type, long waitNanos, long elapsedNanos) {
+        counts.incrementAndGet(type);
+        totalNanos.addAndGet(type, elapsedNanos);
+        updateMax(maxNanos, type, elapsedNanos);
+        if (waitNanos > 0) {
+            wait.addAndGet(0, waitNanos);
+            updateMax(wait, 1, waitNanos);
+        }
+    }
+
+    /** 只由持有分发队列锁的线程调用 */
+    void setQueueDepth(int depth) {
+        queueDepth = depth;
+        if (depth > maxQueueDepth) {
+            maxQueueDepth = depth;
+        }
+    }
+
+    private static void updateMax(AtomicLongArray array, int index, long value) {
+        long current;
+        while (value > (current = array.get(index))) {
+            if (array.compareAndSet(index, current, value)) return;
+        }
+    }
+
+    /** 当前等待执行的回调数，同步回调时总为0 */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /** 出现过的最大分发队列深度 */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * 已执行的回调数
+     * @param type 回调类型，TYPE_*
+     */
+    public long getCount(int type) {
+        return counts.get(type);
+    }
+
+    /** 该类型回调的平均执行耗时（纳秒） */
+    public long getAverageNanos(int type) {
+        long count = counts.get(type);
+        return count == 0 ? 0 : totalNanos.get(type) / count;
+    }
+
+    /** 该类型回调的最长执行耗时（纳秒） */
+    public long getMaxNanos(int type) {
+        return maxNanos.get(type);
+    }
+
+    /** 回调从入队到开始执行的平均等待时间（纳秒） */
+    public long getAverageWaitNanos() {
+        long count = 0;
+        for (int i = 0; i < TYPES; i++) {
+            count += counts.get(i);
+        }
+        return count == 0 ? 0 : wait.get(0) / count;
+    }
+
+    /** 回调从入队到开始执行的最长等待时间（纳秒） */
+    public long getMaxWaitNanos() {
+        return wait.get(1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("CallbackStats{queueDepth=").append(queueDepth)
+                .append(", maxQueueDepth=").append(maxQueueDepth)
+                .append(", avgWaitUs=").append(getAverageWaitNanos() / 1000)
+                .append(", maxWaitUs=").append(getMaxWaitNanos() / 1000);
+        for (int i = 0; i < TYPES; i++) {
+            long count = counts.get(i);
+            if (count == 0) continue;
+            out.append(", ").append(TYPE_NAMES[i]).append("={count=").append(count)
+                    .append(", avgUs=").append(getAverageNanos(i) / 1000)
+                    .append(", maxUs=").append(getMaxNanos(i) / 1000).append('}');
+        }
+        return out.append('}').toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.codebutler.websocket;
+
+import java.util.zip.Deflater;
+
+/**
+ * permessage-deflate 压缩扩展（RFC 7692）的参数，通过 {@link WebSocketClient#setDeflateOptions(DeflateOptions)} 启用。
+ * 压缩使用 Deflater.SYNC_FLUSH，需要 Android 4.4（API 19）及以上。
+ */
+public class DeflateOptions {
+
+    private boolean clientNoContextTakeover = false;
+    private boolean serverNoContextTakeover = false;
+    private int serverMaxWindowBits = 15;
+    private int minCompressSize = 256;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int maxMessageSize = 64 * 1024 * 1024;
+
+    /**
+     * 每条消息压缩后重置压缩器。压缩率降低，但不必在消息间保留32KB的压缩窗口。
+     */
+    public void setClientNoContextTakeover(boolean clientNoContextTakeover) {
+        this.clientNoContextTakeover = clientNoContextTakeover;
+    }
+
+    public boolean isClientNoContextTakeover() {
+        return clientNoContextTakeover;
+    }
+
+    /**
+     * 要求服务端每条消息后重置压缩器，客户端随之可在消息间释放解压窗口。
+     */
+    public void setServerNoContextTakeover(boolean serverNoContextTakeover) {
+        this.serverNoContextTakeover = serverNoContextTakeover;
+    }
+
+    public boolean isServerNoContextTakeover() {
+        return serverNoContextTakeover;
+    }
+
+    /**
+     * 要求服务端使用的最大LZ77窗口（8-15），默认15即不限制。
+     */
+    public void setServerMaxWindowBits(int serverMaxWindowBits) {
+        if (serverMaxWindowBits < 8 || serverMaxWindowBits > 15) {
+            throw new IllegalArgumentException("serverMaxWindowBits must be within 8..15");
+        }
+        this.serverMaxWindowBits = serverMaxWindowBits;
+    }
+
+    public int getServerMaxWindowBits() {
+        return serverMaxWindowBits;
+    }
+
+    /**
+     * 小于该字节数的消息不压缩，默认256。
+     */
+    public void setMinCompressSize(int minCompressSize) {
+        this.minCompressSize = minCompressSize;
+    }
+
+    public int getMinCompressSize() {
+        return minCompressSize;
+    }
+
+    /**
+     * 压缩级别，取值同 {@link Deflater#setLevel(int)}。
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * 一条压缩消息解压后的最大字节数，默认64MB。超过时以关闭码1009断开连接，防止少量压缩数据解压出大量内容。
+     * 流式接收（{@link StreamCallback}）分段交付，不受此限制。
+     */
+    public void setMaxMessageSize(int maxMessageSize) {
+        if (maxMessageSize <= 0 || maxMessageSize >= Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("maxMessageSize must be within 1..Integer.MAX_VALUE - 9");
+        }
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    public int getMaxMessageSize() {
+        return maxMessageSize;
+    }
+}
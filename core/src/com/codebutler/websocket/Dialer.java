@@ -0,0 +1,250 @@
+package com.codebutler.websocket;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves and connects sockets for {@link WebSocketClient}: a shared DNS cache, socket options
+ * and Happy Eyeballs (RFC 8305) dialing across the resolved addresses.
+ */
+final class Dialer {
+    private static final String TAG = "Dialer";
+
+    private static final ConcurrentHashMap<String, Entry> sCache = new ConcurrentHashMap<String, Entry>();
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        final long          expires;
+
+        Entry(InetAddress[] addresses, long expires) {
+            this.addresses = addresses;
+            this.expires   = expires;
+        }
+    }
+
+    private Dialer() {
+    }
+
+    /**
+     * @return the addresses of host, with address families interleaved starting with the first
+     *         one the resolver returned
+     */
+    static InetAddress[] resolve(String host, long cacheMillis) throws UnknownHostException {
+        long now = System.currentTimeMillis();
+        if (cacheMillis > 0) {
+            Entry entry = sCache.get(host);
+            if (entry != null && entry.expires > now) {
+                return entry.addresses;
+            }
+        }
+        InetAddress[] addresses = interleave(InetAddress.getAllByName(host));
+        cache(host, addresses, cacheMillis);
+        return addresses;
+    }
+
+    /**
+     * Remembers the addresses of host for cacheMillis; nothing is kept when it is not positive.
+     */
+    static void cache(String host, InetAddress[] addresses, long cacheMillis) {
+        if (cacheMillis > 0) {
+            sCache.put(host, new Entry(addresses, System.currentTimeMillis() + cacheMillis));
+        }
+    }
+
+    /**
+     * @return the cached addresses of host, or null when resolving would have to ask the resolver
+     */
+    static InetAddress[] cached(String host, long cacheMillis) {
+        if (cacheMillis <= 0) return null;
+        Entry entry = sCache.get(host);
+        return (entry != null && entry.expires > System.currentTimeMillis()) ? entry.addresses : null;
+    }
+
+    static void invalidate(String host) {
+        sCache.remove(host);
+    }
+
+    private static InetAddress[] interleave(InetAddress[] addresses) {
+        List<InetAddress> first  = new ArrayList<InetAddress>();
+        List<InetAddress> second = new ArrayList<InetAddress>();
+        boolean firstIsV6 = addresses.length > 0 && addresses[0] instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            ((address instanceof Inet6Address) == firstIsV6 ? first : second).add(address);
+        }
+        InetAddress[] result = new InetAddress[addresses.length];
+        int n = 0;
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size())  result[n++] = first.get(i);
+            if (i < second.size()) result[n++] = second.get(i);
+        }
+        return result;
+    }
+
+    static void configure(Socket socket, WebSocketOptions options) throws SocketException {
+        socket.setTcpNoDelay(options.isTcpNoDelay());
+        if (options.getSendBufferSize() > 0) {
+            socket.setSendBufferSize(options.getSendBufferSize());
+        }
+        if (options.getReceiveBufferSize() > 0) {
+            socket.setReceiveBufferSize(options.getReceiveBufferSize());
+        }
+    }
+
+    /**
+     * Connects a blocking socket to host, racing the addresses Happy Eyeballs style.
+     */
+    static Socket dial(String host, int port, WebSocketOptions options) throws IOException {
+        InetAddress[] addresses = resolve(host, options.getDnsCacheMillis());
+        try {
+            Socket socket;
+            if (addresses.length == 1 || options.getHappyEyeballsDelayMillis() == 0) {
+                socket = dialSequentially(addresses, port, options);
+            } else {
+                socket = new Race(addresses, port, options).run();
+            }
+            socket.setSoTimeout(options.getReadTimeoutMillis());
+            return socket;
+        } catch (IOException e) {
+            invalidate(host);
+            throw e;
+        }
+    }
+
+    private static Socket dialSequentially(InetAddress[] addresses, int port, WebSocketOptions options)
+            throws IOException {
+        long deadline = options.getConnectTimeoutMillis() == 0
+                ? Long.MAX_VALUE : System.currentTimeMillis() + options.getConnectTimeoutMillis();
+        IOException error = null;
+        for (InetAddress address : addresses) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("connect timed out");
+            }
+            Socket socket = new Socket();
+            try {
+                configure(socket, options);
+                socket.connect(new InetSocketAddress(address, port),
+                        deadline == Long.MAX_VALUE ? 0 : (int) remaining);
+                return socket;
+            } catch (IOException e) {
+                closeQuietly(socket);
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            WSLog.d(TAG, "Error while closing socket", e);
+        }
+    }
+
+    /**
+     * Starts a connect attempt per address, each one delay after the previous one or as soon as
+     * it failed, on its own thread. The first connected socket wins and the others are closed.
+     */
+    private static final class Race {
+        private final InetAddress[]    mAddresses;
+        private final int              mPort;
+        private final WebSocketOptions mOptions;
+        private final List<Socket>     mSockets = new ArrayList<Socket>();
+
+        // Guarded by this.
+        private Socket      mWinner;
+        private boolean     mDone;
+        private int         mFailed;
+        private IOException mError;
+
+        Race(InetAddress[] addresses, int port, WebSocketOptions options) {
+            mAddresses = addresses;
+            mPort      = port;
+            mOptions   = options;
+        }
+
+        synchronized Socket run() throws IOException {
+            long now = System.currentTimeMillis();
+            long deadline = mOptions.getConnectTimeoutMillis() == 0
+                    ? Long.MAX_VALUE : now + mOptions.getConnectTimeoutMillis();
+            long nextStart = now;
+            int started = 0;
+            try {
+                while (mWinner == null) {
+                    now = System.currentTimeMillis();
+                    if (started < mAddresses.length && (now >= nextStart || mFailed == started)) {
+                        start(mAddresses[started++]);
+                        nextStart = now + mOptions.getHappyEyeballsDelayMillis();
+                        continue;
+                    }
+                    if (mFailed == mAddresses.length) {
+                        throw mError;
+                    }
+                    if (now >= deadline) {
+                        throw new SocketTimeoutException("connect timed out");
+                    }
+                    long wake = started < mAddresses.length ? Math.min(nextStart, deadline) : deadline;
+                    try {
+                        wait(Math.max(1, Math.min(wake - now, Integer.MAX_VALUE)));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SocketTimeoutException("connect interrupted");
+                    }
+                }
+                return mWinner;
+            } finally {
+                mDone = true;
+                for (Socket socket : mSockets) {
+                    if (socket != mWinner) {
+                        closeQuietly(socket);
+                    }
+                }
+            }
+        }
+
+        private void start(final InetAddress address) {
+            final Socket socket = new Socket();
+            mSockets.add(socket);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    attempt(socket, address);
+                }
+            }, "WebSocket-Dialer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void attempt(Socket socket, InetAddress address) {
+            IOException error = null;
+            try {
+                configure(socket, mOptions);
+                socket.connect(new InetSocketAddress(address, mPort), mOptions.getConnectTimeoutMillis());
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (this) {
+                if (error == null && mWinner == null && !mDone) {
+                    mWinner = socket;
+                } else {
+                    if (error != null) {
+                        mFailed++;
+                        mError = error;
+                    }
+                    closeQuietly(socket);
+                }
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.codebutler.websocket;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One thread of a {@link SelectorEngine}: waits on a Selector for its connections' socket
+ * events and also runs posted and delayed tasks, so it doubles as the {@link TaskRunner} of
+ * every WebSocketClient assigned to it.
+ */
+final class EventLoop implements TaskRunner, Runnable {
+    private static final String TAG = "EventLoop";
+
+    private static final ThreadLocal<EventLoop> CURRENT = new ThreadLocal<EventLoop>();
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    // Guarded by itself.
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+    private long timerSequence;
+    private volatile boolean quit = false;
+
+    EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Whether the calling thread is the thread of any EventLoop, which must never block.
+     */
+    static boolean isLoopThread() {
+        return CURRENT.get() != null;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        tasks.add(task);
+        wakeup();
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() + Math.max(0, delayMillis) * 1000000L;
+        synchronized (timers) {
+            timers.add(new Timer(task, deadline, timerSequence++));
+        }
+        wakeup();
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        synchronized (timers) {
+            for (Iterator<Timer> it = timers.iterator(); it.hasNext(); ) {
+                if (it.next().task == task) it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void quit() {
+        quit = true;
+        selector.wakeup();
+    }
+
+    private void wakeup() {
+        if (!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        CURRENT.set(this);
+        while (!quit) {
+            try {
+                long timeout = nextTimeout();
+                if (!tasks.isEmpty() || timeout == 0) {
+                    selector.selectNow();
+                } else {
+                    // select(0) waits until a key is ready or wakeup() is called.
+                    selector.select(timeout < 0 ? 0 : timeout);
+                }
+            } catch (IOException e) {
+                WSLog.w(TAG, "select failed", e);
+                continue;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                ((NioConnection) key.attachment()).onReady(key);
+            }
+
+            runTasks();
+            runTimers();
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((NioConnection) key.attachment()).fail(new IOException("SelectorEngine shut down"));
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            WSLog.d(TAG, "Error while closing selector", e);
+        }
+    }
+
+    /**
+     * @return milliseconds until the next timer is due, 0 when one is due now, -1 when there are none
+     */
+    private long nextTimeout() {
+        synchronized (timers) {
+            Timer timer = timers.peek();
+            if (timer == null) return -1;
+            long delay = timer.deadline - System.nanoTime();
+            return (delay <= 0) ? 0 : Math.max(1, delay / 1000000L);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            safeRun(task);
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        while (true) {
+            Timer timer;
+            synchronized (timers) {
+                timer = timers.peek();
+                if (timer == null || timer.deadline - now > 0) return;
+                timers.poll();
+            }
+            safeRun(timer.task);
+        }
+    }
+
+    private void safeRun(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            WSLog.w(TAG, "Task failed", e);
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        final Runnable task;
+        final long deadline;
+        final long sequence;
+
+        Timer(Runnable task, long deadline, long sequence) {
+            this.task = task;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            long diff = deadline - other.deadline;
+            if (diff != 0) return diff < 0 ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
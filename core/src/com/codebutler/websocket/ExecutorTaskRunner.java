@@ -0,0 +1,74 @@
+package com.codebutler.websocket;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于单线程 ScheduledExecutorService 的 {@link TaskRunner}，用于纯Java环境。
+ */
+public class ExecutorTaskRunner implements TaskRunner {
+
+    private final ScheduledExecutorService executor;
+    private final Map<Runnable, List<ScheduledFuture<?>>> delayed = new IdentityHashMap<Runnable, List<ScheduledFuture<?>>>();
+
+    /**
+     * @param threadName 线程名
+     */
+    public ExecutorTaskRunner(final String threadName) {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void post(Runnable task) {
+        executor.execute(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        ScheduledFuture<?> future = executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        synchronized (delayed) {
+            List<ScheduledFuture<?>> futures = delayed.get(task);
+            if (futures == null) {
+                futures = new ArrayList<ScheduledFuture<?>>(2);
+                delayed.put(task, futures);
+            }
+            for (Iterator<ScheduledFuture<?>> it = futures.iterator(); it.hasNext(); ) {
+                if (it.next().isDone()) it.remove();
+            }
+            futures.add(future);
+        }
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        List<ScheduledFuture<?>> futures;
+        synchronized (delayed) {
+            futures = delayed.remove(task);
+        }
+        if (futures != null) {
+            for (ScheduledFuture<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public void quit() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,17 @@
+package com.codebutler.websocket;
+
+/**
+ * 帧级跟踪，通过 {@link WebSocketClient#setFrameTracer(FrameTracer)} 对单个连接开启。
+ * 未设置时收发路径上没有任何额外开销。回调在收发线程上同步执行，实现应尽量轻量。
+ */
+public interface FrameTracer {
+
+    /**
+     * 收到或生成了一个帧
+     * @param outgoing true为发送的帧，false为收到的帧
+     * @param opcode 帧类型（RFC 6455 opcode）
+     * @param fin 是否为消息的最后一帧
+     * @param length 负载长度
+     */
+    public void onFrame(boolean outgoing, int opcode, boolean fin, long length);
+}
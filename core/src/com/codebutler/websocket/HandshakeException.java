@@ -0,0 +1,29 @@
+package com.codebutler.websocket;
+
+import java.io.IOException;
+
+/**
+ * WebSocket握手失败：服务端未返回101，或响应头校验不通过。
+ */
+public class HandshakeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HandshakeException(String message) {
+        this(-1, message);
+    }
+
+    public HandshakeException(int statusCode, String message) {
+        super(statusCode > 0 ? statusCode + " " + message : message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return 服务端返回的HTTP状态码，没有收到状态行时为-1
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
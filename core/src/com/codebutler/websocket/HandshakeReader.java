@@ -0,0 +1,122 @@
+package com.codebutler.websocket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the HTTP upgrade response in one buffer, however the bytes arrive, and splits the
+ * status line and headers in a single pass as they come in. Whatever the server sent behind the
+ * headers is kept as {@link #leftover()} for the frame decoder.
+ */
+final class HandshakeReader {
+    private static final int INITIAL_SIZE = 4096;
+    private static final int MAX_SIZE     = 64 * 1024;
+
+    private final List<HttpHeader> mHeaders = new ArrayList<HttpHeader>();
+    private ByteBuffer             mBuffer  = ByteBuffer.allocate(INITIAL_SIZE);
+    private int                    mScanned;
+    private int                    mLineStart;
+    private int                    mColon   = -1;
+    private String                 mStatusLine;
+    private ByteBuffer             mLeftover;
+
+    /**
+     * Reads from a blocking stream until the response headers are complete.
+     */
+    static HandshakeReader read(InputStream in) throws IOException {
+        HandshakeReader reader = new HandshakeReader();
+        do {
+            ByteBuffer buffer = reader.buffer();
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read == -1) {
+                reader.endOfStream();
+            }
+            buffer.position(buffer.position() + read);
+        } while (!reader.parse());
+        return reader;
+    }
+
+    /**
+     * The buffer to read more of the response into, in fill mode and never full.
+     */
+    ByteBuffer buffer() throws HandshakeException {
+        if (!mBuffer.hasRemaining()) {
+            if (mBuffer.capacity() >= MAX_SIZE) {
+                throw new HandshakeException("Handshake response too large.");
+            }
+            ByteBuffer grown = ByteBuffer.allocate(mBuffer.capacity() * 2);
+            mBuffer.flip();
+            grown.put(mBuffer);
+            mBuffer = grown;
+        }
+        return mBuffer;
+    }
+
+    void endOfStream() throws IOException {
+        if (mBuffer.position() == 0) {
+            throw new HandshakeException("Received no reply from server.");
+        }
+        throw new EOFException();
+    }
+
+    /**
+     * Scans the bytes received since the last call, splitting lines and headers as it goes.
+     * @return true once the blank line ending the headers has been seen
+     */
+    boolean parse() throws IOException {
+        byte[] data = mBuffer.array();
+        int length = mBuffer.position();
+        for (int i = mScanned; i < length; i++) {
+            byte b = data[i];
+            if (b == ':') {
+                if (mColon < 0) mColon = i;
+                continue;
+            }
+            if (b != '\n') continue;
+
+            int lineEnd = (i > mLineStart && data[i - 1] == '\r') ? i - 1 : i;
+            if (lineEnd == mLineStart) {
+                mScanned = i + 1;
+                mLeftover = ByteBuffer.wrap(data, i + 1, length - i - 1);
+                return true;
+            }
+            if (mStatusLine == null) {
+                mStatusLine = new String(data, mLineStart, lineEnd - mLineStart, "ISO-8859-1");
+            } else if (mColon < 0) {
+                throw new HandshakeException("Bad header: "
+                        + new String(data, mLineStart, lineEnd - mLineStart, "ISO-8859-1"));
+            } else {
+                mHeaders.add(new HttpHeader(trimmed(data, mLineStart, mColon), trimmed(data, mColon + 1, lineEnd)));
+            }
+            mLineStart = i + 1;
+            mColon = -1;
+        }
+        mScanned = length;
+        return false;
+    }
+
+    private static String trimmed(byte[] data, int start, int end) throws IOException {
+        while (start < end && data[start] <= ' ') start++;
+        while (end > start && data[end - 1] <= ' ') end--;
+        return new String(data, start, end - start, "ISO-8859-1");
+    }
+
+    String statusLine() {
+        return mStatusLine;
+    }
+
+    List<HttpHeader> headers() {
+        return mHeaders;
+    }
+
+    /**
+     * Bytes received after the headers, such as frames the server sent right away.
+     */
+    ByteBuffer leftover() {
+        return mLeftover;
+    }
+}
@@ -0,0 +1,174 @@
+package com.codebutler.websocket;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Timeouts for large numbers of short-lived requests on one thread. Scheduling and cancelling
+ * are O(1) and lock-free: new timeouts go through a queue the timer thread moves into the wheel
+ * each tick, and cancelled ones stay in their bucket until the thread next passes it. Expiry is
+ * accurate to one tick. The thread waits without ticking while nothing is scheduled.
+ */
+final class HashedWheelTimer implements Runnable {
+    private static final String TAG = "HashedWheelTimer";
+
+    private static final int STATE_PENDING   = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED   = 2;
+
+    private static HashedWheelTimer sShared;
+
+    private final long                              mTickNanos;
+    private final Timeout[]                         mWheel;
+    private final int                               mMask;
+    private final ConcurrentLinkedQueue<Timeout>    mAdded   = new ConcurrentLinkedQueue<Timeout>();
+    // Timeouts in the queue or the wheel, cancelled or not.
+    private final AtomicInteger                     mPending = new AtomicInteger();
+    private final long                              mStartNanos = System.nanoTime();
+    private long                                    mTick;
+
+    /**
+     * Something to run when its time is up, unless cancelled first. Runs on the timer thread.
+     */
+    abstract static class Timeout {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "mState");
+
+        private volatile int mState;
+        private long         mDeadline;
+        private long         mRounds;
+        private Timeout      mNext;
+
+        /**
+         * @return false if the timeout had already expired or been cancelled
+         */
+        boolean cancel() {
+            return STATE.compareAndSet(this, STATE_PENDING, STATE_CANCELLED);
+        }
+
+        abstract void expire();
+    }
+
+    /**
+     * The timer shared by the whole process, started on first use.
+     */
+    static synchronized HashedWheelTimer shared() {
+        if (sShared == null) {
+            sShared = new HashedWheelTimer(10, 512, "WebSocket-Timer");
+        }
+        return sShared;
+    }
+
+    HashedWheelTimer(long tickMillis, int wheelSize, String name) {
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        mTickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        mWheel     = new Timeout[size];
+        mMask      = size - 1;
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void schedule(Timeout timeout, long delayMillis) {
+        timeout.mDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        mAdded.add(timeout);
+        if (mPending.getAndIncrement() == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                awaitWork();
+                awaitTick();
+                transferAdded();
+                expireBucket((int) (mTick & mMask));
+                mTick++;
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                WSLog.w(TAG, "Timeout task failed", e);
+            }
+        }
+    }
+
+    private void awaitWork() throws InterruptedException {
+        if (mPending.get() > 0) return;
+        synchronized (this) {
+            while (mPending.get() == 0) {
+                wait();
+            }
+        }
+        // Skip the ticks spent idle; nothing was in the wheel to expire.
+        mTick = Math.max(mTick, (System.nanoTime() - mStartNanos) / mTickNanos);
+    }
+
+    private void awaitTick() throws InterruptedException {
+        long deadline = mStartNanos + (mTick + 1) * mTickNanos;
+        long sleep;
+        while ((sleep = deadline - System.nanoTime()) > 0) {
+            Thread.sleep(sleep / 1000000L, (int) (sleep % 1000000L));
+        }
+    }
+
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = mAdded.poll()) != null) {
+            if (timeout.mState != STATE_PENDING) {
+                mPending.decrementAndGet();
+                continue;
+            }
+            // The first tick that ends at or after the deadline, or this tick if that has passed.
+            long tick = Math.max(mTick, (timeout.mDeadline - mStartNanos - 1) / mTickNanos);
+            timeout.mRounds = (tick - mTick) / mWheel.length;
+            int bucket = (int) (tick & mMask);
+            timeout.mNext = mWheel[bucket];
+            mWheel[bucket] = timeout;
+        }
+    }
+
+    private void expireBucket(int bucket) {
+        Timeout previous = null;
+        Timeout timeout = mWheel[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.mNext;
+            boolean remove;
+            if (timeout.mState != STATE_PENDING) {
+                remove = true;
+            } else if (timeout.mRounds > 0) {
+                timeout.mRounds--;
+                remove = false;
+            } else {
+                remove = true;
+                if (Timeout.STATE.compareAndSet(timeout, STATE_PENDING, STATE_EXPIRED)) {
+                    try {
+                        timeout.expire();
+                    } catch (RuntimeException e) {
+                        WSLog.w(TAG, "Timeout task failed", e);
+                    }
+                }
+            }
+            if (remove) {
+                if (previous == null) {
+                    mWheel[bucket] = next;
+                } else {
+                    previous.mNext = next;
+                }
+                timeout.mNext = null;
+                mPending.decrementAndGet();
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.codebutler.websocket;
+
+/**
+ * 握手请求中附加的HTTP头
+ */
+public final class HttpHeader {
+
+    private final String name;
+    private final String value;
+
+    public HttpHeader(String name, String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + value;
+    }
+}
@@ -0,0 +1,880 @@
+//
+// HybiParser.java: draft-ietf-hybi-thewebsocketprotocol-13 parser
+//
+// Based on code from the faye project.
+// https://github.com/faye/faye-websocket-node
+// Copyright (c) 2009-2012 James Coglan
+//
+// Ported from Javascript to Java by Eric Butler <eric@codebutler.com>
+//
+// (The MIT License)
+//
+// Permission is hereby granted, free of charge, to any person obtaining
+// a copy of this software and associated documentation files (the
+// "Software"), to deal in the Software without restriction, including
+// without limitation the rights to use, copy, modify, merge, publish,
+// distribute, sublicense, and/or sell copies of the Software, and to
+// permit persons to whom the Software is furnished to do so, subject to
+// the following conditions:
+//
+// The above copyright notice and this permission notice shall be
+// included in all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+// EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+// MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+// NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+// LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+// OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+// WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+package com.codebutler.websocket;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class HybiParser {
+    private static final String TAG = "HybiParser";
+
+    private WebSocketClient  mClient;
+    private WebSocketMetrics mMetrics;
+
+    private boolean mMasking = true;
+
+    private final Random     mRandom = new Random();
+    private final BufferPool mPool   = BufferPool.getDefault();
+
+    private boolean mFinal;
+    private boolean mMasked;
+    private int     mOpcode;
+    private int     mLengthSize;
+    private long    mLength;
+    private int     mMode;
+    private boolean mCompressed;
+
+    private ByteBufferCallback mBufferCallback;
+    // Lent to inline ByteBufferCallbacks until one retains it.
+    private PooledMessage      mLentMessage = new PooledMessage();
+
+    // Streaming receive state: payload bytes of the current frame still to be delivered,
+    // and the mask key rotated to where delivery stopped.
+    private StreamCallback mStream;
+    private long    mStreamRemaining;
+    private int     mStreamKey;
+    private boolean mStreamFirst;
+
+    private PerMessageDeflate mDeflate;
+
+    // Socket data is read into mReadBuffer (kept in fill mode between reads) and as many
+    // complete frames as possible are decoded out of it before the next read. mPayload is a
+    // reusable view onto the read buffer that is positioned over the payload being emitted.
+    private ByteBuffer mReadBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private ByteBuffer mPayload    = mReadBuffer.duplicate();
+    private ByteBuffer mChunk      = mReadBuffer.asReadOnlyBuffer();
+    private int        mRequired;
+
+    private boolean mClosed = false;
+
+    private ByteArrayOutputStream mBuffer = new ByteArrayOutputStream();
+    // Text messages are decoded fragment by fragment; control frames may arrive in between.
+    private final Utf8Decoder mDecoder        = new Utf8Decoder();
+    private final Utf8Decoder mControlDecoder = new Utf8Decoder();
+
+    private static final int BYTE   = 255;
+    private static final int FIN    = 128;
+    private static final int MASK   = 128;
+    private static final int RSV1   =  64;
+    private static final int RSV2   =  32;
+    private static final int RSV3   =  16;
+    private static final int OPCODE =  15;
+    private static final int LENGTH = 127;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_FRAME_SIZE   = Integer.MAX_VALUE - 8;
+    // Shorter text is sized with Utf8.encodedLength and encoded straight into the frame.
+    private static final int DIRECT_TEXT_LENGTH = 256;
+
+    private static final int MODE_TEXT   = 1;
+    private static final int MODE_BINARY = 2;
+
+    private static final int OP_CONTINUATION =  0;
+    private static final int OP_TEXT         =  1;
+    private static final int OP_BINARY       =  2;
+    private static final int OP_CLOSE        =  8;
+    private static final int OP_PING         =  9;
+    private static final int OP_PONG         = 10;
+
+    private static final List<Integer> OPCODES = Arrays.asList(
+                                                                      OP_CONTINUATION,
+                                                                      OP_TEXT,
+                                                                      OP_BINARY,
+                                                                      OP_CLOSE,
+                                                                      OP_PING,
+                                                                      OP_PONG
+    );
+
+    private static final List<Integer> FRAGMENTED_OPCODES = Arrays.asList(
+                                                                                 OP_CONTINUATION, OP_TEXT, OP_BINARY
+    );
+
+    public HybiParser(WebSocketClient client) {
+        mClient  = client;
+        mMetrics = client.getMetrics();
+    }
+
+    /**
+     * Sets the permessage-deflate extension negotiated for the current connection, or null.
+     */
+    void setDeflate(PerMessageDeflate deflate) {
+        mDeflate = deflate;
+        mCompressed = false;
+    }
+
+    PerMessageDeflate getDeflate() {
+        return mDeflate;
+    }
+
+    public void start(InputStream stream) throws IOException {
+        start(stream, null);
+    }
+
+    /**
+     * @param leftover bytes read from the stream ahead of the parser, decoded first; may be null
+     */
+    void start(InputStream stream, ByteBuffer leftover) throws IOException {
+        begin();
+        if (leftover != null) {
+            feed(leftover);
+        }
+
+        while (true) {
+            ByteBuffer buffer = mReadBuffer;
+            int read = stream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (read == -1) {
+                throw new EOFException();
+            }
+            buffer.position(buffer.position() + read);
+            decodeBuffered();
+        }
+    }
+
+    /**
+     * Resets the decoder for a new connection. {@link #start} does this itself; a caller that
+     * pushes data with {@link #readBuffer} and {@link #decodeBuffered} calls it once the
+     * handshake is done.
+     */
+    void begin() {
+        WSCallback callback = mClient.getCallback();
+        mStream = (callback instanceof StreamCallback) ? (StreamCallback) callback : null;
+        mBufferCallback = (callback instanceof ByteBufferCallback) ? (ByteBufferCallback) callback : null;
+        mStreamRemaining = 0;
+        mRequired = 0;
+        mCompressed = false;
+        mReadBuffer.clear();
+        if (mReadBuffer.capacity() > READ_BUFFER_SIZE) {
+            resize(READ_BUFFER_SIZE);
+        }
+        reset();
+    }
+
+    /**
+     * The buffer socket data is read into, in fill mode. There is always room for at least one
+     * more byte after {@link #decodeBuffered}.
+     */
+    ByteBuffer readBuffer() {
+        return mReadBuffer;
+    }
+
+    /**
+     * Decodes and emits every complete frame in the read buffer and keeps the remainder for the
+     * next read.
+     */
+    void decodeBuffered() throws IOException {
+        mClient.onActivity();
+        ByteBuffer buffer = mReadBuffer;
+        buffer.flip();
+        while (decodeFrame(buffer)) {
+            // Keep going until the buffer holds no complete frame.
+        }
+        buffer.compact();
+
+        if (mRequired > buffer.capacity()) {
+            grow(mRequired);
+        } else if (buffer.capacity() > READ_BUFFER_SIZE && mRequired <= READ_BUFFER_SIZE
+                && buffer.position() < READ_BUFFER_SIZE) {
+            // The oversized frame is done; don't hold on to its buffer for the rest of the connection.
+            resize(READ_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Copies data that was read ahead of the parser (such as bytes that followed the handshake
+     * response) into the read buffer and decodes it.
+     */
+    void feed(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = mReadBuffer;
+            int count = Math.min(buffer.remaining(), data.remaining());
+            ByteBuffer slice = data.duplicate();
+            slice.limit(slice.position() + count);
+            buffer.put(slice);
+            data.position(data.position() + count);
+            decodeBuffered();
+        }
+    }
+
+    /**
+     * Decodes one frame from the start of the buffer, if it is complete.
+     * @return true when a frame was consumed, false when more bytes are needed.
+     */
+    private boolean decodeFrame(ByteBuffer buffer) throws IOException {
+        if (mStreamRemaining > 0) {
+            return streamPayload(buffer);
+        }
+
+        int start     = buffer.position();
+        int available = buffer.remaining();
+
+        mRequired = 2;
+        if (available < mRequired) return false;
+
+        parseOpcode(buffer.get(start));
+        parseLength(buffer.get(start + 1));
+
+        int header = 2 + mLengthSize + (mMasked ? 4 : 0);
+        mRequired = header;
+        if (available < mRequired) return false;
+
+        if (mLengthSize > 0) {
+            parseExtendedLength(buffer, start + 2);
+        }
+        if (mOpcode >= OP_CLOSE && mLength > 125) {
+            throw new ProtocolError("Control frame payload too large: " + mLength);
+        }
+
+        if (mStream != null && FRAGMENTED_OPCODES.contains(mOpcode)) {
+            traceFrame();
+            if (mOpcode != OP_CONTINUATION) {
+                mMode = (mOpcode == OP_TEXT) ? MODE_TEXT : MODE_BINARY;
+                mStreamFirst = true;
+            } else if (mMode == 0) {
+                throw new ProtocolError("Mode was not set.");
+            }
+            mStreamKey       = mMasked ? buffer.getInt(start + header - 4) : 0;
+            mStreamRemaining = mLength;
+            buffer.position(start + header);
+            mRequired = 0;
+            if (mLength == 0) {
+                if (mFinal) {
+                    streamChunk(buffer.array(), 0, 0, true);
+                }
+                return true;
+            }
+            return streamPayload(buffer);
+        }
+
+        long total = header + mLength;
+        if (total > MAX_FRAME_SIZE) {
+            throw new ProtocolError("Frame too large: " + mLength);
+        }
+        mRequired = (int) total;
+        if (available < mRequired) return false;
+
+        int payloadStart = start + header;
+        int payloadEnd   = payloadStart + (int) mLength;
+        if (mMasked) {
+            Masker.mask(buffer, payloadStart, (int) mLength, buffer.getInt(payloadStart - 4));
+        }
+
+        mPayload.clear();
+        mPayload.position(payloadStart);
+        mPayload.limit(payloadEnd);
+
+        traceFrame();
+
+        buffer.position(payloadEnd);
+        mRequired = 0;
+        emitFrame();
+        return true;
+    }
+
+    private void traceFrame() {
+        mMetrics.frameIn(mOpcode, 2 + mLengthSize + (mMasked ? 4 : 0) + mLength);
+        FrameTracer tracer = mClient.getFrameTracer();
+        if (tracer != null) {
+            tracer.onFrame(false, mOpcode, mFinal, mLength);
+        }
+    }
+
+    /**
+     * Streaming mode: hands whatever part of the current frame's payload is buffered to the
+     * StreamCallback without waiting for the rest of the frame.
+     * @return true when the frame is finished, false when more bytes are needed.
+     */
+    private boolean streamPayload(ByteBuffer buffer) throws IOException {
+        int count = (int) Math.min(buffer.remaining(), mStreamRemaining);
+        if (count == 0) return false;
+
+        int position = buffer.position();
+        if (mMasked) {
+            Masker.mask(buffer, position, count, mStreamKey);
+            mStreamKey = Integer.rotateLeft(mStreamKey, (count & 3) * 8);
+        }
+        buffer.position(position + count);
+        mStreamRemaining -= count;
+
+        boolean done = mStreamRemaining == 0;
+        streamChunk(buffer.array(), buffer.arrayOffset() + position, count, done && mFinal);
+        return done;
+    }
+
+    private void streamChunk(byte[] array, int offset, int length, boolean last) throws IOException {
+        int type = (mMode == MODE_TEXT) ? StreamCallback.TYPE_TEXT : StreamCallback.TYPE_BINARY;
+        if (mCompressed) {
+            PerMessageDeflate deflate = mDeflate;
+            deflate.setInflateInput(array, offset, length, last);
+            int count;
+            while ((count = deflate.inflateSome()) > 0) {
+                if (type == StreamCallback.TYPE_TEXT) {
+                    mDecoder.validate(deflate.getInflated(), 0, count);
+                }
+                mClient.dispatcher().onMessageChunk(mStream, type, ByteBuffer.wrap(deflate.getInflated(), 0, count).asReadOnlyBuffer(),
+                        mStreamFirst, false);
+                mStreamFirst = false;
+            }
+            if (last) {
+                deflate.endMessage();
+                if (type == StreamCallback.TYPE_TEXT) {
+                    mDecoder.finish();
+                }
+                mClient.dispatcher().onMessageChunk(mStream, type, ByteBuffer.wrap(deflate.getInflated(), 0, 0).asReadOnlyBuffer(),
+                        mStreamFirst, true);
+            }
+        } else {
+            if (type == StreamCallback.TYPE_TEXT) {
+                mDecoder.validate(array, offset, length);
+                if (last) {
+                    mDecoder.finish();
+                }
+            }
+            ByteBuffer chunk = mChunk;
+            int position = offset - mReadBuffer.arrayOffset();
+            chunk.clear();
+            chunk.position(position);
+            chunk.limit(position + length);
+            mClient.dispatcher().onMessageChunk(mStream, type, chunk, mStreamFirst, last);
+        }
+        mStreamFirst = false;
+        if (last) {
+            mMode = 0;
+            mCompressed = false;
+        }
+    }
+
+    private void grow(int required) {
+        int capacity = mReadBuffer.capacity();
+        while (capacity < required) {
+            capacity = (capacity > MAX_FRAME_SIZE / 2) ? MAX_FRAME_SIZE : capacity * 2;
+        }
+        resize(capacity);
+    }
+
+    /**
+     * Moves the buffered bytes into a new read buffer of the given capacity, which must hold them.
+     */
+    private void resize(int capacity) {
+        ByteBuffer resized = ByteBuffer.allocate(capacity);
+        mReadBuffer.flip();
+        resized.put(mReadBuffer);
+        mReadBuffer = resized;
+        mPayload    = resized.duplicate();
+        mChunk      = resized.asReadOnlyBuffer();
+    }
+
+    private void parseOpcode(byte data) throws ProtocolError {
+        boolean rsv1 = (data & RSV1) == RSV1;
+        boolean rsv2 = (data & RSV2) == RSV2;
+        boolean rsv3 = (data & RSV3) == RSV3;
+
+        if (rsv2 || rsv3 || (rsv1 && mDeflate == null)) {
+            throw new ProtocolError("RSV not zero");
+        }
+
+        mFinal   = (data & FIN) == FIN;
+        mOpcode  = (data & OPCODE);
+
+        if (!OPCODES.contains(mOpcode)) {
+            throw new ProtocolError("Bad opcode");
+        }
+
+        // permessage-deflate marks the first frame of a compressed message with RSV1.
+        if (mOpcode == OP_TEXT || mOpcode == OP_BINARY) {
+            if (mMode != 0) {
+                // Only control frames may come between the fragments of a message.
+                throw new ProtocolError("Expected continuation frame");
+            }
+            mCompressed = rsv1;
+        } else if (rsv1) {
+            throw new ProtocolError("RSV1 set on opcode " + mOpcode);
+        }
+
+        if (!FRAGMENTED_OPCODES.contains(mOpcode) && !mFinal) {
+            throw new ProtocolError("Expected non-final packet");
+        }
+    }
+
+    private void parseLength(byte data) {
+        mMasked = (data & MASK) == MASK;
+        mLength = (data & LENGTH);
+
+        if (mLength >= 0 && mLength <= 125) {
+            mLengthSize = 0;
+        } else {
+            mLengthSize = (mLength == 126) ? 2 : 8;
+        }
+    }
+
+    private void parseExtendedLength(ByteBuffer buffer, int index) throws ProtocolError {
+        long length = (mLengthSize == 2) ? (buffer.getShort(index) & 0xFFFF) : buffer.getLong(index);
+        if (length < 0) {
+            throw new ProtocolError("Bad integer: " + length);
+        }
+        mLength = length;
+    }
+
+    /**
+     * Encodes an uncompressed text frame into a new array, or returns null once the parser is
+     * closed. {@link #pooledFrame(CharSequence)} avoids the copy.
+     */
+    public byte[] frame(String data) {
+        return toArray(pooledFrame(data));
+    }
+
+    public byte[] frame(byte[] data) {
+        return toArray(pooledFrame(data));
+    }
+
+    /**
+     * Encodes an uncompressed text frame into a buffer taken from the pool. The buffer is
+     * flipped and ready to be written; whoever writes it hands it back with
+     * {@link BufferPool#release}.
+     */
+    public ByteBuffer pooledFrame(CharSequence data) {
+        return frame(data, false);
+    }
+
+    public ByteBuffer pooledFrame(byte[] data) {
+        return frame(data, 0, data.length, false);
+    }
+
+    private byte[] toArray(ByteBuffer frame) {
+        if (frame == null) return null;
+        byte[] array = new byte[frame.remaining()];
+        frame.get(array);
+        mPool.release(frame);
+        return array;
+    }
+
+    /**
+     * @param compress whether to use the negotiated permessage-deflate; uncompressed frames
+     *                 leave the deflate context alone and need no ordering against compressed ones
+     */
+    ByteBuffer frame(CharSequence data, boolean compress) {
+        PerMessageDeflate deflate = mDeflate;
+        boolean deflating = compress && deflate != null;
+        if (mClosed || (!deflating && !isPooledTextLength(data.length()))) {
+            return frame(data, OP_TEXT, -1);
+        }
+        ByteBuffer raw = encode(data);
+        int length = raw.remaining();
+        ByteBuffer frame = (deflating && deflate.shouldCompress(length))
+                ? frameCompressed(deflate, raw.array(), raw.arrayOffset(), length, OP_TEXT)
+                : frame(raw.array(), raw.arrayOffset(), length, OP_TEXT, -1);
+        mPool.release(raw);
+        return frame;
+    }
+
+    /**
+     * Text of this many chars is encoded into a pooled buffer of the worst-case size, which
+     * saves the separate encodedLength pass at the cost of copying the bytes into the frame.
+     * Short text is cheaper to size, and above the pool limit the worst case would be a fresh
+     * allocation of three times the text.
+     */
+    private boolean isPooledTextLength(int chars) {
+        return chars >= DIRECT_TEXT_LENGTH && chars <= mPool.maxBufferSize() / 3;
+    }
+
+    private ByteBuffer encode(CharSequence data) {
+        int chars = data.length();
+        ByteBuffer raw = mPool.acquire(isPooledTextLength(chars) ? Utf8.maxEncodedLength(chars) : Utf8.encodedLength(data));
+        Utf8.encode(data, raw);
+        raw.flip();
+        return raw;
+    }
+
+    /**
+     * Encodes the remaining bytes of a buffer as a binary frame, leaving its position alone.
+     */
+    ByteBuffer frame(ByteBuffer data, boolean compress) {
+        if (data.hasArray()) {
+            return frame(data.array(), data.arrayOffset() + data.position(), data.remaining(), compress);
+        }
+        ByteBuffer copy = mPool.acquire(data.remaining());
+        copy.put(data.duplicate());
+        copy.flip();
+        ByteBuffer frame = frame(copy.array(), copy.arrayOffset(), copy.remaining(), compress);
+        mPool.release(copy);
+        return frame;
+    }
+
+    ByteBuffer frame(byte[] data, int offset, int length, boolean compress) {
+        PerMessageDeflate deflate = mDeflate;
+        if (compress && deflate != null && !mClosed && deflate.shouldCompress(length)) {
+            return frameCompressed(deflate, data, offset, length, OP_BINARY);
+        }
+        return frame(data, offset, length, OP_BINARY, -1);
+    }
+
+    /**
+     * Encodes a text message as fragments carrying at most fragmentSize payload bytes each, so
+     * control frames can be written between them. A compressed message is deflated whole and
+     * the compressed bytes are split, with RSV1 on the first fragment only.
+     * @return the frames in order, or null once the parser is closed
+     */
+    ByteBuffer[] frames(CharSequence data, int fragmentSize, boolean compress) {
+        if (mClosed) return null;
+        ByteBuffer raw = encode(data);
+        ByteBuffer[] frames = frames(raw.array(), raw.arrayOffset(), raw.remaining(), OP_TEXT, fragmentSize, compress);
+        mPool.release(raw);
+        return frames;
+    }
+
+    ByteBuffer[] frames(byte[] data, int offset, int length, int fragmentSize, boolean compress) {
+        if (mClosed) return null;
+        return frames(data, offset, length, OP_BINARY, fragmentSize, compress);
+    }
+
+    /**
+     * Fragments the remaining bytes of a buffer as a binary message, leaving its position alone.
+     */
+    ByteBuffer[] frames(ByteBuffer data, int fragmentSize, boolean compress) {
+        if (mClosed) return null;
+        if (data.hasArray()) {
+            return frames(data.array(), data.arrayOffset() + data.position(), data.remaining(),
+                    OP_BINARY, fragmentSize, compress);
+        }
+        ByteBuffer copy = mPool.acquire(data.remaining());
+        copy.put(data.duplicate());
+        copy.flip();
+        ByteBuffer[] frames = frames(copy.array(), copy.arrayOffset(), copy.remaining(), OP_BINARY, fragmentSize, compress);
+        mPool.release(copy);
+        return frames;
+    }
+
+    private ByteBuffer[] frames(byte[] data, int offset, int length, int opcode, int fragmentSize, boolean compress) {
+        PerMessageDeflate deflate = mDeflate;
+        ByteBuffer compressed = null;
+        if (compress && deflate != null && deflate.shouldCompress(length)) {
+            compressed = deflate.compress(data, offset, length, mPool, true);
+            data   = compressed.array();
+            offset = compressed.arrayOffset();
+            length = compressed.remaining();
+            opcode |= RSV1;
+        }
+        int count = (int) Math.max(1, ((long) length + fragmentSize - 1) / fragmentSize);
+        ByteBuffer[] frames = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int start = i * fragmentSize;
+            frames[i] = frame(data, offset + start, Math.min(fragmentSize, length - start),
+                    i == 0 ? opcode : OP_CONTINUATION, -1, i == count - 1);
+        }
+        if (compressed != null) {
+            mPool.release(compressed);
+        }
+        return frames;
+    }
+
+    private ByteBuffer frameCompressed(PerMessageDeflate deflate, byte[] data, int offset, int length, int opcode) {
+        ByteBuffer compressed = deflate.compress(data, offset, length, mPool, true);
+        ByteBuffer frame = frame(compressed.array(), compressed.arrayOffset(), compressed.remaining(), opcode | RSV1, -1);
+        mPool.release(compressed);
+        return frame;
+    }
+
+    /**
+     * Encodes one fragment of a message sent in pieces: the first fragment carries the message
+     * opcode and the rest are continuations. A compressed fragment keeps its sync-flush marker
+     * unless it is the last one, so the fragments join into one deflate stream.
+     */
+    ByteBuffer fragment(byte[] data, int offset, int length, boolean binary, boolean compress,
+                        boolean first, boolean last) {
+        int opcode = first ? (binary ? OP_BINARY : OP_TEXT) : OP_CONTINUATION;
+        if (compress) {
+            ByteBuffer compressed = mDeflate.compress(data, offset, length, mPool, last);
+            ByteBuffer frame = frame(compressed.array(), compressed.arrayOffset(), compressed.remaining(),
+                    first ? opcode | RSV1 : opcode, -1, last);
+            mPool.release(compressed);
+            return frame;
+        }
+        return frame(data, offset, length, opcode, -1, last);
+    }
+
+    private ByteBuffer frame(byte[] data, int offset, int count, int opcode, int errorCode) {
+        return frame(data, offset, count, opcode, errorCode, true);
+    }
+
+    private ByteBuffer frame(byte[] data, int offset, int count, int opcode, int errorCode, boolean fin) {
+        if (mClosed) return null;
+
+        int key = mMasking ? mRandom.nextInt() : 0;
+        ByteBuffer frame = beginFrame(opcode, errorCode, count, key, fin);
+        int payloadStart = frame.position() - ((errorCode > 0) ? 2 : 0);
+        frame.put(data, offset, count);
+        return endFrame(frame, payloadStart, key);
+    }
+
+    private ByteBuffer frame(CharSequence data, int opcode, int errorCode) {
+        if (mClosed) return null;
+
+        if (data == null) data = "";
+        int key = mMasking ? mRandom.nextInt() : 0;
+        ByteBuffer frame = beginFrame(opcode, errorCode, Utf8.encodedLength(data), key, true);
+        int payloadStart = frame.position() - ((errorCode > 0) ? 2 : 0);
+        Utf8.encode(data, frame);
+        return endFrame(frame, payloadStart, key);
+    }
+
+    /**
+     * Writes the frame header, mask key and close code, leaving the buffer positioned where
+     * the payload data goes.
+     */
+    private ByteBuffer beginFrame(int opcode, int errorCode, int count, int key, boolean fin) {
+        int insert = (errorCode > 0) ? 2 : 0;
+        int length = count + insert;
+        int header = (length <= 125) ? 2 : (length <= 65535 ? 4 : 10);
+        int offset = header + (mMasking ? 4 : 0);
+        int masked = mMasking ? MASK : 0;
+        ByteBuffer frame = mPool.acquire(length + offset);
+
+        FrameTracer tracer = mClient.getFrameTracer();
+        if (tracer != null) {
+            tracer.onFrame(true, opcode & OPCODE, fin, length);
+        }
+
+        frame.put((byte) (fin ? FIN | opcode : opcode));
+
+        if (length <= 125) {
+            frame.put((byte) (masked | length));
+        } else if (length <= 65535) {
+            frame.put((byte) (masked | 126));
+            frame.putShort((short) length);
+        } else {
+            frame.put((byte) (masked | 127));
+            frame.putLong(length);
+        }
+
+        if (mMasking) {
+            frame.putInt(key);
+        }
+
+        if (errorCode > 0) {
+            frame.putShort((short) errorCode);
+        }
+        return frame;
+    }
+
+    private ByteBuffer endFrame(ByteBuffer frame, int payloadStart, int key) {
+        if (mMasking) {
+            Masker.mask(frame, payloadStart, frame.position() - payloadStart, key);
+        }
+        frame.flip();
+        return frame;
+    }
+
+    public void ping(String message) {
+        mClient.sendFrame(frame(message, OP_PING, -1));
+    }
+
+    /**
+     * Sends a keepalive ping whose payload is the 8-byte send timestamp, so the pong carries
+     * it back without any per-ping state.
+     */
+    void ping(long timestamp) {
+        if (mClosed) return;
+        int key = mMasking ? mRandom.nextInt() : 0;
+        ByteBuffer frame = beginFrame(OP_PING, -1, 8, key, true);
+        int payloadStart = frame.position();
+        frame.putLong(timestamp);
+        mClient.sendFrame(endFrame(frame, payloadStart, key));
+    }
+
+    /**
+     * A close frame for failing the connection; unlike {@link #close} the parser stays usable
+     * for the next connection.
+     */
+    ByteBuffer closeFrame(int code, String reason) {
+        return frame(reason, OP_CLOSE, code);
+    }
+
+    public void close(int code, String reason) {
+        if (mClosed) return;
+        mClient.sendFrame(frame(reason, OP_CLOSE, code));
+        mClosed = true;
+    }
+
+    private void emitFrame() throws IOException {
+        ByteBuffer payload = mPayload;
+        byte[] array  = payload.array();
+        int    offset = payload.arrayOffset() + payload.position();
+        int    length = payload.remaining();
+        int    opcode = mOpcode;
+
+        if (opcode == OP_CONTINUATION) {
+            if (mMode == 0) {
+                throw new ProtocolError("Mode was not set.");
+            }
+            if (mMode == MODE_TEXT && !mCompressed) {
+                mDecoder.decode(array, offset, length);
+                if (mFinal) {
+                    String message = mDecoder.finish();
+                    reset();
+                    mClient.dispatcher().onMessage(message);
+                }
+                return;
+            }
+            mBuffer.write(array, offset, length);
+            if (mFinal && mMode == MODE_BINARY && !mCompressed && mBufferCallback != null) {
+                PooledMessage message = PooledMessage.copyOf(mBuffer);
+                reset();
+                mClient.dispatcher().onMessage(mBufferCallback, message);
+            } else if (mFinal) {
+                byte[] message = mBuffer.toByteArray();
+                emitMessage(mMode, message, 0, message.length, true);
+                reset();
+            }
+
+        } else if (opcode == OP_TEXT) {
+            if (mFinal) {
+                emitMessage(MODE_TEXT, array, offset, length, false);
+            } else {
+                mMode = MODE_TEXT;
+                if (mCompressed) {
+                    mBuffer.write(array, offset, length);
+                } else {
+                    mDecoder.decode(array, offset, length);
+                }
+            }
+
+        } else if (opcode == OP_BINARY) {
+            if (mFinal) {
+                emitMessage(MODE_BINARY, array, offset, length, false);
+            } else {
+                mMode = MODE_BINARY;
+                mBuffer.write(array, offset, length);
+            }
+
+        } else if (opcode == OP_CLOSE) {
+            int    code   = (length >= 2) ? ((array[offset] & BYTE) << 8) | (array[offset + 1] & BYTE) : 0;
+            String reason = (length >  2) ? mControlDecoder.decodeMessage(array, offset + 2, length - 2) : null;
+            if (WSLog.isLoggable(WSLog.DEBUG)) {
+                WSLog.d(TAG, "Got close op! " + code + " " + reason);
+            }
+            mClient.dispatcher().onDisconnect(code, reason);
+
+        } else if (opcode == OP_PING) {
+            mClient.sendFrame(frame(array, offset, length, OP_PONG, -1));
+
+        } else if (opcode == OP_PONG) {
+            if (length == 8) {
+                mClient.onPong(payload.getLong(payload.position()));
+            }
+            if (WSLog.isLoggable(WSLog.DEBUG)) {
+                WSLog.d(TAG, "Got pong! " + length + " bytes");
+            }
+        }
+    }
+
+    /**
+     * An inline callback returns before the bytes are overwritten, so it gets them in place;
+     * an async one gets a pooled copy.
+     */
+    private PooledMessage pooledMessage(byte[] array, int offset, int length) {
+        if (!mClient.dispatcher().isInline()) {
+            return PooledMessage.copyOf(array, offset, length);
+        }
+        if (!mLentMessage.isReusable()) {
+            mLentMessage = new PooledMessage();
+        }
+        mLentMessage.lend(array, offset, length);
+        return mLentMessage;
+    }
+
+    /**
+     * Delivers a complete message, inflating it first if it was compressed.
+     * @param owned whether the array is a private copy that may be handed to the callback
+     */
+    private void emitMessage(int mode, byte[] array, int offset, int length, boolean owned) throws IOException {
+        if (mCompressed) {
+            length = mDeflate.decompress(array, offset, length);
+            array  = mDeflate.getInflated();
+            offset = 0;
+            owned  = false;
+            mCompressed = false;
+        }
+
+        if (mode == MODE_TEXT) {
+            mClient.dispatcher().onMessage(mDecoder.decodeMessage(array, offset, length));
+        } else if (mBufferCallback != null) {
+            mClient.dispatcher().onMessage(mBufferCallback, pooledMessage(array, offset, length));
+        } else if (owned && offset == 0 && length == array.length) {
+            mClient.dispatcher().onMessage(array);
+        } else {
+            mClient.dispatcher().onMessage(Arrays.copyOfRange(array, offset, offset + length));
+        }
+    }
+
+    private void reset() {
+        mMode = 0;
+        mBuffer.reset();
+        mDecoder.reset();
+    }
+
+    public static class ProtocolError extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public static final int CLOSE_PROTOCOL_ERROR = 1002;
+
+        private final int mCode;
+
+        public ProtocolError(String detailMessage) {
+            this(CLOSE_PROTOCOL_ERROR, detailMessage);
+        }
+
+        public ProtocolError(int code, String detailMessage) {
+            super(detailMessage);
+            mCode = code;
+        }
+
+        /**
+         * The close code sent to the server when failing the connection over this error.
+         */
+        public int getCode() {
+            return mCode;
+        }
+    }
+
+    public static class HappyDataInputStream extends DataInputStream {
+        public HappyDataInputStream(InputStream in) {
+            super(in);
+        }
+
+        public byte[] readBytes(int length) throws IOException {
+            byte[] buffer = new byte[length];
+            readFully(buffer);
+            return buffer;
+        }
+    }
+}
\ No newline at end of file
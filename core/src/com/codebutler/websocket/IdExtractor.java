@@ -0,0 +1,14 @@
+package com.codebutler.websocket;
+
+/**
+ * 从收到的文本消息中取出请求ID，用于 {@link RpcClient} 把响应与请求对应起来。
+ * 在回调线程上调用，应只解析需要的字段，不要完整解析消息。
+ */
+public interface IdExtractor {
+
+    /**
+     * @param message 收到的文本消息
+     * @return 响应对应的请求ID；不是响应的消息（如服务端推送）返回null
+     */
+    public String getId(String message);
+}
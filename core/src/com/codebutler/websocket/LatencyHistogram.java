@@ -0,0 +1,134 @@
+package com.codebutler.websocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图（纳秒）：按2的幂分段，每段再均分为 {@link #SUB_BUCKETS} 个桶，
+ * 相对误差不超过 1/{@link #SUB_BUCKETS}。记录样本只对一个桶做原子加，不分配对象，
+ * 数量、平均值和百分位数在读取时由各桶计算。超过约18分钟的值记入最后一个桶。
+ */
+public class LatencyHistogram {
+
+    /** 每个2的幂区间内的桶数 */
+    public static final int SUB_BUCKETS = 16;
+
+    private static final int SUB_BITS = 4;
+    private static final int MAX_BITS = 40;
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS + 1) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+        counts.getAndIncrement(index(value));
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index >>> SUB_BITS) - 1;
+        return (long) (index - (shift << SUB_BITS)) << shift;
+    }
+
+    private static long upperBound(int index) {
+        return lowerBound(index + 1) - 1;
+    }
+
+    /** 样本总数 */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /** 最大值（纳秒） */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /** 平均值（纳秒），按各桶中点估算 */
+    public long getMeanNanos() {
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c == 0) continue;
+            count += c;
+            sum += c * ((lowerBound(i) + upperBound(i)) / 2.0);
+        }
+        return count == 0 ? 0 : (long) (sum / count);
+    }
+
+    /**
+     * 百分位数（纳秒），返回所在桶的上界，不超过最大值
+     * @param percentile 0-100
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** 中位数（纳秒） */
+    public long getP50Nanos() {
+        return getPercentileNanos(50);
+    }
+
+    /** 99分位（纳秒） */
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+
+    void addTo(LatencyHistogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c != 0) {
+                target.counts.getAndAdd(i, c);
+            }
+        }
+        long value = max.get();
+        long current = target.max.get();
+        while (value > current && !target.max.compareAndSet(current, value)) {
+            current = target.max.get();
+        }
+    }
+
+    LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        addTo(copy);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{count=" + getCount() + ", mean=" + getMeanNanos() / 1000 + "us, p50="
+                + getP50Nanos() / 1000 + "us, p99=" + getP99Nanos() / 1000 + "us, max=" + getMaxNanos() / 1000 + "us}";
+    }
+}
@@ -0,0 +1,81 @@
+package com.codebutler.websocket;
+
+import java.util.Arrays;
+
+/**
+ * 往返延迟统计：保存最近 {@link #WINDOW} 个样本，最小值、平均值和百分位数都按这些样本计算。
+ * 记录样本不分配对象；读取百分位数时复制并排序样本。
+ */
+public class LatencyStats {
+
+    /** 参与统计的最近样本数 */
+    public static final int WINDOW = 256;
+
+    private final long[] samples = new long[WINDOW];
+    private int next;
+    private int size;
+    private long count;
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % WINDOW;
+        if (size < WINDOW) size++;
+        count++;
+    }
+
+    /** 收到的样本总数 */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /** 最近一次的往返延迟（纳秒），没有样本时为0 */
+    public synchronized long getLastNanos() {
+        return size == 0 ? 0 : samples[(next + WINDOW - 1) % WINDOW];
+    }
+
+    /** 最小往返延迟（纳秒） */
+    public synchronized long getMinNanos() {
+        if (size == 0) return 0;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, samples[i]);
+        }
+        return min;
+    }
+
+    /** 平均往返延迟（纳秒） */
+    public synchronized long getAverageNanos() {
+        if (size == 0) return 0;
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += samples[i];
+        }
+        return sum / size;
+    }
+
+    /**
+     * 往返延迟的百分位数（纳秒）
+     * @param percentile 0-100
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (size == 0) return 0;
+            sorted = Arrays.copyOf(samples, size);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /** 99分位往返延迟（纳秒） */
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStats{count=" + getCount() + ", minUs=" + getMinNanos() / 1000
+                + ", avgUs=" + getAverageNanos() / 1000 + ", p99Us=" + getP99Nanos() / 1000 + "}";
+    }
+}
@@ -0,0 +1,34 @@
+package com.codebutler.websocket;
+
+/**
+ * 将每个帧以 INFO 级别写入 {@link WSLog} 的 FrameTracer，用于线上临时排查单个连接。
+ */
+public class LogFrameTracer implements FrameTracer {
+
+    private final String tag;
+
+    /**
+     * @param tag 日志标签，用于区分连接
+     */
+    public LogFrameTracer(String tag) {
+        this.tag = tag;
+    }
+
+    @Override
+    public void onFrame(boolean outgoing, int opcode, boolean fin, long length) {
+        if (!WSLog.isLoggable(WSLog.INFO)) return;
+        WSLog.i(tag, (outgoing ? "-> " : "<- ") + opcodeName(opcode) + (fin ? " fin" : "") + " len=" + length);
+    }
+
+    private static String opcodeName(int opcode) {
+        switch (opcode) {
+            case 0:  return "CONTINUATION";
+            case 1:  return "TEXT";
+            case 2:  return "BINARY";
+            case 8:  return "CLOSE";
+            case 9:  return "PING";
+            case 10: return "PONG";
+            default: return "OP_" + opcode;
+        }
+    }
+}
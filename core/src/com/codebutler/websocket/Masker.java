@@ -0,0 +1,52 @@
+package com.codebutler.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * WebSocket帧掩码处理（RFC 6455 5.3）。
+ * 4字节掩码重复拼成64位，每次异或8个字节，剩余不足8字节的部分逐字节处理。
+ * 掩码与反掩码是同一操作，结果与逐字节 mask[i % 4] 完全一致。
+ */
+public final class Masker {
+
+    private Masker() { }
+
+    /**
+     * 对缓冲区中 [index, index + length) 区间原地做掩码，不改变缓冲区的 position/limit。
+     * @param buffer 数据缓冲区，堆内或直接缓冲区均可
+     * @param index 掩码起始位置（对应掩码第0个字节）
+     * @param length 字节数
+     * @param key 掩码，按网络字节序拼成的int
+     */
+    public static void mask(ByteBuffer buffer, int index, int length, int key) {
+        long wide = ((long) key << 32) | (key & 0xFFFFFFFFL);
+        if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+            wide = Long.reverseBytes(wide);
+        }
+
+        int end = index + length;
+        int i = index;
+        for (int wideEnd = end - 7; i < wideEnd; i += 8) {
+            buffer.putLong(i, buffer.getLong(i) ^ wide);
+        }
+        for (; i < end; i++) {
+            buffer.put(i, (byte) (buffer.get(i) ^ (key >>> (24 - ((i - index) & 3) * 8))));
+        }
+    }
+
+    /**
+     * 对数组中 [offset, offset + length) 区间原地做掩码。
+     */
+    public static void mask(byte[] array, int offset, int length, int key) {
+        mask(ByteBuffer.wrap(array), offset, length, key);
+    }
+
+    /**
+     * 读取数组中 offset 处的4字节掩码。
+     */
+    public static int key(byte[] array, int offset) {
+        return ((array[offset] & 0xFF) << 24) | ((array[offset + 1] & 0xFF) << 16)
+                | ((array[offset + 2] & 0xFF) << 8) | (array[offset + 3] & 0xFF);
+    }
+}
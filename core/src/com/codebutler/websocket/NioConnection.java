@@ -0,0 +1,385 @@
+package com.codebutler.websocket;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A WebSocketClient connection driven by an {@link EventLoop}: non-blocking connect, handshake,
+ * frame reads and writes. Everything except {@link #start}, name resolution and the state checks
+ * runs on the loop thread.
+ */
+final class NioConnection {
+    private static final String TAG = "NioConnection";
+
+    private static final int STATE_CONNECTING = 0;
+    private static final int STATE_HANDSHAKE  = 1;
+    private static final int STATE_OPEN       = 2;
+    private static final int STATE_CLOSED     = 3;
+
+    // Reads per readiness event, so one busy connection cannot starve the rest of the loop.
+    private static final int MAX_READS_PER_EVENT   = 16;
+
+    private final WebSocketClient  mClient;
+    private final EventLoop        mLoop;
+    private final String           mHost;
+    private final int              mPort;
+    private final String           mSecret;
+    private final DeflateOptions   mDeflateOffer;
+    private final WebSocketOptions mOptions;
+    private final Runnable         mConnectTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (mState == STATE_CONNECTING) {
+                fail(new SocketTimeoutException("connect timed out"));
+            }
+        }
+    };
+
+    private final Runnable         mNextAttempt = new Runnable() {
+        @Override
+        public void run() {
+            startAttempt();
+        }
+    };
+    private final Runnable         mResumeReading = new Runnable() {
+        @Override
+        public void run() {
+            if (!mReadPaused) return;
+            mReadPaused = false;
+            if (mState == STATE_OPEN && mKey.isValid()) {
+                mKey.interestOps(mKey.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+    };
+
+    // Happy Eyeballs state while connecting: one channel per started address, registered for
+    // OP_CONNECT; the first to finish becomes mChannel.
+    private InetAddress[]      mAddresses;
+    private final List<SelectionKey> mAttempts = new ArrayList<SelectionKey>();
+    private int                mStarted;
+    private int                mFailed;
+
+    private SocketChannel   mChannel;
+    private SelectionKey    mKey;
+    private volatile int    mState = STATE_CONNECTING;
+    private ByteBuffer      mRequest;
+    private HandshakeReader mResponse;
+    // Set while the ordered callback queue is full; see CallbackDispatcher.pauseReading.
+    private boolean         mReadPaused;
+
+    NioConnection(WebSocketClient client, EventLoop loop, String host, int port, String secret,
+                  DeflateOptions deflateOffer, WebSocketOptions options) {
+        mClient       = client;
+        mLoop         = loop;
+        mHost         = host;
+        mPort         = port;
+        mSecret       = secret;
+        mDeflateOffer = deflateOffer;
+        mOptions      = options;
+    }
+
+    void start() {
+        mLoop.post(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    boolean isOpen() {
+        return mState == STATE_OPEN;
+    }
+
+    boolean isClosed() {
+        return mState == STATE_CLOSED;
+    }
+
+    private void open() {
+        // The connect timeout covers name resolution too.
+        if (mOptions.getConnectTimeoutMillis() > 0) {
+            mLoop.postDelayed(mConnectTimeout, mOptions.getConnectTimeoutMillis());
+        }
+        InetAddress[] cached = Dialer.cached(mHost, mOptions.getDnsCacheMillis());
+        if (cached != null) {
+            dial(cached);
+            return;
+        }
+        // The resolver blocks, so it runs off the loop and the result is posted back.
+        SharedExecutor.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final InetAddress[] addresses = Dialer.resolve(mHost, mOptions.getDnsCacheMillis());
+                    mLoop.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            dial(addresses);
+                        }
+                    });
+                } catch (final IOException e) {
+                    mLoop.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            fail(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts connecting like {@link Dialer} does for blocking sockets: a new attempt every
+     * happyEyeballsDelayMillis, or as soon as all started ones have failed.
+     */
+    private void dial(InetAddress[] addresses) {
+        if (mState != STATE_CONNECTING) return;
+        mAddresses = addresses;
+        startAttempt();
+    }
+
+    private void startAttempt() {
+        if (mState != STATE_CONNECTING || mStarted == mAddresses.length) return;
+        InetAddress address = mAddresses[mStarted++];
+        SocketChannel channel = null;
+        SelectionKey key;
+        boolean connected;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            Dialer.configure(channel.socket(), mOptions);
+            connected = channel.connect(new InetSocketAddress(address, mPort));
+            key = channel.register(mLoop.selector(), connected ? 0 : SelectionKey.OP_CONNECT, this);
+            mAttempts.add(key);
+        } catch (Exception e) {
+            closeQuietly(channel);
+            attemptFailed(e);
+            return;
+        }
+        if (connected) {
+            try {
+                connected(key);
+            } catch (Exception e) {
+                fail(e);
+            }
+            return;
+        }
+        long delay = mOptions.getHappyEyeballsDelayMillis();
+        if (delay > 0 && mStarted < mAddresses.length) {
+            mLoop.postDelayed(mNextAttempt, delay);
+        }
+    }
+
+    private void attemptFailed(Exception error) {
+        if (++mFailed == mAddresses.length) {
+            fail(error);
+        } else if (mFailed == mStarted) {
+            // Nothing left in flight: go on with the next address right away.
+            mLoop.removeCallbacks(mNextAttempt);
+            startAttempt();
+        }
+    }
+
+    /**
+     * The first attempt to connect wins; the others are closed.
+     */
+    private void connected(SelectionKey winner) throws Exception {
+        mLoop.removeCallbacks(mNextAttempt);
+        mKey = winner;
+        mChannel = (SocketChannel) winner.channel();
+        mAttempts.remove(winner);
+        closeAttempts();
+        beginHandshake();
+    }
+
+    private void closeAttempts() {
+        for (SelectionKey key : mAttempts) {
+            key.cancel();
+            closeQuietly(key.channel());
+        }
+        mAttempts.clear();
+    }
+
+    private static void closeQuietly(Channel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            WSLog.d(TAG, "Error while closing channel", e);
+        }
+    }
+
+    void onReady(SelectionKey key) {
+        try {
+            if (mState == STATE_CLOSED || !key.isValid()) return;
+            if (mState == STATE_CONNECTING) {
+                if (key.isConnectable()) {
+                    finishAttempt(key);
+                }
+                return;
+            }
+            if (key.isWritable()) {
+                onWritable();
+            }
+            if (mState != STATE_CLOSED && key.isValid() && key.isReadable()) {
+                onReadable();
+            }
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
+    private void finishAttempt(SelectionKey key) throws Exception {
+        try {
+            if (!((SocketChannel) key.channel()).finishConnect()) return;
+        } catch (IOException e) {
+            mAttempts.remove(key);
+            key.cancel();
+            closeQuietly(key.channel());
+            attemptFailed(e);
+            return;
+        }
+        connected(key);
+    }
+
+    private void beginHandshake() throws Exception {
+        mLoop.removeCallbacks(mConnectTimeout);
+        mState    = STATE_HANDSHAKE;
+        mRequest  = ByteBuffer.wrap(mClient.createHandshake(mSecret, mDeflateOffer).getBytes("UTF-8"));
+        mResponse = new HandshakeReader();
+        writeRequest();
+    }
+
+    private void writeRequest() throws IOException {
+        mChannel.write(mRequest);
+        if (mRequest.hasRemaining()) {
+            mKey.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            mRequest = null;
+            mKey.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void onWritable() throws IOException {
+        if (mState == STATE_HANDSHAKE) {
+            writeRequest();
+        } else if (mState == STATE_OPEN) {
+            mKey.interestOps(readInterest());
+            mClient.drainSendQueue();
+        }
+    }
+
+    private void onReadable() throws IOException {
+        if (mState == STATE_HANDSHAKE) {
+            readResponse();
+            return;
+        }
+        HybiParser parser = mClient.getParser();
+        for (int i = 0; i < MAX_READS_PER_EVENT && mState == STATE_OPEN && !mReadPaused; i++) {
+            int read = mChannel.read(parser.readBuffer());
+            if (read == -1) {
+                throw new EOFException();
+            }
+            if (read == 0) break;
+            parser.decodeBuffered();
+            if (mState == STATE_OPEN && mClient.dispatcher().pauseReading(this)) {
+                mReadPaused = true;
+                mKey.interestOps(mKey.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private int readInterest() {
+        return mReadPaused ? 0 : SelectionKey.OP_READ;
+    }
+
+    /**
+     * Reads again once the ordered callback queue has room. Callable from any thread.
+     */
+    void resumeReading() {
+        mLoop.post(mResumeReading);
+    }
+
+    private void readResponse() throws IOException {
+        int read = mChannel.read(mResponse.buffer());
+        if (read == -1) {
+            mResponse.endOfStream();
+        }
+        if (!mResponse.parse()) return;
+
+        HandshakeReader response = mResponse;
+        mResponse = null;
+        PerMessageDeflate negotiated = mClient.verifyHandshake(response.statusLine(), response.headers(),
+                mSecret, mDeflateOffer);
+
+        mState = STATE_OPEN;
+        mClient.onHandshake(negotiated, null);
+        if (mState != STATE_OPEN) return;
+
+        // Frames the server sent right behind the handshake response.
+        HybiParser parser = mClient.getParser();
+        parser.begin();
+        parser.feed(response.leftover());
+    }
+
+    /**
+     * Writes as much of the frames as the socket takes without blocking.
+     */
+    void write(ByteBuffer[] frames, int offset, int length) throws IOException {
+        mChannel.write(frames, offset, length);
+    }
+
+    /**
+     * Asks for a writable event to finish a batch the socket did not take in full.
+     */
+    void awaitWritable() {
+        if (mState != STATE_CLOSED && mKey.isValid()) {
+            mKey.interestOps(readInterest() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Closes the connection on request of the application.
+     */
+    void close() {
+        if (mState == STATE_CLOSED) return;
+        closeChannel();
+        mClient.dispatcher().onDisconnect(WebSocketClient.CODE_MANUAL, "MANUAL");
+    }
+
+    /**
+     * Closes the connection after an error and reports it the same way the blocking reader does.
+     */
+    void fail(Exception error) {
+        if (mState == STATE_CLOSED) return;
+        if (mState == STATE_CONNECTING) {
+            Dialer.invalidate(mHost);
+        } else if (mState == STATE_OPEN && error instanceof HybiParser.ProtocolError) {
+            mClient.sendCloseFrame((HybiParser.ProtocolError) error);
+        }
+        closeChannel();
+        mClient.handleError(error);
+    }
+
+    private void closeChannel() {
+        mState = STATE_CLOSED;
+        mLoop.removeCallbacks(mConnectTimeout);
+        mLoop.removeCallbacks(mNextAttempt);
+        closeAttempts();
+        if (mKey != null) {
+            mKey.cancel();
+        }
+        closeQuietly(mChannel);
+        mClient.connectionLost();
+    }
+}
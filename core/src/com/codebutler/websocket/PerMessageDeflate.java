@@ -0,0 +1,237 @@
+package com.codebutler.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 一个连接上协商成功的 permessage-deflate 扩展（RFC 7692）。
+ * Deflater 与 Inflater 在整个连接内复用，按协商结果决定消息间是否重置。
+ */
+class PerMessageDeflate {
+
+    static final String EXTENSION = "permessage-deflate";
+
+    // Every compressed message ends with an empty stored block, which RFC 7692 strips.
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    static final int CLOSE_TOO_BIG = 1009;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+    private final boolean resetDeflater;
+    private final boolean resetInflater;
+    private final int minCompressSize;
+    private final int maxMessageSize;
+
+    private byte[] inflated = new byte[4096];
+    private boolean pendingTail;
+
+    private PerMessageDeflate(DeflateOptions options, boolean clientNoContextTakeover, boolean serverNoContextTakeover) {
+        deflater = new Deflater(options.getCompressionLevel(), true);
+        resetDeflater = clientNoContextTakeover;
+        resetInflater = serverNoContextTakeover;
+        minCompressSize = options.getMinCompressSize();
+        maxMessageSize = options.getMaxMessageSize();
+    }
+
+    /**
+     * 握手请求中 Sec-WebSocket-Extensions 的值。
+     * 不提供 client_max_window_bits：Deflater 无法缩小窗口，服务端若指定了更小的窗口客户端将无法遵守。
+     */
+    static String offer(DeflateOptions options) {
+        StringBuilder offer = new StringBuilder(EXTENSION);
+        if (options.isClientNoContextTakeover()) {
+            offer.append("; client_no_context_takeover");
+        }
+        if (options.isServerNoContextTakeover()) {
+            offer.append("; server_no_context_takeover");
+        }
+        if (options.getServerMaxWindowBits() < 15) {
+            offer.append("; server_max_window_bits=").append(options.getServerMaxWindowBits());
+        }
+        return offer.toString();
+    }
+
+    /**
+     * 根据服务端返回的 Sec-WebSocket-Extensions 确定扩展参数。
+     * @throws HybiParser.ProtocolError 服务端返回了未提供或无法遵守的扩展参数
+     */
+    static PerMessageDeflate accept(DeflateOptions options, String response) throws HybiParser.ProtocolError {
+        if (response.indexOf(',') >= 0) {
+            throw new HybiParser.ProtocolError("Unexpected extensions: " + response);
+        }
+        String[] params = response.split(";");
+        if (!params[0].trim().equalsIgnoreCase(EXTENSION)) {
+            throw new HybiParser.ProtocolError("Unexpected extension: " + response);
+        }
+
+        boolean clientNoContextTakeover = options.isClientNoContextTakeover();
+        boolean serverNoContextTakeover = false;
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            String value = null;
+            int equals = param.indexOf('=');
+            if (equals >= 0) {
+                value = param.substring(equals + 1).trim().replace("\"", "");
+                param = param.substring(0, equals).trim();
+            }
+
+            if (param.equalsIgnoreCase("client_no_context_takeover")) {
+                clientNoContextTakeover = true;
+            } else if (param.equalsIgnoreCase("server_no_context_takeover")) {
+                serverNoContextTakeover = true;
+            } else if (param.equalsIgnoreCase("server_max_window_bits")) {
+                int bits = parseWindowBits(value);
+                if (bits > options.getServerMaxWindowBits()) {
+                    throw new HybiParser.ProtocolError("server_max_window_bits above offer: " + bits);
+                }
+            } else if (param.equalsIgnoreCase("client_max_window_bits")) {
+                // Only allowed in reply to an offer that carried it (RFC 7692 7.1.2.2), and offer() never does.
+                throw new HybiParser.ProtocolError("client_max_window_bits not offered: " + value);
+            } else {
+                throw new HybiParser.ProtocolError("Unknown permessage-deflate parameter: " + param);
+            }
+        }
+        return new PerMessageDeflate(options, clientNoContextTakeover, serverNoContextTakeover);
+    }
+
+    private static int parseWindowBits(String value) throws HybiParser.ProtocolError {
+        try {
+            int bits = Integer.parseInt(value);
+            if (bits >= 8 && bits <= 15) return bits;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new HybiParser.ProtocolError("Bad window bits: " + value);
+    }
+
+    boolean shouldCompress(int length) {
+        return length >= minCompressSize;
+    }
+
+    /**
+     * 压缩一条消息（或分片发送的消息中的一段）的负载。
+     * @param last 是否为消息的最后一段，只有最后一段去掉结尾的 00 00 FF FF
+     * @return 从缓冲池取得的已flip的缓冲区，使用后需归还
+     */
+    synchronized ByteBuffer compress(byte[] data, int offset, int length, BufferPool pool, boolean last) {
+        deflater.setInput(data, offset, length);
+        ByteBuffer out = pool.acquire(length / 2 + 64);
+        while (true) {
+            int count = deflater.deflate(out.array(), out.arrayOffset() + out.position(), out.remaining(),
+                    Deflater.SYNC_FLUSH);
+            out.position(out.position() + count);
+            if (out.hasRemaining()) break;
+
+            ByteBuffer grown = pool.acquire(out.capacity() * 2);
+            out.flip();
+            grown.put(out);
+            pool.release(out);
+            out = grown;
+        }
+        if (last) {
+            if (out.position() == 0) {
+                // Nothing new since the previous fragment's flush: an empty stored block (RFC 7692 7.2.3.6).
+                out.put((byte) 0);
+            } else {
+                // Drop the 00 00 FF FF that SYNC_FLUSH appends.
+                out.position(out.position() - TAIL.length);
+            }
+            if (resetDeflater) {
+                deflater.reset();
+            }
+        }
+        out.flip();
+        return out;
+    }
+
+    /**
+     * 解压一条消息的负载，结果写入 {@link #getInflated()}。
+     * @return 解压后的字节数
+     */
+    int decompress(byte[] data, int offset, int length) throws HybiParser.ProtocolError {
+        try {
+            int count = inflate(data, offset, length, 0);
+            count = inflate(TAIL, 0, TAIL.length, count);
+            endMessage();
+            return count;
+        } catch (DataFormatException e) {
+            throw new HybiParser.ProtocolError("Bad compressed data: " + e.getMessage());
+        }
+    }
+
+    private int inflate(byte[] data, int offset, int length, int count)
+            throws DataFormatException, HybiParser.ProtocolError {
+        inflater.setInput(data, offset, length);
+        while (true) {
+            if (count == inflated.length) {
+                // Room for one byte past the limit tells a message of exactly maxMessageSize
+                // from a bigger one.
+                if (count > maxMessageSize) {
+                    throw new HybiParser.ProtocolError(CLOSE_TOO_BIG, "Inflated message larger than " + maxMessageSize);
+                }
+                byte[] grown = new byte[(int) Math.min(inflated.length * 2L, maxMessageSize + 1L)];
+                System.arraycopy(inflated, 0, grown, 0, count);
+                inflated = grown;
+            }
+            int n = inflater.inflate(inflated, count, inflated.length - count);
+            count += n;
+            // A block with BFINAL set ends the deflate stream; whatever input follows is ignored.
+            if (n == 0 || inflater.finished()) {
+                if (count > maxMessageSize) {
+                    throw new HybiParser.ProtocolError(CLOSE_TOO_BIG, "Inflated message larger than " + maxMessageSize);
+                }
+                return count;
+            }
+        }
+    }
+
+    /**
+     * 流式解压：设置一段压缩数据作为输入，随后反复调用 {@link #inflateSome()} 取出解压结果。
+     * @param last 是否为消息的最后一段
+     */
+    void setInflateInput(byte[] data, int offset, int length, boolean last) {
+        inflater.setInput(data, offset, length);
+        pendingTail = last;
+    }
+
+    /**
+     * 流式解压：将当前输入解压到 {@link #getInflated()} 开头，每次最多填满一次输出数组。
+     * @return 本次解压的字节数，0表示当前输入已处理完
+     */
+    int inflateSome() throws HybiParser.ProtocolError {
+        try {
+            int count = inflater.inflate(inflated, 0, inflated.length);
+            if (count == 0 && pendingTail && inflater.needsInput() && !inflater.finished()) {
+                pendingTail = false;
+                inflater.setInput(TAIL, 0, TAIL.length);
+                count = inflater.inflate(inflated, 0, inflated.length);
+            }
+            return count;
+        } catch (DataFormatException e) {
+            throw new HybiParser.ProtocolError("Bad compressed data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 一条消息解压结束。服务端以BFINAL结束了压缩流时也要重置，否则之后的消息都无法解压。
+     */
+    void endMessage() {
+        if (resetInflater || inflater.finished()) {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * 最近一次解压的输出，有效长度为 decompress 的返回值
+     */
+    byte[] getInflated() {
+        return inflated;
+    }
+
+    void end() {
+        deflater.end();
+        inflater.end();
+    }
+}
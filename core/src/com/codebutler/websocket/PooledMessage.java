@@ -0,0 +1,166 @@
+package com.codebutler.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 使用缓冲池存放的字节消息，通过 {@link ByteBufferCallback} 回调。
+ * 创建时引用计数为1，由回调方持有，回调返回后释放；需要在回调之后继续使用时，在回调中调用 {@link #retain()}，
+ * 用完后调用 {@link #release()}。计数归零后缓冲区归还 {@link BufferPool}，不能再访问。
+ * 同步回调时消息直接引用解析器的读缓冲区，不复制，对象在消息间复用；调用 retain() 时才复制到缓冲池。
+ */
+public final class PooledMessage {
+
+    private static final AtomicIntegerFieldUpdater<PooledMessage> REFS =
+            AtomicIntegerFieldUpdater.newUpdater(PooledMessage.class, "refs");
+
+    private volatile int refs = 1;
+    // The pooled copy; null while the message borrows the parser's array, and after release.
+    private volatile ByteBuffer buffer;
+    private ByteBuffer view;
+    private int length;
+
+    // Borrowed data, valid only until the callback returns. The read-only view of the array
+    // is kept so consecutive messages out of the same read buffer reuse it.
+    private boolean borrowed;
+    private byte[]  borrowedArray;
+    private int     borrowedOffset;
+    private ByteBuffer borrowedView;
+    private boolean retained;
+
+    private PooledMessage(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.view = buffer.asReadOnlyBuffer();
+        this.length = buffer.remaining();
+    }
+
+    /**
+     * An empty message for {@link #lend}.
+     */
+    PooledMessage() {
+        refs = 0;
+    }
+
+    static PooledMessage copyOf(byte[] data, int offset, int length) {
+        ByteBuffer buffer = BufferPool.getDefault().acquire(length);
+        buffer.put(data, offset, length);
+        buffer.flip();
+        return new PooledMessage(buffer);
+    }
+
+    static PooledMessage copyOf(ByteArrayOutputStream data) {
+        final ByteBuffer buffer = BufferPool.getDefault().acquire(data.size());
+        try {
+            data.writeTo(new OutputStream() {
+                @Override
+                public void write(int b) {
+                    buffer.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    buffer.put(b, off, len);
+                }
+            });
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        buffer.flip();
+        return new PooledMessage(buffer);
+    }
+
+    /**
+     * Points a message that is not in use at bytes the caller owns, for a callback that runs
+     * before the caller touches them again. Nothing is copied unless the callback retains it.
+     */
+    void lend(byte[] array, int offset, int length) {
+        if (array != borrowedArray) {
+            borrowedArray = array;
+            borrowedView = ByteBuffer.wrap(array).asReadOnlyBuffer();
+        }
+        borrowedView.clear();
+        borrowedView.position(offset);
+        borrowedView.limit(offset + length);
+        borrowedOffset = offset;
+        this.length = length;
+        view = borrowedView;
+        borrowed = true;
+        REFS.lazySet(this, 1);
+    }
+
+    /**
+     * Whether the last lent message was released without being retained, so the object can be
+     * lent again.
+     */
+    boolean isReusable() {
+        return refs == 0 && !retained;
+    }
+
+    /**
+     * 消息数据的只读视图，数据为position到limit之间（position不一定为0），在调用 {@link #retain()} 之前每次返回同一个对象。
+     * retain() 之后需重新调用以取得复制后的数据。
+     * @throws IllegalStateException 已经释放
+     */
+    public ByteBuffer buffer() {
+        if (refs <= 0) {
+            throw new IllegalStateException("Message already released");
+        }
+        return view;
+    }
+
+    /** 消息长度（字节） */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 增加引用计数，在回调返回后继续持有消息
+     */
+    public PooledMessage retain() {
+        int count;
+        do {
+            count = refs;
+            if (count <= 0) {
+                throw new IllegalStateException("Message already released");
+            }
+        } while (!REFS.compareAndSet(this, count, count + 1));
+        if (borrowed) {
+            // Retaining only happens inside the callback, on the thread that lent the data.
+            ByteBuffer copy = BufferPool.getDefault().acquire(length);
+            copy.put(borrowedArray, borrowedOffset, length);
+            copy.flip();
+            buffer = copy;
+            view = copy.asReadOnlyBuffer();
+            borrowed = false;
+            retained = true;
+        }
+        return this;
+    }
+
+    /**
+     * 减少引用计数，归零时缓冲区归还缓冲池
+     */
+    public void release() {
+        if (borrowed) {
+            // Only the lending thread sees a borrowed message, so no atomic update is needed.
+            if (refs != 1) {
+                throw new IllegalStateException("Message already released");
+            }
+            REFS.lazySet(this, 0);
+            return;
+        }
+        int count = REFS.decrementAndGet(this);
+        if (count == 0) {
+            ByteBuffer released = buffer;
+            buffer = null;
+            if (released != null) {
+                BufferPool.getDefault().release(released);
+            }
+        } else if (count < 0) {
+            throw new IllegalStateException("Message already released");
+        }
+    }
+}
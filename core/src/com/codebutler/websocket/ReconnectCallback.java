@@ -0,0 +1,20 @@
+package com.codebutler.websocket;
+
+/**
+ * 自动重连的回调，WSCallback 同时实现此接口时生效
+ */
+public interface ReconnectCallback {
+
+    /**
+     * 即将重连
+     * @param attempt 第几次重连，从1开始，连接成功后重新计数
+     * @param delayMillis 重连前的等待时间（毫秒）
+     */
+    public void onReconnecting(int attempt, long delayMillis);
+
+    /**
+     * 达到最大重连次数，不再重连
+     * @param attempts 已重连次数
+     */
+    public void onReconnectFailed(int attempts);
+}
@@ -0,0 +1,94 @@
+package com.codebutler.websocket;
+
+import java.util.Random;
+
+/**
+ * 断线自动重连策略，通过 {@link WebSocketClient#setReconnectPolicy(ReconnectPolicy)} 启用。
+ * 第n次重连前等待 [0, min(maxDelay, initialDelay * multiplier^(n-1))] 内的随机时间（full jitter），
+ * 避免大量客户端同时重连。连接成功后重新计数。
+ */
+public class ReconnectPolicy {
+
+    private static final Random random = new Random();
+
+    private long initialDelayMillis = 1000;
+    private long maxDelayMillis = 30 * 1000;
+    private double multiplier = 2;
+    private int maxAttempts = -1;
+    private boolean replayUnsent = false;
+
+    /**
+     * 第一次重连的最大等待时间（毫秒），默认1000
+     */
+    public void setInitialDelayMillis(long initialDelayMillis) {
+        if (initialDelayMillis < 0) {
+            throw new IllegalArgumentException("initialDelayMillis must not be negative");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    /**
+     * 等待时间上限（毫秒），默认30000
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("maxDelayMillis must not be negative");
+        }
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * 每次重连失败后等待时间的增长倍数，默认2
+     */
+    public void setMultiplier(double multiplier) {
+        if (multiplier < 1) {
+            throw new IllegalArgumentException("multiplier must be at least 1");
+        }
+        this.multiplier = multiplier;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * 连续重连的最大次数，超过后放弃并回调 {@link ReconnectCallback#onReconnectFailed(int)}。默认-1即不限制
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 断线时保留发送队列中尚未写出的帧，重连成功后按原顺序发送。默认false，即按原来的方式丢弃并回调 onError。
+     * 上一个连接启用了 permessage-deflate 压缩时，已压缩的帧无法在新连接上发送，仍会丢弃。
+     */
+    public void setReplayUnsent(boolean replayUnsent) {
+        this.replayUnsent = replayUnsent;
+    }
+
+    public boolean isReplayUnsent() {
+        return replayUnsent;
+    }
+
+    /**
+     * @param attempt 第几次重连，从1开始
+     * @return 本次重连前的等待时间（毫秒）
+     */
+    long nextDelay(int attempt) {
+        double ceiling = initialDelayMillis * Math.pow(multiplier, attempt - 1);
+        long cap = (long) Math.min(maxDelayMillis, ceiling);
+        return (long) (random.nextDouble() * (cap + 1));
+    }
+}
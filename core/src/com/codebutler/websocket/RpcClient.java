@@ -0,0 +1,168 @@
+package com.codebutler.websocket;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于WebSocket的请求/响应：发出的请求按ID登记，收到的文本消息由 {@link IdExtractor} 取出ID后
+ * 完成对应的 {@link RpcFuture}。不是响应的消息、无法对应的响应（如超时后才到达）以及连接事件
+ * 都交给传入的 WSCallback（同时实现 ReconnectCallback、WritabilityCallback 时也会转发）。
+ * 待响应的请求保存在无锁的并发表中，所有 RpcClient 的超时由同一个时间轮线程处理（精度10ms），
+ * 单个连接可以同时有数万个请求等待响应。连接断开时所有未完成的请求以 IOException 失败。
+ */
+public class RpcClient {
+
+    private final WebSocketClient client;
+    private final IdExtractor extractor;
+    private final WSCallback callback;
+    private final ConcurrentHashMap<String, RpcFuture> pending = new ConcurrentHashMap<String, RpcFuture>(1024);
+    private final HashedWheelTimer timer = HashedWheelTimer.shared();
+    private volatile long timeoutMillis = 30 * 1000;
+
+    /**
+     * @param callback 接收非响应消息和连接事件，可以为null
+     */
+    public RpcClient(String wsUrl, IdExtractor extractor, WSCallback callback) {
+        this(URI.create(wsUrl), null, extractor, callback);
+    }
+
+    public RpcClient(URI uri, List<HttpHeader> extraHeaders, IdExtractor extractor, WSCallback callback) {
+        if (extractor == null) {
+            throw new IllegalArgumentException("extractor must not be null");
+        }
+        this.extractor = extractor;
+        this.callback = callback;
+        this.client = new WebSocketClient(uri, new Receiver(), extraHeaders);
+    }
+
+    /**
+     * 底层连接，用于连接、断开和设置连接参数
+     */
+    public WebSocketClient getClient() {
+        return client;
+    }
+
+    /**
+     * 默认超时时间（毫秒），默认30000
+     */
+    public void setTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * 以默认超时时间发出请求
+     * @see #call(String, String, long)
+     */
+    public RpcFuture call(String id, String request) {
+        return call(id, request, timeoutMillis);
+    }
+
+    /**
+     * 发出请求。请求先登记再发送，响应不会早于登记到达。
+     * @param id 请求ID，需与 IdExtractor 从响应中取出的ID一致，且在未完成的请求中唯一
+     * @param request 请求消息，其中已包含ID
+     * @param timeoutMillis 超时时间（毫秒），超时后 future 以 TimeoutException 失败
+     * @throws IllegalArgumentException ID与未完成的请求重复
+     */
+    public RpcFuture call(String id, String request, long timeoutMillis) {
+        RpcFuture future = new RpcFuture(id, this);
+        if (pending.putIfAbsent(id, future) != null) {
+            throw new IllegalArgumentException("Duplicate request id: " + id);
+        }
+        timer.schedule(future.timeout, timeoutMillis);
+        if (!client.trySend(request) && remove(id, future)) {
+            future.fail(new IOException("Send queue full"));
+        }
+        return future;
+    }
+
+    /**
+     * 等待响应的请求数
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    boolean remove(String id, RpcFuture future) {
+        return pending.remove(id, future);
+    }
+
+    private void failAll(Exception error) {
+        for (Map.Entry<String, RpcFuture> entry : pending.entrySet()) {
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().fail(error);
+            }
+        }
+    }
+
+    /**
+     * Completes futures from responses and hands everything else to the application's callback.
+     */
+    private class Receiver implements WSCallback, ReconnectCallback, WritabilityCallback {
+
+        @Override
+        public void onConnect() {
+            if (callback != null) callback.onConnect();
+        }
+
+        @Override
+        public void onMessage(String message) {
+            String id = extractor.getId(message);
+            if (id != null) {
+                RpcFuture future = pending.remove(id);
+                if (future != null) {
+                    future.complete(message);
+                    return;
+                }
+            }
+            if (callback != null) callback.onMessage(message);
+        }
+
+        @Override
+        public void onMessage(byte[] data) {
+            if (callback != null) callback.onMessage(data);
+        }
+
+        @Override
+        public void onDisconnect(int code, String reason) {
+            failAll(new IOException("Disconnected: " + reason));
+            if (callback != null) callback.onDisconnect(code, reason);
+        }
+
+        @Override
+        public void onError(Exception error) {
+            // Send failures are reported here too; only a lost connection fails everything.
+            if (!client.isOpen()) {
+                failAll(new IOException("Connection lost", error));
+            }
+            if (callback != null) callback.onError(error);
+        }
+
+        @Override
+        public void onReconnecting(int attempt, long delayMillis) {
+            if (callback instanceof ReconnectCallback) {
+                ((ReconnectCallback) callback).onReconnecting(attempt, delayMillis);
+            }
+        }
+
+        @Override
+        public void onReconnectFailed(int attempts) {
+            if (callback instanceof ReconnectCallback) {
+                ((ReconnectCallback) callback).onReconnectFailed(attempts);
+            }
+        }
+
+        @Override
+        public void onWritabilityChanged(boolean writable) {
+            if (callback instanceof WritabilityCallback) {
+                ((WritabilityCallback) callback).onWritabilityChanged(writable);
+            }
+        }
+    }
+}
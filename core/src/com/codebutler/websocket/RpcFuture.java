@@ -0,0 +1,155 @@
+package com.codebutler.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * {@link RpcClient#call} 的结果：收到响应、超时、取消或连接断开时完成，只完成一次。
+ * 可以阻塞等待 {@link #get()}，也可以通过 {@link #addListener(RpcListener)} 异步接收结果。
+ */
+public final class RpcFuture implements Future<String> {
+
+    private static final AtomicReferenceFieldUpdater<RpcFuture, Object> RESULT =
+            AtomicReferenceFieldUpdater.newUpdater(RpcFuture.class, Object.class, "result");
+
+    private final String id;
+    private final RpcClient owner;
+    final HashedWheelTimer.Timeout timeout = new HashedWheelTimer.Timeout() {
+        @Override
+        void expire() {
+            if (owner.remove(id, RpcFuture.this)) {
+                fail(new TimeoutException("No response to request " + id));
+            }
+        }
+    };
+    // The response String, or the Exception the request failed with.
+    private volatile Object result;
+    private List<RpcListener> listeners;
+
+    RpcFuture(String id, RpcClient owner) {
+        this.id = id;
+        this.owner = owner;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    boolean complete(String response) {
+        return finish(response);
+    }
+
+    boolean fail(Exception error) {
+        return finish(error);
+    }
+
+    private boolean finish(Object value) {
+        if (!RESULT.compareAndSet(this, null, value)) return false;
+        timeout.cancel();
+        List<RpcListener> notify;
+        synchronized (this) {
+            notify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        if (notify != null) {
+            for (RpcListener listener : notify) {
+                deliver(listener, value);
+            }
+        }
+        return true;
+    }
+
+    private static void deliver(RpcListener listener, Object value) {
+        if (value instanceof String) {
+            listener.onResponse((String) value);
+        } else {
+            listener.onFailure((Exception) value);
+        }
+    }
+
+    /**
+     * 添加完成回调。已完成时立即在当前线程上回调。
+     */
+    public void addListener(RpcListener listener) {
+        synchronized (this) {
+            if (result == null) {
+                if (listeners == null) {
+                    listeners = new ArrayList<RpcListener>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        deliver(listener, result);
+    }
+
+    /**
+     * 取消请求，之后到达的响应交给 WSCallback。已发出的请求不会从服务端撤回。
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!fail(new CancellationException("Request " + id + " cancelled"))) return false;
+        owner.remove(id, this);
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return result instanceof CancellationException;
+    }
+
+    @Override
+    public boolean isDone() {
+        return result != null;
+    }
+
+    @Override
+    public String get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (result == null) {
+                wait();
+            }
+        }
+        return report();
+    }
+
+    @Override
+    public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            long remaining;
+            while (result == null) {
+                remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(remaining / 1000000L, (int) (remaining % 1000000L));
+            }
+        }
+        return report();
+    }
+
+    private String report() throws ExecutionException {
+        Object value = result;
+        if (value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof CancellationException) {
+            throw (CancellationException) value;
+        }
+        throw new ExecutionException((Exception) value);
+    }
+
+    @Override
+    public String toString() {
+        Object value = result;
+        return "RpcFuture{id=" + id + ", " + (value == null ? "pending" : value instanceof String ? "done" : value) + "}";
+    }
+}
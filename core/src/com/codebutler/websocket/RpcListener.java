@@ -0,0 +1,21 @@
+package com.codebutler.websocket;
+
+/**
+ * {@link RpcFuture} 完成时的回调，两个方法只会调用其中一个，且只调用一次。
+ * 在完成请求的线程上执行：收到响应时为回调线程，超时为计时线程，应尽量轻量。
+ */
+public interface RpcListener {
+
+    /**
+     * 收到响应
+     * @param response 响应消息
+     */
+    public void onResponse(String response);
+
+    /**
+     * 请求失败
+     * @param error 超时为 TimeoutException，取消为 CancellationException，
+     *              连接断开或发送队列已满为 IOException
+     */
+    public void onFailure(Exception error);
+}
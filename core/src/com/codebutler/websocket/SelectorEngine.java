@@ -0,0 +1,49 @@
+package com.codebutler.websocket;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于 Selector 的非阻塞连接引擎：少量事件循环线程驱动多个 WebSocketClient 的握手、收帧和发送，
+ * 不再为每个连接创建读线程和发送线程。通过 {@link WebSocketClient#setEngine} 启用，连接按轮询分配到各事件循环。
+ * 回调在事件循环线程上执行，不能阻塞。
+ */
+public class SelectorEngine {
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param threads 事件循环线程数
+     * @throws IOException 无法打开 Selector
+     */
+    public SelectorEngine(int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        loops = new EventLoop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                loops[i] = new EventLoop("WebSocket-Selector-" + i);
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        }
+    }
+
+    EventLoop next() {
+        return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+    }
+
+    /**
+     * 停止全部事件循环线程，其上仍打开的连接以 onError 结束
+     */
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            if (loop != null) {
+                loop.quit();
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.codebutler.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 一次发送的结果：帧写入Socket（阻塞模式为flush完成）或确定写不出去时完成，只完成一次。
+ * 批量发送时所有帧都写出后才算完成。已入队的帧无法撤回，因此不支持取消。
+ */
+public final class SendFuture implements Future<Void> {
+
+    private static final AtomicReferenceFieldUpdater<SendFuture, Object> RESULT =
+            AtomicReferenceFieldUpdater.newUpdater(SendFuture.class, Object.class, "result");
+
+    // A Long with the latency once written, or the Exception the send failed with.
+    private volatile Object result;
+    private List<SendListener> listeners;
+
+    boolean complete(long latencyNanos) {
+        return finish(latencyNanos);
+    }
+
+    boolean fail(Exception error) {
+        return finish(error);
+    }
+
+    private boolean finish(Object value) {
+        if (!RESULT.compareAndSet(this, null, value)) return false;
+        List<SendListener> notify;
+        synchronized (this) {
+            notify = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        if (notify != null) {
+            for (SendListener listener : notify) {
+                deliver(listener, value);
+            }
+        }
+        return true;
+    }
+
+    private static void deliver(SendListener listener, Object value) {
+        if (value instanceof Long) {
+            listener.onSent((Long) value);
+        } else {
+            listener.onFailure((Exception) value);
+        }
+    }
+
+    /**
+     * 添加完成回调。已完成时立即在当前线程上回调。
+     */
+    public void addListener(SendListener listener) {
+        synchronized (this) {
+            if (result == null) {
+                if (listeners == null) {
+                    listeners = new ArrayList<SendListener>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        deliver(listener, result);
+    }
+
+    /**
+     * 是否已成功写出
+     */
+    public boolean isSent() {
+        return result instanceof Long;
+    }
+
+    /**
+     * 从入队到写出的耗时（纳秒），尚未成功写出时为-1
+     */
+    public long getLatencyNanos() {
+        Object value = result;
+        return value instanceof Long ? (Long) value : -1;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return result != null;
+    }
+
+    @Override
+    public Void get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (result == null) {
+                wait();
+            }
+        }
+        return report();
+    }
+
+    @Override
+    public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            long remaining;
+            while (result == null) {
+                remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                wait(remaining / 1000000L, (int) (remaining % 1000000L));
+            }
+        }
+        return report();
+    }
+
+    private Void report() throws ExecutionException {
+        Object value = result;
+        if (value instanceof Exception) {
+            throw new ExecutionException((Exception) value);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        Object value = result;
+        return "SendFuture{" + (value == null ? "pending" : value instanceof Long ? "sent in " + value + "ns" : value) + "}";
+    }
+}
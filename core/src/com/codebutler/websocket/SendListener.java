@@ -0,0 +1,20 @@
+package com.codebutler.websocket;
+
+/**
+ * {@link SendFuture} 完成时的回调，两个方法只会调用其中一个，且只调用一次。
+ * 在发送线程上执行（SelectorEngine 模式为事件循环线程），不能阻塞。
+ */
+public interface SendListener {
+
+    /**
+     * 帧已全部写入Socket
+     * @param latencyNanos 从入队到写出的耗时（纳秒）
+     */
+    public void onSent(long latencyNanos);
+
+    /**
+     * 帧未能写出：连接断开、写入失败或发送队列已满
+     * @param error 失败原因
+     */
+    public void onFailure(Exception error);
+}
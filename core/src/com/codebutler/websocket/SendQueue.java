@@ -0,0 +1,97 @@
+package com.codebutler.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 待发送帧的环形队列，入队与出队都不分配对象。每个帧附带入队时间，用于统计发送延迟，
+ * 以及写出后要完成的 SendFuture（没有时为null）。
+ * 不是线程安全的，WebSocketClient 的各发送通道都在持有 sendQueue 锁时调用。
+ */
+class SendQueue {
+
+    private ByteBuffer[] frames = new ByteBuffer[16];
+    private long[] times = new long[16];
+    private SendFuture[] futures = new SendFuture[16];
+    private int head;
+    private int size;
+    private long bytes;
+
+    void add(ByteBuffer frame, long nanos, SendFuture future) {
+        if (size == frames.length) {
+            grow();
+        }
+        int tail = (head + size) & (frames.length - 1);
+        frames[tail] = frame;
+        times[tail] = nanos;
+        futures[tail] = future;
+        size++;
+        bytes += frame.remaining();
+    }
+
+    ByteBuffer peek() {
+        return size == 0 ? null : frames[head];
+    }
+
+    /**
+     * 队首帧的 SendFuture
+     */
+    SendFuture peekFuture() {
+        return size == 0 ? null : futures[head];
+    }
+
+    ByteBuffer poll() {
+        if (size == 0) return null;
+        ByteBuffer frame = frames[head];
+        frames[head] = null;
+        futures[head] = null;
+        head = (head + 1) & (frames.length - 1);
+        size--;
+        bytes -= frame.remaining();
+        return frame;
+    }
+
+    /**
+     * 将队首帧移入 batch[index]，入队时间和 SendFuture 移入 batchTimes、batchFutures 的相同位置
+     */
+    void pollTo(ByteBuffer[] batch, long[] batchTimes, SendFuture[] batchFutures, int index) {
+        batchTimes[index] = times[head];
+        batchFutures[index] = futures[head];
+        batch[index] = poll();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 队列中各帧的字节数之和
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * 将全部帧按顺序移到 target 的队尾
+     */
+    void moveTo(SendQueue target) {
+        while (size > 0) {
+            target.add(frames[head], times[head], futures[head]);
+            poll();
+        }
+    }
+
+    private void grow() {
+        ByteBuffer[] grown = new ByteBuffer[frames.length * 2];
+        long[] grownTimes = new long[frames.length * 2];
+        SendFuture[] grownFutures = new SendFuture[frames.length * 2];
+        for (int i = 0; i < size; i++) {
+            grown[i] = frames[(head + i) & (frames.length - 1)];
+            grownTimes[i] = times[(head + i) & (frames.length - 1)];
+            grownFutures[i] = futures[(head + i) & (frames.length - 1)];
+        }
+        frames = grown;
+        times = grownTimes;
+        futures = grownFutures;
+        head = 0;
+    }
+}
@@ -0,0 +1,73 @@
+package com.codebutler.websocket;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 发送批次统计：每次写入Socket并flush算一个批次。
+ * 只由写线程更新，其他线程可随时读取。
+ */
+public class SendStats {
+
+    /** 批次大小直方图的分桶数：第i个桶统计大小在 [2^i, 2^(i+1)) 的批次 */
+    public static final int BUCKETS = 16;
+
+    private volatile long batches;
+    private volatile long frames;
+    private volatile long bytes;
+    private volatile int maxBatchSize;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    void record(int batchFrames, long batchBytes) {
+        batches++;
+        frames += batchFrames;
+        bytes += batchBytes;
+        if (batchFrames > maxBatchSize) {
+            maxBatchSize = batchFrames;
+        }
+        histogram.incrementAndGet(Math.min(BUCKETS - 1, 31 - Integer.numberOfLeadingZeros(batchFrames)));
+    }
+
+    /** 已写出的批次数（即flush次数） */
+    public long getBatches() {
+        return batches;
+    }
+
+    /** 已写出的帧数 */
+    public long getFrames() {
+        return frames;
+    }
+
+    /** 已写出的字节数 */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** 出现过的最大批次帧数 */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /** 平均每批次帧数 */
+    public double getAverageBatchSize() {
+        long b = batches;
+        return b == 0 ? 0 : (double) frames / b;
+    }
+
+    /**
+     * 批次大小直方图
+     * @return 长度为 {@link #BUCKETS} 的数组，第i项为帧数在 [2^i, 2^(i+1)) 的批次数
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "SendStats{batches=" + batches + ", frames=" + frames + ", bytes=" + bytes
+                + ", avgBatch=" + String.format("%.2f", getAverageBatchSize()) + ", maxBatch=" + maxBatchSize + "}";
+    }
+}
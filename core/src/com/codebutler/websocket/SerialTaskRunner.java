@@ -0,0 +1,135 @@
+package com.codebutler.websocket;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TaskRunner} that runs its tasks one at a time, in order, on a shared Executor.
+ * No thread belongs to it; while it has nothing queued it holds no thread at all.
+ */
+final class SerialTaskRunner implements TaskRunner, Runnable {
+    private static final String TAG = "SerialTaskRunner";
+
+    // Tasks run per turn before yielding the pool thread to other runners.
+    private static final int MAX_TASKS_PER_TURN = 64;
+
+    private final Executor                 mExecutor;
+    private final ScheduledExecutorService mScheduler;
+    private final ArrayDeque<Runnable>     mTasks   = new ArrayDeque<Runnable>();
+    private final Map<Runnable, List<ScheduledFuture<?>>> mDelayed =
+            new IdentityHashMap<Runnable, List<ScheduledFuture<?>>>();
+    private boolean mRunning = false;
+    private boolean mQuit    = false;
+
+    /**
+     * @param executor  runs the tasks
+     * @param scheduler only used to hand delayed tasks back to this runner when they are due
+     */
+    SerialTaskRunner(Executor executor, ScheduledExecutorService scheduler) {
+        mExecutor  = executor;
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        synchronized (this) {
+            if (mQuit) return;
+            mTasks.add(task);
+            if (mRunning) return;
+            mRunning = true;
+        }
+        schedule();
+    }
+
+    @Override
+    public void postDelayed(final Runnable task, long delayMillis) {
+        ScheduledFuture<?> future = mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                post(task);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            List<ScheduledFuture<?>> futures = mDelayed.get(task);
+            if (futures == null) {
+                futures = new ArrayList<ScheduledFuture<?>>(2);
+                mDelayed.put(task, futures);
+            }
+            for (Iterator<ScheduledFuture<?>> it = futures.iterator(); it.hasNext(); ) {
+                if (it.next().isDone()) it.remove();
+            }
+            futures.add(future);
+        }
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        List<ScheduledFuture<?>> futures;
+        synchronized (this) {
+            futures = mDelayed.remove(task);
+        }
+        if (futures != null) {
+            for (ScheduledFuture<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    @Override
+    public void quit() {
+        List<List<ScheduledFuture<?>>> delayed;
+        synchronized (this) {
+            mQuit = true;
+            mTasks.clear();
+            delayed = new ArrayList<List<ScheduledFuture<?>>>(mDelayed.values());
+            mDelayed.clear();
+        }
+        for (List<ScheduledFuture<?>> futures : delayed) {
+            for (ScheduledFuture<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private void schedule() {
+        try {
+            mExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+            WSLog.w(TAG, "Executor rejected WebSocket task", e);
+            synchronized (this) {
+                mTasks.clear();
+                mRunning = false;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+            Runnable task;
+            synchronized (this) {
+                task = mTasks.poll();
+                if (task == null) {
+                    mRunning = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                WSLog.w(TAG, "Task failed", e);
+            }
+        }
+        // Still busy: queue behind the other runners sharing the executor.
+        schedule();
+    }
+}
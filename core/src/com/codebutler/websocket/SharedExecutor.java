@@ -0,0 +1,67 @@
+package com.codebutler.websocket;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 所有 WebSocketClient 共用的发送线程池。
+ * 线程在第一次有发送任务时才创建，连接断开、空闲超过 {@link #KEEP_ALIVE_SECONDS} 秒后退出，不再为每个实例常驻一个线程。
+ * 各连接的任务仍按提交顺序串行执行。
+ * 线程数不设上限：阻塞模式下对端不读数据时写入会一直阻塞，有界的线程池会被这样的连接占满，拖住其他连接的发送。
+ */
+public final class SharedExecutor {
+
+    /**
+     * 空闲线程的保留时间（秒）
+     */
+    public static final int KEEP_ALIVE_SECONDS = 10;
+
+    private static ThreadPoolExecutor executor;
+    private static ScheduledThreadPoolExecutor scheduler;
+
+    private SharedExecutor() {
+    }
+
+    static synchronized Executor executor() {
+        if (executor == null) {
+            // A task never waits for a busy thread: an idle one takes it or a new one is started.
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new DaemonThreadFactory("WebSocket-Writer-"));
+        }
+        return executor;
+    }
+
+    /**
+     * 只用于延迟任务（如发送批量合并的等待）到期后转交给 {@link #executor()}
+     */
+    static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("WebSocket-Timer-"));
+            scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            scheduler.allowCoreThreadTimeOut(true);
+        }
+        return scheduler;
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
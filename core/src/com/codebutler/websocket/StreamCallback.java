@@ -0,0 +1,22 @@
+package com.codebutler.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 流式接收回调。WSCallback 的实现类同时实现本接口后，文本和字节消息不再整条组装后通过 onMessage 返回，
+ * 而是每收到一段数据就回调一次，内存占用与消息大小无关。
+ */
+public interface StreamCallback {
+
+    public static final int TYPE_TEXT   = 1;
+    public static final int TYPE_BINARY = 2;
+
+    /**
+     * 收到消息的一段数据
+     * @param type 消息类型，TYPE_TEXT 或 TYPE_BINARY。文本消息的数据为UTF-8字节，多字节字符可能跨段
+     * @param chunk 只读数据，仅在回调期间有效，需要保留时应自行拷贝
+     * @param first 是否为消息的第一段
+     * @param last 是否为消息的最后一段，最后一段可能为空
+     */
+    public void onMessageChunk(int type, ByteBuffer chunk, boolean first, boolean last);
+}
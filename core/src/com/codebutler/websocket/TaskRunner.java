@@ -0,0 +1,29 @@
+package com.codebutler.websocket;
+
+/**
+ * 发送线程的抽象，WebSocketClient 写出发送队列等操作都在其上串行执行。
+ * 默认使用共用线程池 {@link SharedExecutor}，也可以在 WebSocketClient 子类中返回独占线程的 {@link ExecutorTaskRunner}。
+ */
+public interface TaskRunner {
+
+    /**
+     * 尽快执行任务
+     */
+    public void post(Runnable task);
+
+    /**
+     * 延迟执行任务
+     * @param delayMillis 延迟毫秒数
+     */
+    public void postDelayed(Runnable task, long delayMillis);
+
+    /**
+     * 取消该任务尚未执行的延迟调用
+     */
+    public void removeCallbacks(Runnable task);
+
+    /**
+     * 停止线程，之后提交的任务不再执行
+     */
+    public void quit();
+}
@@ -0,0 +1,64 @@
+package com.codebutler.websocket;
+
+/**
+ * TLS握手统计：区分完整握手和会话复用（session resumption）握手的次数与耗时。
+ * 所有wss连接共用同一个 SSLSocketFactory，因此统计也是全局的。
+ */
+public class TlsStats {
+
+    private long fullHandshakes;
+    private long fullNanos;
+    private long resumedHandshakes;
+    private long resumedNanos;
+    private long lastNanos;
+    private boolean lastResumed;
+
+    synchronized void record(boolean resumed, long nanos) {
+        if (resumed) {
+            resumedHandshakes++;
+            resumedNanos += nanos;
+        } else {
+            fullHandshakes++;
+            fullNanos += nanos;
+        }
+        lastNanos = nanos;
+        lastResumed = resumed;
+    }
+
+    /** 完整握手次数 */
+    public synchronized long getFullHandshakes() {
+        return fullHandshakes;
+    }
+
+    /** 复用会话的握手次数 */
+    public synchronized long getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+
+    /** 完整握手平均耗时（纳秒） */
+    public synchronized long getAverageFullNanos() {
+        return fullHandshakes == 0 ? 0 : fullNanos / fullHandshakes;
+    }
+
+    /** 复用会话握手平均耗时（纳秒） */
+    public synchronized long getAverageResumedNanos() {
+        return resumedHandshakes == 0 ? 0 : resumedNanos / resumedHandshakes;
+    }
+
+    /** 最近一次握手耗时（纳秒） */
+    public synchronized long getLastNanos() {
+        return lastNanos;
+    }
+
+    /** 最近一次握手是否复用了会话 */
+    public synchronized boolean isLastResumed() {
+        return lastResumed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TlsStats{full=" + fullHandshakes + ", resumed=" + resumedHandshakes
+                + ", avgFullUs=" + getAverageFullNanos() / 1000
+                + ", avgResumedUs=" + getAverageResumedNanos() / 1000 + "}";
+    }
+}
@@ -0,0 +1,149 @@
+package com.codebutler.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+
+/**
+ * UTF-8编码工具，直接从CharSequence写入ByteBuffer，不经过中间数组。
+ * 与 String.getBytes("UTF-8") 一致，不成对的代理字符编码为 '?'。
+ * 较长的String按块复制到线程内的char数组，交给JDK的ASCII编码器批量写出（JVM上为向量化实现），
+ * 遇到第一个非ASCII字符后其余部分逐个编码。
+ */
+public final class Utf8 {
+
+    // Strings shorter than this are encoded char by char; the bulk path has a fixed setup cost.
+    private static final int BULK_MIN_LENGTH = 64;
+    private static final int CHUNK_SIZE      = 2048;
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Per-thread chunk buffer and encoder. The encoder reports the first non-ASCII char as
+     * unmappable and stops there, which is how the ASCII run is found.
+     */
+    private static final class Scratch {
+        final char[]         chars  = new char[CHUNK_SIZE];
+        final CharBuffer     buffer = CharBuffer.wrap(chars);
+        final CharsetEncoder ascii  = Charset.forName("US-ASCII").newEncoder();
+    }
+
+    private Utf8() { }
+
+    /**
+     * 计算字符串编码为UTF-8后的字节数
+     */
+    public static int encodedLength(CharSequence text) {
+        int count = text.length();
+        int length = count;
+        for (int i = 0; i < count; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                length += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 编码后字节数的上限（每个char最多3字节），用于不预先计算 {@link #encodedLength} 时分配缓冲区
+     */
+    public static int maxEncodedLength(int chars) {
+        if (chars > Integer.MAX_VALUE / 3) {
+            throw new IllegalArgumentException("Text too long: " + chars + " chars");
+        }
+        return chars * 3;
+    }
+
+    /**
+     * 将字符串以UTF-8编码写入缓冲区当前位置，缓冲区需有 encodedLength(text) 的剩余空间。
+     */
+    public static void encode(CharSequence text, ByteBuffer out) {
+        int count = text.length();
+        if (count >= BULK_MIN_LENGTH && text instanceof String) {
+            encodeBulk((String) text, out);
+            return;
+        }
+        int position = encode(text, 0, count, out.array(), out.arrayOffset() + out.position());
+        out.position(position - out.arrayOffset());
+    }
+
+    private static void encodeBulk(String text, ByteBuffer out) {
+        Scratch scratch = SCRATCH.get();
+        CharBuffer buffer = scratch.buffer;
+        CharsetEncoder ascii = scratch.ascii;
+        int count = text.length();
+        int start = 0;
+        while (start < count) {
+            int end = Math.min(count, start + CHUNK_SIZE);
+            text.getChars(start, end, scratch.chars, 0);
+            buffer.clear();
+            buffer.limit(end - start);
+            ascii.reset();
+            ascii.encode(buffer, out, false);
+
+            start += buffer.position();
+            if (start < end) {
+                // Not plain ASCII: encode the rest char by char instead of copying chunks
+                // the ASCII encoder would stop in right away.
+                int position = encode(text, start, count, out.array(), out.arrayOffset() + out.position());
+                out.position(position - out.arrayOffset());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encodes chars [from, to) into the array.
+     * @return the array index after the last byte written
+     */
+    private static int encode(CharSequence text, int from, int to, byte[] array, int position) {
+        int i = from;
+
+        // ASCII fast path.
+        for (char c; i < to && (c = text.charAt(i)) < 0x80; i++) {
+            array[position++] = (byte) c;
+        }
+
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                array[position++] = (byte) c;
+            } else if (c < 0x800) {
+                array[position++] = (byte) (0xC0 | (c >> 6));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                char low;
+                if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(low = text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, low);
+                    array[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    array[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                    i++;
+                } else {
+                    array[position++] = (byte) '?';
+                }
+            } else {
+                array[position++] = (byte) (0xE0 | (c >> 12));
+                array[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                array[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,170 @@
+package com.codebutler.websocket;
+
+import java.nio.charset.Charset;
+
+/**
+ * Incremental UTF-8 decoder for text messages. Fragments are validated and decoded as they
+ * arrive, so a message never has to be gathered as bytes first, and a code point may be split
+ * across fragments. Malformed input (overlong forms, surrogates, code points above U+10FFFF,
+ * truncated sequences) fails with close code 1007 instead of being replaced.
+ */
+final class Utf8Decoder {
+    static final int CLOSE_INVALID_DATA = 1007;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int INITIAL_CAPACITY = 256;
+    // Larger buffers are dropped after the message so one big message does not pin memory.
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private char[] mChars = new char[INITIAL_CAPACITY];
+    private int    mLength;
+    // Continuation bytes still expected, the code point so far and the smallest value the
+    // sequence may encode (to reject overlong forms).
+    private int    mNeeded;
+    private int    mCodePoint;
+    private int    mMinimum;
+
+    /**
+     * Validates and appends a fragment.
+     */
+    void decode(byte[] data, int offset, int length) throws HybiParser.ProtocolError {
+        ensureCapacity(mLength + length);
+        run(data, offset, length, true);
+    }
+
+    /**
+     * Validates a fragment without keeping the characters, for streamed text.
+     */
+    void validate(byte[] data, int offset, int length) throws HybiParser.ProtocolError {
+        run(data, offset, length, false);
+    }
+
+    /**
+     * Ends the message.
+     * @return the decoded text, or an empty string after {@link #validate}
+     */
+    String finish() throws HybiParser.ProtocolError {
+        if (mNeeded != 0) {
+            reset();
+            throw new HybiParser.ProtocolError(CLOSE_INVALID_DATA, "Truncated UTF-8 sequence");
+        }
+        String text = new String(mChars, 0, mLength);
+        reset();
+        return text;
+    }
+
+    /**
+     * Decodes a complete message in one go. The platform decoder builds the string; a string
+     * with one char per byte and no U+FFFD can only have come from ASCII, which needs no further
+     * checks. Anything else is validated here rather than trusting the platform's strictness.
+     */
+    String decodeMessage(byte[] data, int offset, int length) throws HybiParser.ProtocolError {
+        String text = new String(data, offset, length, UTF_8);
+        if (text.length() != length || text.indexOf('\uFFFD') >= 0) {
+            run(data, offset, length, false);
+            if (mNeeded != 0) {
+                finish();
+            }
+            reset();
+        }
+        return text;
+    }
+
+    void reset() {
+        mLength = 0;
+        mNeeded = 0;
+        if (mChars.length > RETAINED_CAPACITY) {
+            mChars = new char[INITIAL_CAPACITY];
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > mChars.length) {
+            char[] grown = new char[Math.max(capacity, mChars.length * 2)];
+            System.arraycopy(mChars, 0, grown, 0, mLength);
+            mChars = grown;
+        }
+    }
+
+    private void run(byte[] data, int offset, int length, boolean store) throws HybiParser.ProtocolError {
+        char[] chars     = mChars;
+        int    n         = mLength;
+        int    needed    = mNeeded;
+        int    codePoint = mCodePoint;
+        int    minimum   = mMinimum;
+        int    end       = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            int b = data[i];
+            if (needed == 0) {
+                if (b >= 0) {
+                    // ASCII fast path: copy the run without going through the state machine.
+                    if (store) {
+                        chars[n++] = (char) b;
+                        while (i + 1 < end && data[i + 1] >= 0) {
+                            chars[n++] = (char) data[++i];
+                        }
+                    } else {
+                        while (i + 1 < end && data[i + 1] >= 0) {
+                            i++;
+                        }
+                    }
+                    continue;
+                }
+                b &= 0xFF;
+                if (b >= 0xC2 && b <= 0xDF) {
+                    needed = 1;
+                    codePoint = b & 0x1F;
+                    minimum = 0x80;
+                } else if (b >= 0xE0 && b <= 0xEF) {
+                    needed = 2;
+                    codePoint = b & 0x0F;
+                    minimum = 0x800;
+                } else if (b >= 0xF0 && b <= 0xF4) {
+                    needed = 3;
+                    codePoint = b & 0x07;
+                    minimum = 0x10000;
+                } else {
+                    throw invalid();
+                }
+                continue;
+            }
+
+            if ((b & 0xC0) != 0x80) {
+                throw invalid();
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+            needed--;
+            // Check as early as the bits allow, so a bad sequence fails on its second byte.
+            if (needed == 1 && minimum == 0x800 && (codePoint < 0x20 || (codePoint >= 0x360 && codePoint <= 0x37F))
+                    || needed == 2 && (codePoint < 0x10 || codePoint > 0x10F)) {
+                throw invalid();
+            }
+            if (needed == 0) {
+                if (codePoint < minimum) {
+                    throw invalid();
+                }
+                if (store) {
+                    if (codePoint >= 0x10000) {
+                        chars[n++] = (char) (0xD7C0 + (codePoint >>> 10));
+                        chars[n++] = (char) (0xDC00 + (codePoint & 0x3FF));
+                    } else {
+                        chars[n++] = (char) codePoint;
+                    }
+                }
+            }
+        }
+
+        mLength    = n;
+        mNeeded    = needed;
+        mCodePoint = codePoint;
+        mMinimum   = minimum;
+    }
+
+    private HybiParser.ProtocolError invalid() {
+        mLength = 0;
+        mNeeded = 0;
+        return new HybiParser.ProtocolError(CLOSE_INVALID_DATA, "Invalid UTF-8 in text message");
+    }
+}
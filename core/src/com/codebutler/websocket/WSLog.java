@@ -0,0 +1,92 @@
+package com.codebutler.websocket;
+
+/**
+ * 库内部日志入口。
+ * 日志输出由可替换的 {@link Logger} 完成，级别低于 {@link #setLevel(int)} 的日志在调用处即被跳过：
+ * 调用方先判断 {@link #isLoggable(int)} 再拼接字符串，关闭时不产生任何字符串或对象。
+ */
+public final class WSLog {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG   = 3;
+    public static final int INFO    = 4;
+    public static final int WARN    = 5;
+    public static final int ERROR   = 6;
+    public static final int NONE    = Integer.MAX_VALUE;
+
+    /**
+     * 日志输出接口
+     */
+    public interface Logger {
+        void log(int level, String tag, String message, Throwable error);
+    }
+
+    // Used until a platform logger is installed (Android installs logcat).
+    private static final Logger JUL = new Logger() {
+        @Override
+        public void log(int l, String tag, String message, Throwable error) {
+            java.util.logging.Level level = l >= ERROR ? java.util.logging.Level.SEVERE
+                    : l >= WARN ? java.util.logging.Level.WARNING
+                    : l >= INFO ? java.util.logging.Level.INFO
+                    : l >= DEBUG ? java.util.logging.Level.FINE : java.util.logging.Level.FINEST;
+            java.util.logging.Logger.getLogger(tag).log(level, message, error);
+        }
+    };
+
+    private static volatile Logger logger = JUL;
+    private static volatile int level = INFO;
+
+    private WSLog() { }
+
+    /**
+     * 替换日志输出，传入null则关闭全部日志
+     * @param l 日志输出
+     */
+    public static void setLogger(Logger l) {
+        logger = l;
+    }
+
+    /**
+     * 安装平台默认的日志输出，已通过 setLogger 设置过时不替换
+     */
+    static void installPlatformLogger(Logger l) {
+        if (logger == JUL) {
+            logger = l;
+        }
+    }
+
+    /**
+     * 设置最低输出级别，默认为 INFO
+     * @param minLevel 最低级别，NONE 为关闭
+     */
+    public static void setLevel(int minLevel) {
+        level = minLevel;
+    }
+
+    public static boolean isLoggable(int l) {
+        return l >= level && logger != null;
+    }
+
+    public static void d(String tag, String message) {
+        log(DEBUG, tag, message, null);
+    }
+
+    public static void d(String tag, String message, Throwable error) {
+        log(DEBUG, tag, message, error);
+    }
+
+    public static void i(String tag, String message) {
+        log(INFO, tag, message, null);
+    }
+
+    public static void w(String tag, String message, Throwable error) {
+        log(WARN, tag, message, error);
+    }
+
+    public static void log(int l, String tag, String message, Throwable error) {
+        Logger current = logger;
+        if (l >= level && current != null) {
+            current.log(l, tag, message, error);
+        }
+    }
+}
@@ -0,0 +1,1809 @@
+package com.codebutler.websocket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 单线程WebSocket客户端，不依赖Android，可直接在JVM上运行。
+ * Android 应用使用其子类 WebSocket。
+ */
+public class WebSocketClient {
+
+    public static final int CODE_EOF = 1;
+    public static final int CODE_SSL = 3;
+    public static final int CODE_MANUAL = 5;
+    public static final int CODE_PING_TIMEOUT = 6;
+
+    private static final String TAG = "WebSocket";
+    private static final int WRITE_BUFFER_SIZE = 32 * 1024;
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    private static final int SCHEDULE_POST = 1;
+    private static final int SCHEDULE_POST_DELAYED = 2;
+    private static final int SCHEDULE_UNWRITABLE = 4;
+    // Data frames stop being added to a batch past this size, so a control frame waits for at most this much.
+    private static final long MAX_BATCH_BYTES = 256 * 1024;
+
+    private URI uri;
+    private WSCallback wsCallback;
+    private CallbackDispatcher dispatcher;
+    private Socket socket;
+    private volatile OutputStream output;
+    private volatile Thread workThread;
+    private volatile TaskRunner handler;
+    private TaskRunner threadRunner;
+    private TaskRunner timerRunner;
+    private Executor executor;
+    private EventLoop loop;
+    private volatile NioConnection connection;
+    private List<HttpHeader> extraHeaders;
+    private HybiParser parser;
+    private final Object sendLock = new Object();
+    // Three send lanes guarded by the sendQueue lock: normal messages, priority messages and
+    // control frames (ping/pong). openLane is the data lane whose message is partly drained.
+    private final SendQueue sendQueue = new SendQueue();
+    private final SendQueue priorityQueue = new SendQueue();
+    private final SendQueue controlQueue = new SendQueue();
+    private SendQueue openLane;
+    // Messages sent while sendStream has a message open wait here, uncompressed, and join
+    // sendQueue behind its last fragment. Guarded by the sendQueue lock.
+    private final SendQueue deferredQueue = new SendQueue();
+    // sendStream has a message open. Guarded by frameLock.
+    private boolean streaming = false;
+    private volatile int fragmentSize = 0;
+    private final SendStats sendStats = new SendStats();
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainSendQueue();
+        }
+    };
+    private boolean drainScheduled = false;
+    private boolean drainDelayed = false;
+    private ByteBuffer[] batch = new ByteBuffer[64];
+    private long[] batchTimes = new long[64];
+    private SendFuture[] batchFutures = new SendFuture[64];
+    // Frames of the current batch the channel has not fully accepted yet (SelectorEngine only).
+    private int batchStart = 0;
+    private int batchCount = 0;
+    private long batchBytes = 0;
+    private volatile int maxBatchFrames = 64;
+    private volatile long maxBatchDelay = 0;
+    private long queuedBytes = 0;
+    private long lowWatermark = 256 * 1024;
+    private long highWatermark = 1024 * 1024;
+    private long maxQueuedBytes = 16 * 1024 * 1024;
+    private boolean writable = true;
+    private final Object frameLock = new Object();
+    private DeflateOptions deflateOptions;
+    private volatile String[] subprotocols;
+    private volatile String subprotocol;
+    private PerMessageDeflate deflate;
+    private volatile boolean manualDisconnect = false;
+    private volatile ReconnectPolicy reconnectPolicy;
+    private volatile WebSocketOptions options = new WebSocketOptions();
+    private volatile int reconnectAttempts = 0;
+    // Unsent frames are being kept for the next connection. Guarded by sendQueue.
+    private boolean reconnecting = false;
+    private volatile int connectionGeneration = 0;
+    private volatile long pingIntervalNanos = 0;
+    private volatile long pongTimeoutNanos = 0;
+    private volatile long pingSentNanos;
+    private volatile long lastActivityNanos;
+    private volatile boolean awaitingPong = false;
+    private volatile boolean deadPeer = false;
+    private final LatencyStats latencyStats = new LatencyStats();
+    private final WebSocketMetrics metrics = new WebSocketMetrics();
+    private volatile long connectStartNanos;
+    private final Runnable keepAliveTask = new Runnable() {
+        @Override
+        public void run() {
+            keepAlive();
+        }
+    };
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            reconnect();
+        }
+    };
+    private volatile FrameTracer frameTracer;
+    private static final Object sslLock = new Object();
+    private static TrustManager[] trustManagers;
+    private static SSLSocketFactory sslSocketFactory;
+    // The session of the latest handshake with each host:port. Guarded by sslLock.
+    private static final Map<String, SSLSession> lastSessions = new HashMap<String, SSLSession>();
+    private static final TlsStats tlsStats = new TlsStats();
+
+    /**
+     * 这是用于 JSSE 信任管理器的基接口。
+     * TrustManager 负责管理做出信任决定时使用的的信任材料，也负责决定是否接受同位体提供的证书。
+     * 通过使用 TrustManagerFactory，或实现 TrustManager 子类之一创建 TrustManager。
+     * 所有wss连接共用一个 SSLContext，以便重连时复用TLS会话；修改后从下一次连接起生效。
+     * @param tm 信任管理器的接口
+     */
+    public static void setTrustManagers(TrustManager[] tm) {
+        synchronized (sslLock) {
+            trustManagers = tm;
+            sslSocketFactory = null;
+            // The new context starts with an empty session cache.
+            lastSessions.clear();
+        }
+    }
+
+    /**
+     * 返回所有wss连接的TLS握手统计，可以据此确认重连是否复用了会话
+     */
+    public static TlsStats getTlsStats() {
+        return tlsStats;
+    }
+
+    public WebSocketClient(String wsUrl, WSCallback wsCallback) {
+        this(URI.create(wsUrl), wsCallback, null);
+    }
+
+    public WebSocketClient(URI uri, WSCallback WSCallback, List<HttpHeader> extraHeaders) {
+        this.uri = uri;
+        wsCallback = WSCallback;
+        dispatcher = new CallbackDispatcher(WSCallback);
+        this.extraHeaders = extraHeaders;
+        parser = new HybiParser(this);
+    }
+
+    /**
+     * 创建发送任务的执行器，首次需要时才创建，使用 SelectorEngine 时不创建。
+     * 默认在 {@link SharedExecutor} 或 {@link #setExecutor} 指定的线程池上串行执行，子类可替换。
+     */
+    protected TaskRunner createTaskRunner() {
+        Executor custom = executor;
+        return new SerialTaskRunner(custom != null ? custom : SharedExecutor.executor(), SharedExecutor.scheduler());
+    }
+
+    /**
+     * 指定执行发送任务的线程池，下次连接时生效。本连接的任务仍按顺序串行执行。
+     * 阻塞模式下写入可能因对端不读数据而一直阻塞，线程数有上限的线程池被多个连接共用时，一个连接会拖住其他连接。
+     * @param executor 线程池（可以是虚拟线程的Executor），null为使用 {@link SharedExecutor}（默认）
+     */
+    public synchronized void setExecutor(Executor executor) {
+        this.executor = executor;
+        threadRunner = null;
+    }
+
+    private synchronized TaskRunner threadRunner() {
+        if (threadRunner == null) {
+            threadRunner = createTaskRunner();
+        }
+        return threadRunner;
+    }
+
+    private TaskRunner runner() {
+        TaskRunner runner = handler;
+        if (runner == null) {
+            runner = threadRunner();
+            handler = runner;
+        }
+        return runner;
+    }
+
+    /**
+     * 保活检查的执行器。阻塞模式下在共用的定时线程上执行，不排在可能阻塞于写入的发送任务之后，
+     * 对端不读数据时ping超时仍能按时关闭连接；SelectorEngine 模式下在事件循环线程上执行。
+     */
+    private TaskRunner keepAliveRunner() {
+        if (connection != null) {
+            return runner();
+        }
+        synchronized (this) {
+            if (timerRunner == null) {
+                timerRunner = new SerialTaskRunner(SharedExecutor.scheduler(), SharedExecutor.scheduler());
+            }
+            return timerRunner;
+        }
+    }
+
+    /**
+     * 使用 SelectorEngine 驱动本连接：握手、收帧和发送都在引擎的事件循环线程上以非阻塞方式执行，
+     * 不再创建读线程和发送线程。下次调用 {@link #connect()} 时生效。
+     * 此时回调在事件循环线程上执行，不能阻塞，也不能调用 {@link #sendStream}。
+     * wss 连接暂不支持，仍使用阻塞线程。
+     * @param engine 连接引擎，null为每个连接使用独立线程（默认）
+     */
+    public void setEngine(SelectorEngine engine) {
+        loop = (engine == null) ? null : engine.next();
+    }
+
+    /**
+     * 设置WebSocket Header数据
+     * @param extraHeaders  Header数据
+     */
+    public void setHeaders(List<HttpHeader> extraHeaders) {
+        this.extraHeaders = extraHeaders;
+    }
+
+    /**
+     * 返回WebSocket的连接状态
+     * @return 当WebSocket为连接状态为true，否则为false。
+     */
+    public boolean isConnected(){
+        NioConnection nioConnection = connection;
+        if (nioConnection != null) {
+            return !nioConnection.isClosed();
+        }
+        return workThread != null && workThread.isAlive();
+    }
+
+    /**
+     * 连接，如果WebSocket已经连接，则不做操作。
+     */
+    public void connect() {
+        // 初始化这个标识位
+        manualDisconnect = false;
+        deadPeer = false;
+
+        if (isConnected()) {
+            return;
+        }
+        connectStartNanos = System.nanoTime();
+        EventLoop loop = this.loop;
+        if (loop != null && "ws".equalsIgnoreCase(uri.getScheme())) {
+            handler = loop;
+            NioConnection nioConnection = new NioConnection(this, loop, uri.getHost(), getPort(),
+                    createSecret(), deflateOptions, options);
+            connection = nioConnection;
+            nioConnection.start();
+        } else {
+            if (loop != null) {
+                WSLog.i(TAG, "SelectorEngine does not support " + uri.getScheme() + ", using a blocking thread");
+            }
+            connection = null;
+            handler = threadRunner();
+            workThread = new Thread(buildConnection());
+            workThread.start();
+        }
+        WSLog.i(TAG, "WebSocket CONNECTING...");
+    }
+
+    Runnable buildConnection(){
+        return
+        new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String scheme = uri.getScheme();
+
+                    if (verifyScheme(scheme)) {
+
+                        final boolean isSSL = scheme.equalsIgnoreCase("wss");
+
+                        Socket connected = Dialer.dial(uri.getHost(), getPort(), options);
+                        socket = connected;
+                        if (isSSL) {
+                            connected = getSSLSocketFactory().createSocket(connected, uri.getHost(), getPort(), true);
+                            socket = connected;
+                            startHandshake((SSLSocket) connected);
+                        }
+                        String secret = createSecret();
+                        DeflateOptions deflateOffer = deflateOptions;
+
+                        // 请求一次写出，响应读入同一个缓冲区后一次解析
+                        OutputStream out = connected.getOutputStream();
+                        out.write(createHandshake(secret, deflateOffer).getBytes("UTF-8"));
+                        out.flush();
+
+                        InputStream in = connected.getInputStream();
+                        HandshakeReader response = HandshakeReader.read(in);
+
+                        PerMessageDeflate negotiated = verifyHandshake(response.statusLine(), response.headers(),
+                                secret, deflateOffer);
+                        onHandshake(negotiated, new BufferedOutputStream(out, WRITE_BUFFER_SIZE));
+
+                        // Now decode websocket frames, starting with any that arrived with the response.
+                        parser.start(in, response.leftover());
+                    } else {
+                        throw new IllegalArgumentException("Illegal WebSocket scheme: " + scheme);
+                    }
+
+                } catch (Exception ex) {
+                    if (ex instanceof HybiParser.ProtocolError) {
+                        sendCloseFrame((HybiParser.ProtocolError) ex);
+                    }
+                    connectionLost();
+                    // No longer connected, even though this thread runs the callbacks below.
+                    if (workThread == Thread.currentThread()) {
+                        workThread = null;
+                    }
+                    handleError(ex);
+                }
+            }
+        };
+    }
+
+    /**
+     * 生成握手请求
+     */
+    String createHandshake(String secret, DeflateOptions deflateOffer) throws URISyntaxException {
+        String path = uri.getPath();
+        boolean isSSL = "wss".equalsIgnoreCase(uri.getScheme());
+
+        path = isEmpty(path) ? "/" : path;
+        if (!isEmpty(uri.getQuery())) {
+            path += "?" + uri.getQuery();
+        }
+
+        String originScheme = isSSL ? "https" : "http";
+        URI origin = new URI(originScheme, "//" + uri.getHost(), null);
+
+        StringBuilder out = new StringBuilder(256);
+        out.append("GET ").append(path).append(" HTTP/1.1\r\n");
+        out.append("Upgrade: websocket\r\n");
+        out.append("Connection: Upgrade\r\n");
+        out.append("Host: ").append(uri.getHost()).append("\r\n");
+        out.append("Origin: ").append(origin.toString()).append("\r\n");
+        out.append("Sec-WebSocket-Key: ").append(secret).append("\r\n");
+        out.append("Sec-WebSocket-Version: 13\r\n");
+        if (subprotocols != null) {
+            out.append("Sec-WebSocket-Protocol: ");
+            for (int i = 0; i < subprotocols.length; i++) {
+                out.append(i == 0 ? "" : ", ").append(subprotocols[i]);
+            }
+            out.append("\r\n");
+        }
+        if (deflateOffer != null) {
+            out.append("Sec-WebSocket-Extensions: ").append(PerMessageDeflate.offer(deflateOffer)).append("\r\n");
+        }
+        if (extraHeaders != null) {
+            for (HttpHeader header : extraHeaders) {
+                out.append(header.getName()).append(": ").append(header.getValue()).append("\r\n");
+            }
+        }
+        out.append("\r\n");
+        return out.toString();
+    }
+
+    /**
+     * 校验握手响应
+     * @param statusLine 状态行，未收到响应时为null
+     * @param headerLines 响应头，每行一个
+     * @return 协商成功的 permessage-deflate 扩展，未启用时为null
+     */
+    PerMessageDeflate verifyHandshake(String statusLine, List<HttpHeader> headers, String secret,
+                                      DeflateOptions deflateOffer) throws IOException {
+        if (isEmpty(statusLine)) {
+            throw new HandshakeException("Received no reply from server.");
+        }
+        int statusCode = parseStatusCode(statusLine);
+        if (statusCode != 101) {
+            throw new HandshakeException(statusCode, statusLine);
+        }
+
+        boolean validated = false;
+        PerMessageDeflate negotiated = null;
+
+        String protocol = null;
+
+        for (HttpHeader header : headers) {
+            if (header.getName().equalsIgnoreCase("Sec-WebSocket-Accept")) {
+                String expected = createSecretValidation(secret);
+                String actual = header.getValue();
+
+                if (!expected.equals(actual)) {
+                    throw new HandshakeException("Bad Sec-WebSocket-Accept header value.");
+                }
+
+                validated = true;
+            } else if (header.getName().equalsIgnoreCase("Sec-WebSocket-Extensions")) {
+                if (deflateOffer == null) {
+                    throw new HandshakeException("Unexpected Sec-WebSocket-Extensions: " + header.getValue());
+                }
+                negotiated = PerMessageDeflate.accept(deflateOffer, header.getValue());
+            } else if (header.getName().equalsIgnoreCase("Sec-WebSocket-Protocol")) {
+                protocol = header.getValue();
+                if (subprotocols == null || !Arrays.asList(subprotocols).contains(protocol)) {
+                    throw new HandshakeException("Unexpected Sec-WebSocket-Protocol: " + protocol);
+                }
+            }
+        }
+
+        if (!validated) {
+            throw new HandshakeException("No Sec-WebSocket-Accept header.");
+        }
+        subprotocol = protocol;
+        return negotiated;
+    }
+
+    /**
+     * 握手成功，切换到帧收发
+     * @param out 阻塞模式下的输出流，SelectorEngine 模式为null
+     */
+    void onHandshake(PerMessageDeflate negotiated, OutputStream out) {
+        if (out != null) {
+            output = out;
+        }
+        synchronized (frameLock) {
+            if (deflate != null) {
+                deflate.end();
+            }
+            deflate = negotiated;
+            parser.setDeflate(negotiated);
+        }
+        reconnectAttempts = 0;
+        connectionGeneration++;
+        metrics.connected(System.nanoTime() - connectStartNanos);
+
+        boolean replay = false;
+        synchronized (sendLock) {
+            synchronized (sendQueue) {
+                dropOrphanContinuations();
+                if (reconnecting) {
+                    reconnecting = false;
+                    if (!drainScheduled && (queuedFrames() > 0 || batchStart < batchCount)) {
+                        drainScheduled = true;
+                        replay = true;
+                    }
+                }
+            }
+        }
+        if (replay) {
+            runner().post(drainTask);
+        }
+
+        awaitingPong = false;
+        pingSentNanos = System.nanoTime();
+        if (pingIntervalNanos > 0) {
+            TaskRunner runner = keepAliveRunner();
+            runner.removeCallbacks(keepAliveTask);
+            runner.postDelayed(keepAliveTask, pingIntervalNanos / 1000000L);
+        }
+
+        dispatcher.onConnect();
+    }
+
+    /**
+     * 连接已断开（不论原因）：关闭Socket，按重连策略保留或丢弃尚未写出的帧，释放压缩上下文
+     */
+    void connectionLost() {
+        keepAliveRunner().removeCallbacks(keepAliveTask);
+        ReconnectPolicy policy = reconnectPolicy;
+        boolean replay = policy != null && policy.isReplayUnsent() && !manualDisconnect && deflate == null;
+        synchronized (sendQueue) {
+            reconnecting = replay;
+        }
+        synchronized (frameLock) {
+            // The context cannot carry over; a reconnect negotiates a new one.
+            if (deflate != null) {
+                parser.setDeflate(null);
+                deflate.end();
+                deflate = null;
+            }
+        }
+        output = null;
+        Socket lost = socket;
+        if (lost != null) {
+            try {
+                lost.close();
+            } catch (IOException ex) {
+                WSLog.d(TAG, "Error while closing socket", ex);
+            }
+        }
+        if (connection != null) {
+            synchronized (sendLock) {
+                if (replay) {
+                    // The frame the channel was in the middle of goes out whole on the next connection.
+                    if (batchStart < batchCount) {
+                        batch[batchStart].rewind();
+                    }
+                } else {
+                    discardBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * A message cut off by the disconnect cannot be finished on the new connection, so its
+     * remaining continuation frames are dropped, along with the open lane. Control frames that
+     * were written between its fragments are kept. Called holding sendLock and sendQueue.
+     */
+    private void dropOrphanContinuations() {
+        int droppedFrames = 0;
+        long dropped = 0;
+        boolean orphaned = true;
+        int kept = batchStart;
+        for (int i = batchStart; i < batchCount; i++) {
+            ByteBuffer frame = batch[i];
+            if (orphaned && isContinuation(frame)) {
+                droppedFrames++;
+                dropped += frame.remaining();
+                BufferPool.getDefault().release(frame);
+                failBatch(i, i + 1, null);
+                batch[i] = null;
+                continue;
+            }
+            if (!isControl(frame)) {
+                // The next message starts here; it and everything after it go out whole.
+                orphaned = false;
+            }
+            if (kept != i) {
+                batch[kept] = frame;
+                batchTimes[kept] = batchTimes[i];
+                batchFutures[kept] = batchFutures[i];
+                batch[i] = null;
+                batchFutures[i] = null;
+            }
+            kept++;
+        }
+        batchCount = kept;
+        batchBytes -= dropped;
+        if (batchStart == batchCount && batchCount > 0) {
+            // Frames before batchStart were written in full; settle the batch as sent.
+            discardBatch();
+        }
+        if (orphaned) {
+            ByteBuffer frame;
+            while (openLane != null && (frame = openLane.peek()) != null && isContinuation(frame)) {
+                SendFuture future = openLane.peekFuture();
+                if (future != null) {
+                    future.fail(new IOException("Connection lost in the middle of the message"));
+                }
+                openLane.poll();
+                droppedFrames++;
+                dropped += frame.remaining();
+                BufferPool.getDefault().release(frame);
+            }
+            openLane = null;
+        }
+        if (dropped > 0) {
+            releaseQueued(droppedFrames, dropped);
+        }
+    }
+
+    private static boolean isContinuation(ByteBuffer frame) {
+        return (frame.get(0) & 0x0F) == 0;
+    }
+
+    private static boolean isControl(ByteBuffer frame) {
+        return (frame.get(0) & 0x08) != 0;
+    }
+
+    /**
+     * 在 {@link #keepAliveRunner()} 上定时执行：超过间隔没有收到数据时发送ping，超时未收到pong则关闭连接
+     */
+    private void keepAlive() {
+        if (!isOpen() || pingIntervalNanos <= 0) return;
+
+        long now = System.nanoTime();
+        long next;
+        if (awaitingPong) {
+            long waited = now - pingSentNanos;
+            if (waited >= pongTimeoutNanos) {
+                pingTimeout();
+                return;
+            }
+            next = pongTimeoutNanos - waited;
+        } else if (now - Math.max(pingSentNanos, lastActivityNanos) < pingIntervalNanos) {
+            next = pingIntervalNanos - (now - Math.max(pingSentNanos, lastActivityNanos));
+        } else {
+            pingSentNanos = now;
+            awaitingPong = true;
+            parser.ping(now);
+            next = Math.min(pingIntervalNanos, pongTimeoutNanos);
+        }
+        keepAliveRunner().postDelayed(keepAliveTask, Math.max(1, next / 1000000L));
+    }
+
+    /**
+     * 读到数据时调用，推迟下一次保活ping。写出数据不算：对端不读数据时写入仍可能成功（进入Socket缓冲区），
+     * 不能证明对端还在。
+     */
+    void onActivity() {
+        if (pingIntervalNanos > 0) {
+            lastActivityNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * 由读线程调用，不分配对象
+     */
+    void onPong(long payload) {
+        if (awaitingPong && payload == pingSentNanos) {
+            latencyStats.record(System.nanoTime() - payload);
+            awaitingPong = false;
+        }
+    }
+
+    private void pingTimeout() {
+        if (WSLog.isLoggable(WSLog.INFO)) {
+            WSLog.i(TAG, "No pong within " + pongTimeoutNanos / 1000000L + "ms, closing");
+        }
+        deadPeer = true;
+        NioConnection nioConnection = connection;
+        if (nioConnection != null) {
+            nioConnection.fail(new SocketTimeoutException("Pong timeout"));
+            return;
+        }
+        Socket dead = socket;
+        if (dead != null) {
+            try {
+                // The reader fails out of its read and reports the disconnect.
+                dead.close();
+            } catch (IOException ex) {
+                WSLog.d(TAG, "Error while closing socket", ex);
+            }
+        }
+    }
+
+    boolean isOpen() {
+        NioConnection nioConnection = connection;
+        return nioConnection != null ? nioConnection.isOpen() : output != null;
+    }
+
+    /**
+     * 连接已打开、发送队列未超过高水位，且没有等待超过一半超时时间的pong。
+     * 供 {@link WebSocketPool} 在保活判定断线之前就把流量移到其他连接。
+     */
+    boolean isHealthy() {
+        if (!isOpen() || deadPeer) return false;
+        long timeout = pongTimeoutNanos;
+        if (awaitingPong && timeout > 0 && System.nanoTime() - pingSentNanos > timeout / 2) {
+            return false;
+        }
+        return isWritable();
+    }
+
+    /**
+     * 按重连策略安排下一次重连
+     */
+    private void scheduleReconnect() {
+        ReconnectPolicy policy = reconnectPolicy;
+        if (policy == null || manualDisconnect) return;
+
+        int attempt = ++reconnectAttempts;
+        int maxAttempts = policy.getMaxAttempts();
+        if (maxAttempts >= 0 && attempt > maxAttempts) {
+            reconnectAttempts = 0;
+            abandonUnsent();
+            dispatcher.onReconnectFailed(attempt - 1);
+            return;
+        }
+        long delay = policy.nextDelay(attempt);
+        if (WSLog.isLoggable(WSLog.INFO)) {
+            WSLog.i(TAG, "Reconnecting in " + delay + "ms, attempt " + attempt);
+        }
+        dispatcher.onReconnecting(attempt, delay);
+        runner().postDelayed(reconnectTask, delay);
+    }
+
+    private void reconnect() {
+        if (manualDisconnect) return;
+        metrics.reconnect();
+        connect();
+    }
+
+    /**
+     * 不再重连：丢弃为重连保留的帧，与未启用重放时一样逐批回调 onError
+     */
+    private void abandonUnsent() {
+        boolean post = false;
+        synchronized (sendQueue) {
+            if (!reconnecting) return;
+            reconnecting = false;
+            if (!drainScheduled && queuedFrames() > 0) {
+                drainScheduled = true;
+                post = true;
+            }
+        }
+        discardBatch();
+        if (post) {
+            runner().post(drainTask);
+        }
+    }
+
+    /**
+     * 因协议错误断开前，尽量把带错误码的关闭帧发给服务端（例如收到非法UTF-8时为1007）。
+     * 不经过发送队列，以免断线重连时被重发；SelectorEngine 连接有写了一半的帧时放弃发送。
+     */
+    void sendCloseFrame(HybiParser.ProtocolError error) {
+        ByteBuffer frame = parser.closeFrame(error.getCode(), error.getMessage());
+        if (frame == null) return;
+        try {
+            synchronized (sendLock) {
+                NioConnection nioConnection = connection;
+                if (nioConnection != null) {
+                    if (batchStart == batchCount && nioConnection.isOpen()) {
+                        nioConnection.write(new ByteBuffer[]{frame}, 0, 1);
+                        metrics.frameOut(frame.get(0) & 0x0F, frame.limit(), -1);
+                    }
+                } else {
+                    OutputStream out = output;
+                    if (out != null) {
+                        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                        out.flush();
+                        metrics.frameOut(frame.get(0) & 0x0F, frame.limit(), -1);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            WSLog.d(TAG, "Error while sending close frame", e);
+        } finally {
+            BufferPool.getDefault().release(frame);
+        }
+    }
+
+    /**
+     * 连接异常结束，按异常类型回调
+     */
+    void handleError(Exception ex) {
+        if (manualDisconnect) {
+            // Closing the socket ourselves surfaces as an exception on the reader.
+            dispatcher.onDisconnect(CODE_MANUAL, "MANUAL");
+            return;
+        }
+        metrics.error();
+
+        if (deadPeer) {
+            // Closed by the keepalive after a missed pong.
+            dispatcher.onDisconnect(CODE_PING_TIMEOUT, "PING_TIMEOUT");
+            scheduleReconnect();
+            return;
+        }
+
+        if (ex instanceof EOFException) {
+            WSLog.d(TAG, "WebSocket EOF!", ex);
+            dispatcher.onDisconnect(CODE_EOF, "EOF");
+
+        } else if (ex instanceof SSLException) {
+            // Connection reset by peer
+            WSLog.d(TAG, "WebSocket SSL error!", ex);
+            dispatcher.onDisconnect(CODE_SSL, "SSL");
+
+        } else if (ex instanceof IllegalStateException) {
+            dispatcher.onError(ex);
+        } else {
+            if (WSLog.isLoggable(WSLog.INFO)) {
+                WSLog.i(TAG, "WebSocket UNKNOWN Error: " + ex);
+            }
+            dispatcher.onError(ex);
+        }
+
+        if (!(ex instanceof IllegalArgumentException)) {
+            scheduleReconnect();
+        }
+    }
+
+    private int getPort() {
+        boolean isSSL = "wss".equalsIgnoreCase(uri.getScheme());
+        return (uri.getPort() != -1) ? uri.getPort() : (isSSL ? 443 : 80);
+    }
+
+    /**
+     * 主动断开WebSocket连接
+     */
+    public void disconnect() {
+        final NioConnection nioConnection = connection;
+        if (socket == null && nioConnection == null) return;
+
+        manualDisconnect = true;
+        runner().removeCallbacks(reconnectTask);
+        abandonUnsent();
+
+        if (nioConnection != null) {
+            // The channel belongs to the event loop.
+            runner().post(new Runnable() {
+                @Override
+                public void run () {
+                    nioConnection.close();
+                }
+            });
+            return;
+        }
+        // Closed here rather than on the send thread, which may be stuck in a write to a peer
+        // that stopped reading; the write then fails and the reader reports the disconnect.
+        Socket closing = socket;
+        if (closing == null) return;
+        try {
+            output = null;
+            closing.close();
+        } catch (IOException ex) {
+            WSLog.d(TAG, "Error while disconnecting", ex);
+            dispatcher.onError(ex);
+        }
+    }
+
+    /**
+     * 发送文本数据
+     * @param data 文本数据
+     */
+    public void send(String data) {
+        if (!trySend(data)) {
+            dispatcher.onError(new IllegalStateException("Send queue full"));
+        }
+    }
+
+    /**
+     * 发送字节数据
+     * @param data 字节数据
+     */
+    public void send(byte[] data) {
+        if (!trySend(data)) {
+            dispatcher.onError(new IllegalStateException("Send queue full"));
+        }
+    }
+
+    /**
+     * 发送文本数据，发送队列已满时不入队
+     * @param data 文本数据
+     * @return 是否已放入发送队列
+     */
+    public boolean trySend(String data) {
+        // Frames must reach the queue in the order they were compressed.
+        synchronized (frameLock) {
+            return enqueueMessage(dataLane(), data, !streaming, null);
+        }
+    }
+
+    /**
+     * 发送字节数据，发送队列已满时不入队
+     * @param data 字节数据
+     * @return 是否已放入发送队列
+     */
+    public boolean trySend(byte[] data) {
+        synchronized (frameLock) {
+            return enqueueMessage(dataLane(), data, !streaming, null);
+        }
+    }
+
+    /**
+     * 发送文本数据，返回的 SendFuture 在帧写入Socket后完成，可以据此得知写出时间或写入失败。
+     * 发送队列已满时 future 立即以 IOException 失败，不回调 onError。
+     * @param data 文本数据
+     */
+    public SendFuture sendAsync(String data) {
+        SendFuture future = new SendFuture();
+        synchronized (frameLock) {
+            if (!enqueueMessage(dataLane(), data, !streaming, future)) {
+                future.fail(new IOException("Send queue full"));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 发送字节数据，返回的 SendFuture 在帧写入Socket后完成
+     * @param data 字节数据
+     * @see #sendAsync(String)
+     */
+    public SendFuture sendAsync(byte[] data) {
+        SendFuture future = new SendFuture();
+        synchronized (frameLock) {
+            if (!enqueueMessage(dataLane(), data, !streaming, future)) {
+                future.fail(new IOException("Send queue full"));
+            }
+        }
+        return future;
+    }
+
+    /**
+     * 批量发送文本消息：所有消息一次连续入队，其间不会插入其他线程的消息，
+     * 发送线程用一次聚集写入（阻塞模式为一次flush）写出，消息数超过批量合并上限时分多次写出。
+     * 发送队列放不下全部消息时一条也不发送，future 以 IOException 失败。
+     * @param messages 文本消息
+     * @return 全部消息写出后完成
+     */
+    public SendFuture sendBatch(String[] messages) {
+        SendFuture future = new SendFuture();
+        synchronized (frameLock) {
+            int size = fragmentSize;
+            boolean compress = !streaming;
+            List<ByteBuffer> frames = new ArrayList<ByteBuffer>(messages.length);
+            for (String message : messages) {
+                if (size > 0 && message.length() * 3L > size) {
+                    addFrames(frames, parser.frames(message, size, compress));
+                } else {
+                    frames.add(parser.frame(message, compress));
+                }
+            }
+            enqueueBatch(dataLane(), frames, future);
+        }
+        return future;
+    }
+
+    /**
+     * 批量发送字节消息，每个缓冲区 position 到 limit 之间的数据为一条消息。
+     * 数据在方法返回前已复制，缓冲区可以立即重用。
+     * @see #sendBatch(String[])
+     */
+    public SendFuture sendBatch(ByteBuffer[] messages) {
+        SendFuture future = new SendFuture();
+        synchronized (frameLock) {
+            int size = fragmentSize;
+            boolean compress = !streaming;
+            List<ByteBuffer> frames = new ArrayList<ByteBuffer>(messages.length);
+            for (ByteBuffer message : messages) {
+                if (size > 0 && message.remaining() > size) {
+                    addFrames(frames, parser.frames(message, size, compress));
+                } else {
+                    frames.add(parser.frame(message, compress));
+                }
+            }
+            enqueueBatch(dataLane(), frames, future);
+        }
+        return future;
+    }
+
+    /**
+     * 优先发送文本消息：排在所有未开始发送的普通消息之前，但不会插入正在发送的消息的分片之间。
+     * 不等待 {@link #sendStream} 等占用发送顺序的调用，适合在大消息上传期间发送交互消息。
+     * 优先消息不压缩，因此不受压缩上下文顺序的约束。
+     * @param data 文本数据
+     * @return 帧写入Socket后完成，发送队列已满时以 IOException 失败
+     */
+    public SendFuture sendPriority(String data) {
+        SendFuture future = new SendFuture();
+        if (!enqueueMessage(priorityQueue, data, false, future)) {
+            future.fail(new IOException("Send queue full"));
+        }
+        return future;
+    }
+
+    /**
+     * 优先发送字节数据
+     * @param data 字节数据
+     * @see #sendPriority(String)
+     */
+    public SendFuture sendPriority(byte[] data) {
+        SendFuture future = new SendFuture();
+        if (!enqueueMessage(priorityQueue, data, false, future)) {
+            future.fail(new IOException("Send queue full"));
+        }
+        return future;
+    }
+
+    /**
+     * 普通消息的发送通道，需持有 frameLock 调用。sendStream 发送期间为 deferredQueue，
+     * 这期间的消息不能压缩（压缩上下文正被流使用），也不能插在流的分片之间。
+     */
+    private SendQueue dataLane() {
+        return streaming ? deferredQueue : sendQueue;
+    }
+
+    /**
+     * 编码一条文本消息放入指定通道，超过分片大小时分片。压缩的消息需持有 frameLock 调用。
+     */
+    private boolean enqueueMessage(SendQueue lane, String data, boolean compress, SendFuture future) {
+        int size = fragmentSize;
+        if (size > 0 && data.length() * 3L > size) {
+            ByteBuffer[] frames = parser.frames(data, size, compress);
+            return frames != null && enqueue(lane, frames, future);
+        }
+        return enqueue(lane, parser.frame(data, compress), false, future);
+    }
+
+    private boolean enqueueMessage(SendQueue lane, byte[] data, boolean compress, SendFuture future) {
+        int size = fragmentSize;
+        if (size > 0 && data.length > size) {
+            ByteBuffer[] frames = parser.frames(data, 0, data.length, size, compress);
+            return frames != null && enqueue(lane, frames, future);
+        }
+        return enqueue(lane, parser.frame(data, 0, data.length, compress), false, future);
+    }
+
+    private static void addFrames(List<ByteBuffer> frames, ByteBuffer[] fragments) {
+        if (fragments == null) {
+            // The parser was closed.
+            frames.add(null);
+            return;
+        }
+        for (ByteBuffer fragment : fragments) {
+            frames.add(fragment);
+        }
+    }
+
+    private void enqueueBatch(SendQueue lane, List<ByteBuffer> frames, SendFuture future) {
+        for (ByteBuffer frame : frames) {
+            if (frame == null) {
+                // The parser was closed; send none of them.
+                for (ByteBuffer built : frames) {
+                    if (built != null) BufferPool.getDefault().release(built);
+                }
+                future.fail(new IllegalStateException("Socket closed"));
+                return;
+            }
+        }
+        if (frames.isEmpty()) {
+            future.complete(0);
+        } else if (!enqueue(lane, frames.toArray(new ByteBuffer[frames.size()]), future)) {
+            future.fail(new IOException("Send queue full"));
+        }
+    }
+
+    /**
+     * 分片发送一个流中的全部数据，每片最多64KB（设置了更小的分片大小时以其为准），内存占用与数据总大小无关。
+     * 方法在调用线程上阻塞，直到数据读完并全部放入发送队列；发送队列超过高水位时等待其回落到低水位。
+     * 读取和等待时不妨碍其他线程发送：期间发送的消息不压缩，排在该消息之后。不会关闭传入的流。
+     * @param data 数据流，文本消息需为UTF-8编码
+     * @param binary true为字节消息，false为文本消息
+     * @throws IOException 读取数据流失败、连接已断开或关闭，或等待时线程被中断
+     */
+    public void sendStream(InputStream data, boolean binary) throws IOException {
+        if (!isConnected()) {
+            throw new IllegalStateException("Socket not connected");
+        }
+        int size = fragmentSize;
+        byte[] chunk = new byte[size > 0 ? Math.min(size, STREAM_CHUNK_SIZE) : STREAM_CHUNK_SIZE];
+        int generation = connectionGeneration;
+        boolean compress = false;
+        boolean first = true;
+        try {
+            while (true) {
+                int count = readChunk(data, chunk);
+                // A short read ends the message; a stream ending on a chunk boundary gets an empty final fragment.
+                boolean last = count < chunk.length;
+                awaitWritable();
+                synchronized (frameLock) {
+                    boolean opening = first;
+                    // Another stream may hold the lane; its message has to finish first.
+                    while (opening && streaming) {
+                        awaitStreamEnd();
+                    }
+                    if (generation != connectionGeneration) {
+                        throw new IOException("Connection lost while sending a stream");
+                    }
+                    if (opening) {
+                        streaming = true;
+                        compress = deflate != null;
+                        first = false;
+                    } else if (compress && deflate == null) {
+                        throw new IOException("Connection lost while sending a stream");
+                    }
+                    ByteBuffer frame = parser.fragment(chunk, 0, count, binary, compress, opening, last);
+                    if (!enqueue(sendQueue, frame, true, null)) {
+                        throw new IOException("Socket closed");
+                    }
+                }
+                if (last) break;
+            }
+        } finally {
+            if (!first) {
+                synchronized (frameLock) {
+                    endStream();
+                }
+            }
+        }
+    }
+
+    private void awaitStreamEnd() throws InterruptedIOException {
+        try {
+            frameLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for another stream");
+        }
+    }
+
+    /**
+     * 流的消息已结束（或中止），暂存的消息接到 sendQueue 队尾。需持有 frameLock 调用。
+     */
+    private void endStream() {
+        streaming = false;
+        frameLock.notifyAll();
+        boolean post = false;
+        synchronized (sendQueue) {
+            if (deferredQueue.size() > 0) {
+                deferredQueue.moveTo(sendQueue);
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    post = true;
+                }
+            }
+        }
+        if (post) {
+            runner().post(drainTask);
+        }
+    }
+
+    private static int readChunk(InputStream in, byte[] chunk) throws IOException {
+        int count = 0;
+        while (count < chunk.length) {
+            int read = in.read(chunk, count, chunk.length - count);
+            if (read == -1) break;
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * 发送队列不可写时，等待待发送字节数回落到低水位。暂存在 deferredQueue 中的消息要等流发完才能写出，
+     * 不计入，否则其他线程持续发送时流会一直等待。
+     */
+    private void awaitWritable() throws InterruptedIOException {
+        synchronized (sendQueue) {
+            while (!writable && queuedBytes - deferredQueue.bytes() > lowWatermark) {
+                try {
+                    sendQueue.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the send queue");
+                }
+            }
+        }
+    }
+
+    /**
+     * 开启保活：超过间隔没有收到数据时发送ping，超过 timeoutMillis 未收到pong时关闭连接，
+     * 回调 onDisconnect({@link #CODE_PING_TIMEOUT})，并按重连策略重连。下次连接时生效。
+     * 每个pong的往返延迟记入 {@link #getLatencyStats()}。
+     * @param intervalMillis ping间隔（毫秒），0为关闭（默认）
+     * @param timeoutMillis 等待pong的超时时间（毫秒）
+     */
+    public void setKeepAlive(long intervalMillis, long timeoutMillis) {
+        if (intervalMillis < 0 || (intervalMillis > 0 && timeoutMillis <= 0)) {
+            throw new IllegalArgumentException("Require intervalMillis >= 0 and timeoutMillis > 0");
+        }
+        pongTimeoutNanos = timeoutMillis * 1000000L;
+        pingIntervalNanos = intervalMillis * 1000000L;
+    }
+
+    /**
+     * 返回保活ping的往返延迟统计
+     */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    /**
+     * 设置连接参数：超时、TCP_NODELAY、缓冲区大小、DNS缓存和多地址并行连接，下次连接时生效
+     * @param options 连接参数，null为默认值
+     */
+    public void setOptions(WebSocketOptions options) {
+        this.options = (options == null) ? new WebSocketOptions() : options;
+    }
+
+    public WebSocketOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * 设置断线自动重连策略。连接因网络错误、服务端关闭或握手失败结束后，按策略等待后自动重连；
+     * 主动调用 {@link #disconnect()} 不会触发重连。每次重连通过 {@link ReconnectCallback} 通知。
+     * @param policy 重连策略，null为不自动重连（默认）
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        reconnectPolicy = policy;
+    }
+
+    /**
+     * 设置握手时提供的子协议（Sec-WebSocket-Protocol），按优先级排列，下次连接时生效。
+     * 服务端选择的子协议通过 {@link #getSubprotocol()} 获取，选择了未提供的子协议时握手失败。
+     * @param protocols 子协议，不传或null为不协商（默认）
+     */
+    public void setSubprotocols(String... protocols) {
+        subprotocols = (protocols == null || protocols.length == 0) ? null : protocols.clone();
+    }
+
+    /**
+     * 返回服务端在最近一次握手中选择的子协议，没有选择时为null
+     */
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    /**
+     * 启用 permessage-deflate 压缩扩展，下次连接时在握手中协商。
+     * @param options 压缩参数，null为不启用（默认）
+     */
+    public void setDeflateOptions(DeflateOptions options) {
+        deflateOptions = options;
+    }
+
+    /**
+     * 设置发送队列的字节数限制。
+     * 待发送字节数超过 highWatermark 时变为不可写，回落到 lowWatermark 及以下时恢复可写，
+     * 状态变化通过 {@link WritabilityCallback} 通知。
+     * 待发送字节数将超过 maxQueuedBytes 时拒绝新消息（队列为空时总是接受，以便发送单个超大消息）。
+     * @param lowWatermark 低水位，默认256KB
+     * @param highWatermark 高水位，默认1MB
+     * @param maxQueuedBytes 队列上限，默认16MB
+     */
+    public void setSendQueueLimits(long lowWatermark, long highWatermark, long maxQueuedBytes) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > maxQueuedBytes) {
+            throw new IllegalArgumentException("Require 0 <= lowWatermark <= highWatermark <= maxQueuedBytes");
+        }
+        synchronized (sendQueue) {
+            this.lowWatermark = lowWatermark;
+            this.highWatermark = highWatermark;
+            this.maxQueuedBytes = maxQueuedBytes;
+        }
+    }
+
+    /**
+     * 发送队列是否处于可写状态（待发送字节数未超过高水位）
+     */
+    public boolean isWritable() {
+        synchronized (sendQueue) {
+            return writable;
+        }
+    }
+
+    /**
+     * 返回已入队但尚未写入Socket的字节数
+     */
+    public long getQueuedBytes() {
+        synchronized (sendQueue) {
+            return queuedBytes;
+        }
+    }
+
+    /**
+     * 设置发送批量合并参数。发送线程每次最多将 maxFrames 个待发送帧合并为一次写入和一次flush；
+     * maxDelayMillis 大于0时，首个帧入队后最多等待该时间以积攒更多帧，队列达到 maxFrames 时立即发送。
+     * @param maxFrames 每批次最多帧数，默认64
+     * @param maxDelayMillis 最大等待时间（毫秒），默认0即不等待
+     */
+    public void setSendBatching(int maxFrames, long maxDelayMillis) {
+        if (maxFrames < 1) {
+            throw new IllegalArgumentException("maxFrames must be positive");
+        }
+        maxBatchFrames = maxFrames;
+        maxBatchDelay = Math.max(0, maxDelayMillis);
+    }
+
+    /**
+     * 设置自动分片：负载超过 fragmentSize 字节的消息拆成多个帧发送（压缩的消息按压缩后的数据拆分），
+     * ping/pong 可以插在分片之间及时发出，不会被大消息挡住而导致保活超时；
+     * {@link #sendPriority} 的消息在当前消息发完后优先发出。立即生效，对已入队的消息无效。
+     * @param fragmentSize 每个帧的最大负载字节数，0为不分片（默认）
+     */
+    public void setFragmentSize(int fragmentSize) {
+        if (fragmentSize < 0) {
+            throw new IllegalArgumentException("fragmentSize must not be negative");
+        }
+        this.fragmentSize = fragmentSize;
+    }
+
+    /**
+     * 设置回调的执行方式。默认在读线程上直接执行回调，回调耗时会阻塞收帧（包括回复ping）。
+     * <ul>
+     * <li>executor 为null：在读线程上直接执行（默认）</li>
+     * <li>queueCapacity 为0：每个回调直接提交给 executor，不保证顺序</li>
+     * <li>queueCapacity 大于0：回调放入本连接的有序队列，在 executor 上依次执行；
+     * 队列满时读线程等待，不再从Socket读取数据。使用 {@link SelectorEngine} 时事件循环线程不等待，
+     * 而是暂停该连接的读取（队列可能超出容量一次读取的帧数），队列消化到容量一半以下后恢复</li>
+     * </ul>
+     * 分片接收（{@link StreamCallback}）的数据块在异步执行时会被复制。
+     * @param executor 执行回调的线程池
+     * @param queueCapacity 有序队列容量
+     */
+    public void setCallbackDispatch(Executor executor, int queueCapacity) {
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("queueCapacity must not be negative");
+        }
+        dispatcher.configure(executor, queueCapacity);
+    }
+
+    /**
+     * 统计每个回调的排队时间和执行耗时，默认关闭。关闭时同步回调直接调用，不计时也不加锁。
+     */
+    public void setCallbackStatsEnabled(boolean enabled) {
+        dispatcher.setStatsEnabled(enabled);
+    }
+
+    /**
+     * 返回回调分发统计：队列深度、排队时间和各类回调的执行耗时（耗时需先 {@link #setCallbackStatsEnabled} 开启）
+     */
+    public CallbackStats getCallbackStats() {
+        return dispatcher.getStats();
+    }
+
+    /**
+     * 返回发送批次统计
+     */
+    public SendStats getSendStats() {
+        return sendStats;
+    }
+
+    /**
+     * 返回本连接的收发指标，所有连接合计的指标见 {@link WebSocketMetrics#global()}
+     */
+    public WebSocketMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 开启或关闭本连接的帧级跟踪
+     * @param tracer 跟踪回调，null为关闭。可使用 {@link LogFrameTracer} 输出到日志
+     */
+    public void setFrameTracer(FrameTracer tracer) {
+        frameTracer = tracer;
+    }
+
+    FrameTracer getFrameTracer() {
+        return frameTracer;
+    }
+
+    WSCallback getCallback () {
+        return wsCallback;
+    }
+
+    CallbackDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    HybiParser getParser() {
+        return parser;
+    }
+
+    // "HTTP/1.1 101 Switching Protocols"
+    private int parseStatusCode(String line) throws HandshakeException {
+        int start = line.indexOf(' ');
+        int end = line.indexOf(' ', start + 1);
+        try {
+            return Integer.parseInt(line.substring(start + 1, end == -1 ? line.length() : end));
+        } catch (RuntimeException e) {
+            throw new HandshakeException("Bad status line: " + line);
+        }
+    }
+
+    private static boolean isEmpty(String string) {
+        return string == null || string.length() == 0;
+    }
+
+    String createSecret() {
+        byte[] nonce = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            nonce[i] = (byte) (Math.random() * 256);
+        }
+        return Base64.encode(nonce);
+    }
+
+    private String createSecretValidation(String secret) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update((secret + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes());
+            return Base64.encode(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean verifyScheme(String scheme){
+        if( scheme == null ) return false;
+        return scheme.equalsIgnoreCase("ws") || scheme.equalsIgnoreCase("wss");
+    }
+
+    void sendFrame(ByteBuffer frame) {
+        if (frame == null) return;
+        // A close frame ends the conversation, so it goes out after the messages queued before it.
+        boolean close = (frame.get(0) & 0x0F) == 8;
+        SendQueue lane = controlQueue;
+        if (close) {
+            synchronized (sendQueue) {
+                lane = (deferredQueue.size() > 0) ? deferredQueue : sendQueue;
+            }
+        }
+        enqueue(lane, frame, true, null);
+    }
+
+    /**
+     * 将帧放入发送通道。
+     * @param lane sendQueue、priorityQueue 或 controlQueue
+     * @param force 为true时忽略队列上限，用于控制帧
+     * @param future 帧写出或丢弃时完成，可以为null
+     * @return 是否已入队
+     */
+    private boolean enqueue(SendQueue lane, ByteBuffer frame, boolean force, SendFuture future) {
+        if (frame == null) return false;
+
+        int schedule;
+        synchronized (sendQueue) {
+            int length = frame.remaining();
+            if (!force && queuedBytes > 0 && queuedBytes + length > maxQueuedBytes) {
+                BufferPool.getDefault().release(frame);
+                return false;
+            }
+            lane.add(frame, System.nanoTime(), future);
+            schedule = queued(lane, 1, length);
+        }
+        scheduleDrain(schedule);
+        return true;
+    }
+
+    /**
+     * 将一组帧连续放入发送通道，要么全部入队，要么都不入队。future 挂在最后一个帧上，
+     * 帧按顺序写出，最后一个帧写出即全部写出。
+     */
+    private boolean enqueue(SendQueue lane, ByteBuffer[] frames, SendFuture future) {
+        long length = 0;
+        for (ByteBuffer frame : frames) {
+            length += frame.remaining();
+        }
+        int schedule;
+        synchronized (sendQueue) {
+            if (queuedBytes > 0 && queuedBytes + length > maxQueuedBytes) {
+                for (ByteBuffer frame : frames) {
+                    BufferPool.getDefault().release(frame);
+                }
+                return false;
+            }
+            long now = System.nanoTime();
+            for (int i = 0; i < frames.length; i++) {
+                lane.add(frames[i], now, i == frames.length - 1 ? future : null);
+            }
+            schedule = queued(lane, frames.length, length);
+        }
+        scheduleDrain(schedule);
+        return true;
+    }
+
+    /**
+     * 记入新入队的帧并决定如何安排发送任务，需持有 sendQueue 锁
+     * @return {@link #scheduleDrain} 的参数
+     */
+    private int queued(SendQueue lane, int frames, long length) {
+        int schedule = 0;
+        queuedBytes += length;
+        metrics.queued(frames, length);
+        if (writable && queuedBytes > highWatermark) {
+            writable = false;
+            schedule |= SCHEDULE_UNWRITABLE;
+        }
+
+        if (!drainScheduled) {
+            drainScheduled = true;
+            drainDelayed = maxBatchDelay > 0 && lane != controlQueue && queuedFrames() < maxBatchFrames;
+            schedule |= drainDelayed ? SCHEDULE_POST_DELAYED : SCHEDULE_POST;
+        } else if (drainDelayed && (lane == controlQueue || queuedFrames() >= maxBatchFrames)) {
+            // The batch is full or a control frame is waiting, don't wait out the rest of the delay.
+            drainDelayed = false;
+            schedule |= SCHEDULE_POST;
+        }
+        return schedule;
+    }
+
+    private void scheduleDrain(int schedule) {
+        if ((schedule & SCHEDULE_POST_DELAYED) != 0) {
+            runner().postDelayed(drainTask, maxBatchDelay);
+        } else if ((schedule & SCHEDULE_POST) != 0) {
+            TaskRunner runner = runner();
+            runner.removeCallbacks(drainTask);
+            runner.post(drainTask);
+        }
+        if ((schedule & SCHEDULE_UNWRITABLE) != 0) {
+            fireWritabilityChanged(false);
+        }
+    }
+
+    /**
+     * 各通道中的帧数，需持有 sendQueue 锁
+     */
+    private int queuedFrames() {
+        return sendQueue.size() + priorityQueue.size() + controlQueue.size();
+    }
+
+    /**
+     * 从各通道取出最多 max 个帧放入 batch，返回取出的个数，需持有 sendQueue 锁。
+     * 控制帧总是最先取出，可以插在分片之间；数据帧只在消息边界切换通道：先取完已开始的消息，
+     * 再取优先消息，最后是普通消息。批次超过 MAX_BATCH_BYTES 后只再取控制帧。
+     */
+    private int drainLanes(int max) {
+        int count = 0;
+        long bytes = 0;
+        while (count < max) {
+            SendQueue lane;
+            if (controlQueue.size() > 0) {
+                lane = controlQueue;
+            } else if (bytes >= MAX_BATCH_BYTES) {
+                break;
+            } else if (openLane != null) {
+                // The rest of a fragmented message may not have been queued yet (sendStream).
+                lane = openLane;
+            } else if (priorityQueue.size() > 0) {
+                lane = priorityQueue;
+            } else {
+                lane = sendQueue;
+            }
+            ByteBuffer frame = lane.peek();
+            if (frame == null) break;
+            lane.pollTo(batch, batchTimes, batchFutures, count++);
+            bytes += frame.remaining();
+            if (lane != controlQueue) {
+                openLane = (frame.get(0) & 0x80) == 0 ? lane : null;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 写线程写完（或丢弃）一批帧后扣减待发送字节数，回落到低水位时通知恢复可写。
+     */
+    private void releaseQueued(int frames, long bytes) {
+        boolean nowWritable = false;
+        synchronized (sendQueue) {
+            queuedBytes -= bytes;
+            metrics.queued(-frames, -bytes);
+            if (!writable) {
+                if (queuedBytes <= lowWatermark) {
+                    writable = true;
+                    nowWritable = true;
+                }
+                // Wakes sendStream, which may be waiting on less than the whole queue.
+                sendQueue.notifyAll();
+            }
+        }
+        if (nowWritable) {
+            fireWritabilityChanged(true);
+        }
+    }
+
+    private void fireWritabilityChanged(boolean writable) {
+        dispatcher.onWritabilityChanged(writable);
+    }
+
+    /**
+     * 在发送线程上执行：取出一批待发送帧，写入缓冲输出流后只flush一次。还有帧时重新提交自身，
+     * 让同一发送线程上到期的保活等任务在批次之间执行。
+     */
+    void drainSendQueue() {
+        synchronized (sendLock) {
+            NioConnection nioConnection = connection;
+            if (nioConnection != null) {
+                drainToChannel(nioConnection);
+                return;
+            }
+            int count;
+            OutputStream out;
+            synchronized (sendQueue) {
+                out = output;
+                if (out == null && reconnecting) {
+                    // Keep the frames for the next connection.
+                    drainScheduled = false;
+                    drainDelayed = false;
+                    return;
+                }
+                if (batch.length < maxBatchFrames) {
+                    batch = new ByteBuffer[maxBatchFrames];
+                    batchTimes = new long[maxBatchFrames];
+                    batchFutures = new SendFuture[maxBatchFrames];
+                }
+                count = drainLanes(maxBatchFrames);
+                drainDelayed = false;
+                if (count == 0) {
+                    drainScheduled = false;
+                    return;
+                }
+            }
+
+            long bytes = 0;
+            for (int i = 0; i < count; i++) {
+                bytes += batch[i].remaining();
+            }
+            Exception error = null;
+            try {
+                if (out == null) {
+                    throw new IllegalStateException("Socket not connected");
+                }
+                for (int i = 0; i < count; i++) {
+                    ByteBuffer frame = batch[i];
+                    out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+                }
+                out.flush();
+            } catch (Exception e) {
+                error = e;
+            }
+            // Frees the queue space before settling the futures, so a sender woken by one can
+            // queue its next message at once.
+            releaseQueued(count, bytes);
+            if (error == null) {
+                sendStats.record(count, bytes);
+                completeBatch(count);
+            } else {
+                failBatch(0, count, error);
+                if (!manualDisconnect) {
+                    // disconnect() closing the socket under the write is not an error.
+                    dispatcher.onError(error);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                BufferPool.getDefault().release(batch[i]);
+                batch[i] = null;
+            }
+
+            // The next batch, or the final pass that finds the lanes empty.
+            runner().post(drainTask);
+        }
+    }
+
+    /**
+     * SelectorEngine 模式下在事件循环线程上执行：每批次用一次聚集写入写到 Channel，
+     * Channel 写满时保留未写完的帧，等待可写事件后继续。
+     */
+    private void drainToChannel(NioConnection nioConnection) {
+        while (true) {
+            synchronized (sendQueue) {
+                if (reconnecting && !nioConnection.isOpen()) {
+                    // Keep the frames for the next connection.
+                    drainScheduled = false;
+                    drainDelayed = false;
+                    return;
+                }
+            }
+            if (batchStart == batchCount) {
+                int count;
+                synchronized (sendQueue) {
+                    if (batch.length < maxBatchFrames) {
+                        batch = new ByteBuffer[maxBatchFrames];
+                        batchTimes = new long[maxBatchFrames];
+                        batchFutures = new SendFuture[maxBatchFrames];
+                    }
+                    count = drainLanes(maxBatchFrames);
+                    if (count == 0) {
+                        drainScheduled = false;
+                        drainDelayed = false;
+                        return;
+                    }
+                }
+                long bytes = 0;
+                for (int i = 0; i < count; i++) {
+                    bytes += batch[i].remaining();
+                }
+                batchStart = 0;
+                batchCount = count;
+                batchBytes = bytes;
+            }
+
+            try {
+                if (!nioConnection.isOpen()) {
+                    throw new IllegalStateException("Socket not connected");
+                }
+                nioConnection.write(batch, batchStart, batchCount - batchStart);
+            } catch (IllegalStateException e) {
+                discardBatch(e);
+                dispatcher.onError(e);
+                continue;
+            } catch (IOException e) {
+                nioConnection.fail(e);
+                continue;
+            }
+
+            while (batchStart < batchCount && !batch[batchStart].hasRemaining()) {
+                batchStart++;
+            }
+            if (batchStart < batchCount) {
+                // The socket buffer is full; carry on when the channel becomes writable.
+                nioConnection.awaitWritable();
+                return;
+            }
+            sendStats.record(batchCount, batchBytes);
+            // Settles the whole batch as written.
+            discardBatch();
+        }
+    }
+
+    /**
+     * 当前批次的前 count 个帧已写出：记入指标并完成它们的 SendFuture
+     */
+    private void completeBatch(int count) {
+        long now = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer frame = batch[i];
+            long latency = now - batchTimes[i];
+            metrics.frameOut(frame.get(0) & 0x0F, frame.limit(), latency);
+            SendFuture future = batchFutures[i];
+            if (future != null) {
+                batchFutures[i] = null;
+                future.complete(latency);
+            }
+        }
+    }
+
+    /**
+     * 当前批次 [from, to) 中的帧不会再写出，其 SendFuture 以 error 失败
+     * @param error 为null时表示连接已关闭
+     */
+    private void failBatch(int from, int to, Exception error) {
+        for (int i = from; i < to; i++) {
+            SendFuture future = batchFutures[i];
+            if (future != null) {
+                batchFutures[i] = null;
+                if (error == null) {
+                    error = new IOException("Connection closed");
+                }
+                future.fail(error);
+            }
+        }
+    }
+
+    /**
+     * 归还当前批次的帧，SelectorEngine 连接关闭时也会调用
+     */
+    void discardBatch() {
+        discardBatch(null);
+    }
+
+    /**
+     * 归还当前批次的帧。batchStart 之前的帧已写入 Channel，按已写出记入指标并完成；
+     * 其余帧的 SendFuture 以 error 失败。
+     */
+    private void discardBatch(Exception error) {
+        synchronized (sendLock) {
+            if (batchCount == 0) return;
+            int count = batchCount;
+            releaseQueued(count, batchBytes);
+            completeBatch(batchStart);
+            failBatch(batchStart, count, error);
+            for (int i = 0; i < count; i++) {
+                BufferPool.getDefault().release(batch[i]);
+                batch[i] = null;
+            }
+            batchStart = 0;
+            batchCount = 0;
+        }
+    }
+
+    /**
+     * 共用的 SSLSocketFactory。JSSE 按主机和端口缓存客户端会话，同一个 SSLContext
+     * 再次连接同一主机时可以复用会话，省去完整握手。
+     */
+    private static SSLSocketFactory getSSLSocketFactory() throws NoSuchAlgorithmException, KeyManagementException {
+        synchronized (sslLock) {
+            if (sslSocketFactory == null) {
+                SSLContext context = SSLContext.getInstance("TLS");
+                context.init(null, trustManagers, null);
+                sslSocketFactory = context.getSocketFactory();
+            }
+            return sslSocketFactory;
+        }
+    }
+
+    /**
+     * 显式完成TLS握手并记录耗时。与同一主机和端口上一次握手的会话比较，判断是否复用了会话。
+     */
+    private static void startHandshake(SSLSocket socket) throws IOException {
+        long start = System.nanoTime();
+        socket.startHandshake();
+        long elapsed = System.nanoTime() - start;
+        SSLSession session = socket.getSession();
+        String peer = session.getPeerHost() + ":" + session.getPeerPort();
+        boolean resumed;
+        synchronized (sslLock) {
+            resumed = isResumption(lastSessions.put(peer, session), session);
+        }
+        tlsStats.record(resumed, elapsed);
+        if (WSLog.isLoggable(WSLog.DEBUG)) {
+            WSLog.d(TAG, "TLS handshake " + elapsed / 1000 + "us" + (resumed ? " (resumed)" : ""));
+        }
+    }
+
+    /**
+     * TLS 1.2 复用会话时会话ID不变。TLS 1.3 通过PSK复用时 JSSE 为每次连接生成新的会话ID，
+     * 但保留原会话的创建时间；完整握手创建的新会话以握手时刻为创建时间。
+     */
+    private static boolean isResumption(SSLSession previous, SSLSession session) {
+        if (previous == null) return false;
+        byte[] id = session.getId();
+        if (id != null && id.length > 0 && Arrays.equals(id, previous.getId())) return true;
+        return "TLSv1.3".equals(session.getProtocol()) && session.getCreationTime() == previous.getCreationTime();
+    }
+}
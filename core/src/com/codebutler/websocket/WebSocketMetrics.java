@@ -0,0 +1,285 @@
+package com.codebutler.websocket;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 连接指标：按opcode统计收发的帧数与字节数（含帧头）、待发送队列深度、握手耗时、
+ * 帧从入队到写出的延迟、建连/重连/异常次数。
+ * 每个 WebSocketClient 的指标只由它自己的收发线程写入，记录时不加锁、不争用；
+ * 全局指标 {@link #global()} 在读取时把各连接（包括已被回收的连接）的数值相加。
+ * 需要一致的数值（例如定时上报）时先调用 {@link #snapshot()}，再用 {@link #toMap()} 导出。
+ */
+public class WebSocketMetrics {
+
+    private static final int OPCODES = 16;
+
+    private static final int FRAMES_IN     = 0;
+    private static final int BYTES_IN      = FRAMES_IN + OPCODES;
+    private static final int FRAMES_OUT    = BYTES_IN + OPCODES;
+    private static final int BYTES_OUT     = FRAMES_OUT + OPCODES;
+    private static final int CONNECTS      = BYTES_OUT + OPCODES;
+    private static final int RECONNECTS    = CONNECTS + 1;
+    private static final int ERRORS        = RECONNECTS + 1;
+    private static final int QUEUED_FRAMES = ERRORS + 1;
+    private static final int QUEUED_BYTES  = QUEUED_FRAMES + 1;
+    private static final int SIZE          = QUEUED_BYTES + 1;
+
+    private static final int[] EXPORTED_OPCODES = {0, 1, 2, 8, 9, 10};
+    private static final String[] OPCODE_NAMES = {"continuation", "text", "binary", "close", "ping", "pong"};
+
+    // Metrics of live clients, and the totals of clients that have been garbage collected.
+    private static final Object registryLock = new Object();
+    private static final Set<Cells> registry = new HashSet<Cells>();
+    private static final ReferenceQueue<WebSocketMetrics> collected = new ReferenceQueue<WebSocketMetrics>();
+    private static final WebSocketMetrics retired = new WebSocketMetrics(false);
+
+    private final AtomicLongArray counters = new AtomicLongArray(SIZE);
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+    /**
+     * Outlives its WebSocketMetrics so the counts can be added to the retired totals.
+     */
+    private static final class Cells extends WeakReference<WebSocketMetrics> {
+        final AtomicLongArray counters;
+        final LatencyHistogram handshakeLatency;
+        final LatencyHistogram sendLatency;
+
+        Cells(WebSocketMetrics metrics) {
+            super(metrics, collected);
+            counters = metrics.counters;
+            handshakeLatency = metrics.handshakeLatency;
+            sendLatency = metrics.sendLatency;
+        }
+    }
+
+    WebSocketMetrics() {
+        this(true);
+    }
+
+    private WebSocketMetrics(boolean register) {
+        if (register) {
+            synchronized (registryLock) {
+                retireCollected();
+                registry.add(new Cells(this));
+            }
+        }
+    }
+
+    /**
+     * 所有连接合计的指标，为调用时的快照
+     */
+    public static WebSocketMetrics global() {
+        WebSocketMetrics total = new WebSocketMetrics(false);
+        synchronized (registryLock) {
+            retireCollected();
+            add(total, retired.counters, retired.handshakeLatency, retired.sendLatency);
+            for (Cells cells : registry) {
+                add(total, cells.counters, cells.handshakeLatency, cells.sendLatency);
+            }
+        }
+        return total;
+    }
+
+    private static void retireCollected() {
+        Cells cells;
+        while ((cells = (Cells) collected.poll()) != null) {
+            registry.remove(cells);
+            // A collected client has nothing queued any more.
+            cells.counters.set(QUEUED_FRAMES, 0);
+            cells.counters.set(QUEUED_BYTES, 0);
+            add(retired, cells.counters, cells.handshakeLatency, cells.sendLatency);
+        }
+    }
+
+    private static void add(WebSocketMetrics target, AtomicLongArray counters,
+                            LatencyHistogram handshakeLatency, LatencyHistogram sendLatency) {
+        for (int i = 0; i < SIZE; i++) {
+            target.counters.getAndAdd(i, counters.get(i));
+        }
+        handshakeLatency.addTo(target.handshakeLatency);
+        sendLatency.addTo(target.sendLatency);
+    }
+
+    /**
+     * For counters only one thread at a time updates: a plain ordered store instead of an
+     * atomic add keeps the per-frame cost to a few nanoseconds.
+     */
+    private void addOwned(int index, long delta) {
+        counters.lazySet(index, counters.get(index) + delta);
+    }
+
+    /** Called on the reading thread. */
+    void frameIn(int opcode, long bytes) {
+        addOwned(FRAMES_IN + opcode, 1);
+        addOwned(BYTES_IN + opcode, bytes);
+    }
+
+    /** Called on the writing thread, holding the client's sendLock. */
+    void frameOut(int opcode, long bytes, long queuedNanos) {
+        addOwned(FRAMES_OUT + opcode, 1);
+        addOwned(BYTES_OUT + opcode, bytes);
+        if (queuedNanos >= 0) {
+            sendLatency.record(queuedNanos);
+        }
+    }
+
+    /** Called holding the client's send queue lock. */
+    void queued(int frames, long bytes) {
+        addOwned(QUEUED_FRAMES, frames);
+        addOwned(QUEUED_BYTES, bytes);
+    }
+
+    void connected(long handshakeNanos) {
+        counters.incrementAndGet(CONNECTS);
+        handshakeLatency.record(handshakeNanos);
+    }
+
+    void reconnect() {
+        counters.incrementAndGet(RECONNECTS);
+    }
+
+    void error() {
+        counters.incrementAndGet(ERRORS);
+    }
+
+    /**
+     * 收到的帧数
+     * @param opcode 帧类型（RFC 6455 opcode），如1为文本帧，2为二进制帧
+     */
+    public long getFramesIn(int opcode) {
+        return counters.get(FRAMES_IN + (opcode & 0x0F));
+    }
+
+    /** 收到的某类帧的字节数，含帧头，负载为解压前的大小 */
+    public long getBytesIn(int opcode) {
+        return counters.get(BYTES_IN + (opcode & 0x0F));
+    }
+
+    /** 写出的某类帧的帧数 */
+    public long getFramesOut(int opcode) {
+        return counters.get(FRAMES_OUT + (opcode & 0x0F));
+    }
+
+    /** 写出的某类帧的字节数，含帧头和掩码，负载为压缩后的大小 */
+    public long getBytesOut(int opcode) {
+        return counters.get(BYTES_OUT + (opcode & 0x0F));
+    }
+
+    /** 收到的帧数合计 */
+    public long getFramesIn() {
+        return total(FRAMES_IN);
+    }
+
+    /** 收到的字节数合计 */
+    public long getBytesIn() {
+        return total(BYTES_IN);
+    }
+
+    /** 写出的帧数合计 */
+    public long getFramesOut() {
+        return total(FRAMES_OUT);
+    }
+
+    /** 写出的字节数合计 */
+    public long getBytesOut() {
+        return total(BYTES_OUT);
+    }
+
+    private long total(int base) {
+        long sum = 0;
+        for (int i = 0; i < OPCODES; i++) {
+            sum += counters.get(base + i);
+        }
+        return sum;
+    }
+
+    /** 握手成功次数（含重连） */
+    public long getConnects() {
+        return counters.get(CONNECTS);
+    }
+
+    /** 发起重连的次数 */
+    public long getReconnects() {
+        return counters.get(RECONNECTS);
+    }
+
+    /** 非主动断开的连接异常次数 */
+    public long getErrors() {
+        return counters.get(ERRORS);
+    }
+
+    /** 待发送的帧数（含已取出但尚未写完的批次） */
+    public long getQueuedFrames() {
+        return counters.get(QUEUED_FRAMES);
+    }
+
+    /** 待发送的字节数 */
+    public long getQueuedBytes() {
+        return counters.get(QUEUED_BYTES);
+    }
+
+    /** 从调用 connect() 到握手完成的耗时（含DNS、TCP、TLS） */
+    public LatencyHistogram getHandshakeLatency() {
+        return handshakeLatency;
+    }
+
+    /** 帧从进入发送队列到写入Socket（阻塞模式为flush完成）的延迟 */
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
+    /**
+     * 复制当前数值，之后不再变化
+     */
+    public WebSocketMetrics snapshot() {
+        WebSocketMetrics copy = new WebSocketMetrics(false);
+        add(copy, counters, handshakeLatency, sendLatency);
+        return copy;
+    }
+
+    /**
+     * 以扁平的名称导出，便于写入指标系统，如 "frames.in.text"、"latency.send.p99"（纳秒）
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < EXPORTED_OPCODES.length; i++) {
+            int opcode = EXPORTED_OPCODES[i];
+            map.put("frames.in." + OPCODE_NAMES[i], getFramesIn(opcode));
+            map.put("bytes.in." + OPCODE_NAMES[i], getBytesIn(opcode));
+            map.put("frames.out." + OPCODE_NAMES[i], getFramesOut(opcode));
+            map.put("bytes.out." + OPCODE_NAMES[i], getBytesOut(opcode));
+        }
+        map.put("connects", getConnects());
+        map.put("reconnects", getReconnects());
+        map.put("errors", getErrors());
+        map.put("queue.frames", getQueuedFrames());
+        map.put("queue.bytes", getQueuedBytes());
+        export(map, "latency.handshake", handshakeLatency);
+        export(map, "latency.send", sendLatency);
+        return map;
+    }
+
+    private static void export(Map<String, Long> map, String name, LatencyHistogram histogram) {
+        map.put(name + ".count", histogram.getCount());
+        map.put(name + ".mean", histogram.getMeanNanos());
+        map.put(name + ".p50", histogram.getP50Nanos());
+        map.put(name + ".p99", histogram.getP99Nanos());
+        map.put(name + ".max", histogram.getMaxNanos());
+    }
+
+    @Override
+    public String toString() {
+        return "WebSocketMetrics{framesIn=" + getFramesIn() + ", bytesIn=" + getBytesIn()
+                + ", framesOut=" + getFramesOut() + ", bytesOut=" + getBytesOut()
+                + ", queued=" + getQueuedFrames() + "/" + getQueuedBytes()
+                + ", connects=" + getConnects() + ", reconnects=" + getReconnects() + ", errors=" + getErrors()
+                + ", handshake=" + handshakeLatency + ", send=" + sendLatency + "}";
+    }
+}
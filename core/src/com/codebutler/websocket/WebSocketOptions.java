@@ -0,0 +1,114 @@
+package com.codebutler.websocket;
+
+/**
+ * 连接参数，通过 {@link WebSocketClient#setOptions(WebSocketOptions)} 设置，下次连接时生效。
+ */
+public class WebSocketOptions {
+
+    private int connectTimeoutMillis = 10 * 1000;
+    private int readTimeoutMillis = 0;
+    private boolean tcpNoDelay = true;
+    private int sendBufferSize = 0;
+    private int receiveBufferSize = 0;
+    private long dnsCacheMillis = 60 * 1000;
+    private long happyEyeballsDelayMillis = 250;
+
+    /**
+     * 建立TCP连接的超时时间（毫秒），包括尝试所有地址的时间。默认10000，0为不限制
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connectTimeoutMillis must not be negative");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * 读超时（毫秒），超过这个时间没有收到任何数据即断开连接。默认0为不限制。
+     * 空闲连接需要配合 {@link WebSocketClient#setKeepAlive(long, long)} 使用，
+     * 否则服务器长时间不发消息也会断开。只对阻塞线程的连接有效，SelectorEngine 连接请使用保活。
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        if (readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("readTimeoutMillis must not be negative");
+        }
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * 是否关闭Nagle算法（TCP_NODELAY）。默认true，小消息立即发出，不等待合并
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * 发送缓冲区大小（SO_SNDBUF，字节），默认0即使用系统默认值
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("sendBufferSize must not be negative");
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * 接收缓冲区大小（SO_RCVBUF，字节），默认0即使用系统默认值。在连接前设置，大于64K时才能生效
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("receiveBufferSize must not be negative");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * DNS解析结果的缓存时间（毫秒），所有连接共用。默认60000，0为每次连接都重新解析。
+     * 所有地址都连接失败时缓存立即失效
+     */
+    public void setDnsCacheMillis(long dnsCacheMillis) {
+        if (dnsCacheMillis < 0) {
+            throw new IllegalArgumentException("dnsCacheMillis must not be negative");
+        }
+        this.dnsCacheMillis = dnsCacheMillis;
+    }
+
+    public long getDnsCacheMillis() {
+        return dnsCacheMillis;
+    }
+
+    /**
+     * 域名有多个地址时（例如同时有IPv6和IPv4），IPv6/IPv4交替排列，前一个地址在这个时间（毫秒）内
+     * 没有连上就同时尝试下一个（Happy Eyeballs，RFC 8305），先连上的胜出。默认250，0为逐个尝试
+     */
+    public void setHappyEyeballsDelayMillis(long happyEyeballsDelayMillis) {
+        if (happyEyeballsDelayMillis < 0) {
+            throw new IllegalArgumentException("happyEyeballsDelayMillis must not be negative");
+        }
+        this.happyEyeballsDelayMillis = happyEyeballsDelayMillis;
+    }
+
+    public long getHappyEyeballsDelayMillis() {
+        return happyEyeballsDelayMillis;
+    }
+}
@@ -0,0 +1,187 @@
+package com.codebutler.websocket;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接池：向一个或多个地址同时保持多个连接，把发送分摊到各连接上。
+ * 每个连接有独立的TCP流和发送队列，大消息只阻塞它所在的连接，其他连接上的小消息不受影响。
+ * 可以按轮询、最少排队字节数选择连接，或按key固定到某个连接以保证同一key的消息有序。
+ * 连接未打开、发送队列超过高水位或pong逾期时视为不健康，不指定key的发送会跳过它；没有健康的连接时仍按策略选择。
+ * 各连接的参数（保活、重连策略、SelectorEngine等）在 {@link #connect()} 之前通过 {@link #getMembers()} 设置。
+ */
+public class WebSocketPool {
+
+    /** 轮流使用各连接 */
+    public static final int ROUND_ROBIN  = 0;
+    /** 使用待发送字节数最少的连接 */
+    public static final int LEAST_QUEUED = 1;
+
+    private final WebSocketClient[] members;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile int balance = ROUND_ROBIN;
+
+    /**
+     * @param urls 地址，第i个连接使用 urls[i % urls.length]
+     * @param size 连接数
+     * @param wsCallback 所有连接共用的回调
+     */
+    public WebSocketPool(String[] urls, int size, WSCallback wsCallback) {
+        this(create(urls, size, wsCallback));
+    }
+
+    /**
+     * 由已创建的连接组成连接池，例如需要为每个连接使用不同回调时
+     */
+    public WebSocketPool(List<? extends WebSocketClient> members) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("A pool needs at least one member");
+        }
+        this.members = members.toArray(new WebSocketClient[members.size()]);
+    }
+
+    private static List<WebSocketClient> create(String[] urls, int size, WSCallback wsCallback) {
+        if (urls.length == 0 || size < 1) {
+            throw new IllegalArgumentException("Require at least one url and one connection");
+        }
+        List<WebSocketClient> members = new ArrayList<WebSocketClient>(size);
+        for (int i = 0; i < size; i++) {
+            members.add(new WebSocketClient(URI.create(urls[i % urls.length]), wsCallback, null));
+        }
+        return members;
+    }
+
+    /**
+     * 设置不指定key的发送如何选择连接
+     * @param balance {@link #ROUND_ROBIN}（默认）或 {@link #LEAST_QUEUED}
+     */
+    public void setBalance(int balance) {
+        if (balance != ROUND_ROBIN && balance != LEAST_QUEUED) {
+            throw new IllegalArgumentException("Unknown balance: " + balance);
+        }
+        this.balance = balance;
+    }
+
+    public List<WebSocketClient> getMembers() {
+        return Collections.unmodifiableList(Arrays.asList(members));
+    }
+
+    public void connect() {
+        for (WebSocketClient member : members) {
+            member.connect();
+        }
+    }
+
+    public void disconnect() {
+        for (WebSocketClient member : members) {
+            member.disconnect();
+        }
+    }
+
+    /**
+     * 健康的连接数
+     */
+    public int getHealthyCount() {
+        int count = 0;
+        for (WebSocketClient member : members) {
+            if (member.isHealthy()) count++;
+        }
+        return count;
+    }
+
+    public void send(String data) {
+        next().send(data);
+    }
+
+    public void send(byte[] data) {
+        next().send(data);
+    }
+
+    public boolean trySend(String data) {
+        return next().trySend(data);
+    }
+
+    public boolean trySend(byte[] data) {
+        return next().trySend(data);
+    }
+
+    /**
+     * 按key选择连接发送，同一key的消息经同一连接按序发出
+     */
+    public void send(Object key, String data) {
+        forKey(key).send(data);
+    }
+
+    public void send(Object key, byte[] data) {
+        forKey(key).send(data);
+    }
+
+    /**
+     * 按当前策略选择下一个连接，例如用于 {@link WebSocketClient#sendStream} 发送大消息
+     */
+    public WebSocketClient next() {
+        int n = members.length;
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % n;
+        if (n == 1) return members[0];
+
+        if (balance == LEAST_QUEUED) {
+            WebSocketClient best = null;
+            long bestQueued = Long.MAX_VALUE;
+            // Starting where round robin would keeps equally loaded members evenly used.
+            for (int i = 0; i < n; i++) {
+                WebSocketClient member = members[(start + i) % n];
+                if (!member.isHealthy()) continue;
+                long queued = member.getMetrics().getQueuedBytes();
+                if (queued < bestQueued) {
+                    best = member;
+                    bestQueued = queued;
+                }
+            }
+            return best != null ? best : members[start];
+        }
+
+        for (int i = 0; i < n; i++) {
+            WebSocketClient member = members[(start + i) % n];
+            if (member.isHealthy()) return member;
+        }
+        return members[start];
+    }
+
+    /**
+     * 按key选择连接（rendezvous hashing）：key总是落在同一个连接上。
+     * 只有该连接断开时才改用其他连接，并且只有原属于它的key会移动；
+     * 队列积压或pong逾期不会让key移动，否则同一key的消息可能乱序。
+     */
+    public WebSocketClient forKey(Object key) {
+        int hash = key.hashCode();
+        WebSocketClient best = null;
+        WebSocketClient fallback = null;
+        int bestWeight = 0;
+        int fallbackWeight = 0;
+        for (int i = 0; i < members.length; i++) {
+            int weight = mix(hash ^ (i * 0x9E3779B9));
+            if (fallback == null || weight > fallbackWeight) {
+                fallback = members[i];
+                fallbackWeight = weight;
+            }
+            if ((best == null || weight > bestWeight) && members[i].isOpen()) {
+                best = members[i];
+                bestWeight = weight;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
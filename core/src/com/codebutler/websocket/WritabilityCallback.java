@@ -0,0 +1,14 @@
+package com.codebutler.websocket;
+
+/**
+ * 发送队列可写状态回调。WSCallback 的实现类同时实现本接口即可收到通知。
+ * 待发送字节数超过高水位时变为不可写，回落到低水位以下时恢复可写。
+ */
+public interface WritabilityCallback {
+
+    /**
+     * 可写状态发生变化
+     * @param writable true为已回落到低水位以下，可以继续发送；false为已超过高水位，应暂停发送
+     */
+    public void onWritabilityChanged(boolean writable);
+}
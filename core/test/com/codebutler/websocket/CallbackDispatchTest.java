@@ -0,0 +1,158 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackDispatchTest {
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private SelectorEngine engine;
+    private ExecutorService executor;
+    private final BlockingCallback callback = new BlockingCallback();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        executor = Executors.newFixedThreadPool(4, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "callback-pool");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        callback.release.countDown();
+        if (client != null) {
+            client.disconnect();
+        }
+        if (engine != null) {
+            engine.shutdown();
+        }
+        executor.shutdownNow();
+        server.close();
+    }
+
+    @Test
+    public void runsCallbacksInOrderOnTheExecutor() throws Exception {
+        callback.release.countDown();
+        LoopbackServer.Connection connection = connect(null, 16);
+        for (int i = 0; i < 200; i++) {
+            connection.sendText("message " + i);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals("message " + i, callback.nextMessage());
+        }
+        assertEquals("callback-pool", callback.messageThread);
+    }
+
+    @Test
+    public void readerKeepsReadingWhileACallbackIsSlow() throws Exception {
+        LoopbackServer.Connection connection = connect(null, 100);
+        for (int i = 0; i < 10; i++) {
+            connection.sendText("message " + i);
+        }
+        assertTrue(callback.blocked.await(5, TimeUnit.SECONDS));
+        // The other nine were read and queued behind the stuck one.
+        awaitQueueDepth(9);
+        callback.release.countDown();
+        for (int i = 0; i < 10; i++) {
+            assertEquals("message " + i, callback.nextMessage());
+        }
+    }
+
+    @Test
+    public void fullQueueStopsTheBlockingReader() throws Exception {
+        assertFullQueueHoldsReading(null);
+    }
+
+    @Test
+    public void fullQueuePausesTheSelectorEngineReader() throws Exception {
+        engine = new SelectorEngine(1);
+        assertFullQueueHoldsReading(engine);
+    }
+
+    @Test
+    public void timesCallbacksWhenStatsAreEnabled() throws Exception {
+        callback.release.countDown();
+        LoopbackServer.Connection connection = connect(null, 0);
+        client.setCallbackStatsEnabled(true);
+        connection.sendText("timed");
+        assertEquals("timed", callback.nextMessage());
+        long deadline = System.currentTimeMillis() + 2000;
+        while (client.getCallbackStats().getCount(CallbackStats.TYPE_MESSAGE) == 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, client.getCallbackStats().getCount(CallbackStats.TYPE_MESSAGE));
+    }
+
+    private void assertFullQueueHoldsReading(SelectorEngine engine) throws Exception {
+        LoopbackServer.Connection connection = connect(engine, 2);
+        // One message per read, so the event loop can only overshoot the capacity by one.
+        for (int i = 0; i < 20; i++) {
+            connection.sendText("message " + i);
+            Thread.sleep(5);
+        }
+        assertTrue(callback.blocked.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+        assertTrue(client.getCallbackStats().getMaxQueueDepth() <= 3);
+
+        callback.release.countDown();
+        for (int i = 0; i < 20; i++) {
+            assertEquals("message " + i, callback.nextMessage());
+        }
+    }
+
+    private void awaitQueueDepth(int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getCallbackStats().getQueueDepth() < depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(depth, client.getCallbackStats().getQueueDepth());
+    }
+
+    private LoopbackServer.Connection connect(SelectorEngine engine, int capacity) throws Exception {
+        client = new WebSocketClient(server.uri(), callback);
+        if (engine != null) {
+            client.setEngine(engine);
+        }
+        client.setCallbackDispatch(executor, capacity);
+        client.connect();
+        callback.awaitConnect();
+        return server.accept();
+    }
+
+    /**
+     * Holds the first message's callback until released.
+     */
+    private static final class BlockingCallback extends RecordingCallback {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile String messageThread;
+
+        @Override
+        public void onMessage(String message) {
+            messageThread = Thread.currentThread().getName();
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.onMessage(message);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.codebutler.websocket;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HandshakeReaderTest {
+
+    private static final String RESPONSE = "HTTP/1.1 101 Switching Protocols\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection:Upgrade\r\n"
+            + "Sec-WebSocket-Accept:  s3pPLMBiTxaQ9kYGzzhZRbK+xOo= \r\n"
+            + "\r\n";
+
+    @Test
+    public void parsesStatusLineAndHeaders() throws Exception {
+        HandshakeReader reader = HandshakeReader.read(new ByteArrayInputStream(RESPONSE.getBytes("ISO-8859-1")));
+        assertEquals("HTTP/1.1 101 Switching Protocols", reader.statusLine());
+        List<HttpHeader> headers = reader.headers();
+        assertEquals(3, headers.size());
+        assertEquals("Upgrade", headers.get(0).getName());
+        assertEquals("websocket", headers.get(0).getValue());
+        assertEquals("Upgrade", headers.get(1).getValue());
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", headers.get(2).getValue());
+        assertFalse(reader.leftover().hasRemaining());
+    }
+
+    @Test
+    public void keepsBytesAfterHeadersAsLeftover() throws Exception {
+        byte[] frames = HybiParserTest.concat(HybiParserTest.frame(0x81, HybiParserTest.bytes("first")),
+                HybiParserTest.frame(0x81, HybiParserTest.bytes("second")));
+        byte[] stream = HybiParserTest.concat(RESPONSE.getBytes("ISO-8859-1"), frames);
+
+        HandshakeReader reader = HandshakeReader.read(new ByteArrayInputStream(stream));
+        assertArrayEquals(frames, remaining(reader.leftover()));
+
+        // The parser picks up the frames where the handshake left off.
+        final List<String> received = new ArrayList<String>();
+        WebSocketClient client = new WebSocketClient("ws://localhost/", new WSCallback() {
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onMessage(byte[] data) {
+            }
+
+            @Override
+            public void onDisconnect(int code, String reason) {
+            }
+
+            @Override
+            public void onError(Exception error) {
+            }
+        });
+        HybiParser parser = new HybiParser(client);
+        parser.begin();
+        parser.feed(reader.leftover());
+        assertEquals(2, received.size());
+        assertEquals("first", received.get(0));
+        assertEquals("second", received.get(1));
+    }
+
+    @Test
+    public void parsesResponseArrivingOneByteAtATime() throws Exception {
+        byte[] frame = HybiParserTest.frame(0x82, new byte[]{1, 2, 3});
+        byte[] stream = HybiParserTest.concat(RESPONSE.getBytes("ISO-8859-1"), frame);
+
+        HandshakeReader reader = new HandshakeReader();
+        int i = 0;
+        boolean done = false;
+        while (!done) {
+            reader.buffer().put(stream[i++]);
+            done = reader.parse();
+        }
+        // Bytes that arrive with the end of the headers become the leftover; none did here.
+        assertEquals(RESPONSE.length(), i);
+        assertEquals(0, reader.leftover().remaining());
+        assertEquals(3, reader.headers().size());
+    }
+
+    @Test
+    public void acceptsBareLineFeeds() throws Exception {
+        HandshakeReader reader = HandshakeReader.read(stream("HTTP/1.1 101 OK\nUpgrade: websocket\n\nxy"));
+        assertEquals("HTTP/1.1 101 OK", reader.statusLine());
+        assertEquals(1, reader.headers().size());
+        assertArrayEquals("xy".getBytes("ISO-8859-1"), remaining(reader.leftover()));
+    }
+
+    @Test
+    public void growsForLargeResponses() throws Exception {
+        StringBuilder response = new StringBuilder("HTTP/1.1 101 OK\r\n");
+        for (int i = 0; i < 200; i++) {
+            response.append("X-Header-").append(i).append(": ").append("value value value value value\r\n");
+        }
+        response.append("\r\n");
+        HandshakeReader reader = HandshakeReader.read(stream(response.toString()));
+        assertEquals(200, reader.headers().size());
+    }
+
+    @Test(expected = HandshakeException.class)
+    public void rejectsHeaderWithoutColon() throws Exception {
+        HandshakeReader.read(stream("HTTP/1.1 101 OK\r\nbroken header\r\n\r\n"));
+    }
+
+    @Test(expected = HandshakeException.class)
+    public void rejectsEmptyReply() throws Exception {
+        HandshakeReader.read(stream(""));
+    }
+
+    @Test
+    public void rejectsResponseCutShort() throws Exception {
+        try {
+            HandshakeReader.read(stream("HTTP/1.1 101 OK\r\nUpgrade: websocket\r\n"));
+            fail("truncated response accepted");
+        } catch (java.io.EOFException expected) {
+            assertTrue(expected.getClass() == java.io.EOFException.class);
+        }
+    }
+
+    @Test(expected = HandshakeException.class)
+    public void rejectsOversizedResponse() throws Exception {
+        StringBuilder response = new StringBuilder("HTTP/1.1 101 OK\r\n");
+        while (response.length() < 70 * 1024) {
+            response.append("X-Padding: 0123456789012345678901234567890123456789\r\n");
+        }
+        HandshakeReader.read(stream(response.toString()));
+    }
+
+    private static InputStream stream(String text) throws Exception {
+        return new ByteArrayInputStream(text.getBytes("ISO-8859-1"));
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,128 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class HappyEyeballsTest {
+
+    private static final String HOST = "eyeballs.test";
+    private static final long DNS_CACHE_MILLIS = 60 * 1000;
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private SelectorEngine engine;
+    private ServerSocket stalled;
+    private final List<Socket> backlog = new ArrayList<Socket>();
+    private final RecordingCallback callback = new RecordingCallback();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Dialer.invalidate(HOST);
+        if (client != null) {
+            client.disconnect();
+        }
+        if (engine != null) {
+            engine.shutdown();
+        }
+        for (Socket socket : backlog) {
+            socket.close();
+        }
+        if (stalled != null) {
+            stalled.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void startsNextAddressAfterDelay() throws Exception {
+        assertStartsNextAddressAfterDelay(null);
+    }
+
+    @Test
+    public void startsNextAddressAfterDelayOnSelectorEngine() throws Exception {
+        engine = new SelectorEngine(1);
+        assertStartsNextAddressAfterDelay(engine);
+    }
+
+    @Test
+    public void startsNextAddressWhenOneIsRefused() throws Exception {
+        assertStartsNextAddressWhenOneIsRefused(null);
+    }
+
+    @Test
+    public void startsNextAddressWhenOneIsRefusedOnSelectorEngine() throws Exception {
+        engine = new SelectorEngine(1);
+        assertStartsNextAddressWhenOneIsRefused(engine);
+    }
+
+    private void assertStartsNextAddressAfterDelay(SelectorEngine engine) throws Exception {
+        Dialer.cache(HOST, new InetAddress[]{stalledAddress(), loopback(1)}, DNS_CACHE_MILLIS);
+        long elapsed = connect(engine, 100);
+        assertTrue("connected before the delay: " + elapsed, elapsed >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue("waited for the stalled address: " + elapsed, elapsed < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    private void assertStartsNextAddressWhenOneIsRefused(SelectorEngine engine) throws Exception {
+        // Nothing listens on 127.0.0.3, so that attempt fails at once.
+        Dialer.cache(HOST, new InetAddress[]{loopback(3), loopback(1)}, DNS_CACHE_MILLIS);
+        long elapsed = connect(engine, 2000);
+        assertTrue("waited for the delay: " + elapsed, elapsed < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Connects to the server by name and returns how long it took.
+     */
+    private long connect(SelectorEngine engine, long delayMillis) throws Exception {
+        WebSocketOptions options = new WebSocketOptions();
+        options.setConnectTimeoutMillis(5000);
+        options.setDnsCacheMillis(DNS_CACHE_MILLIS);
+        options.setHappyEyeballsDelayMillis(delayMillis);
+        client = new WebSocketClient("ws://" + HOST + ":" + server.port() + "/", callback);
+        client.setOptions(options);
+        if (engine != null) {
+            client.setEngine(engine);
+        }
+        long start = System.nanoTime();
+        client.connect();
+        callback.awaitConnect();
+        long elapsed = System.nanoTime() - start;
+        server.accept();
+        return elapsed;
+    }
+
+    /**
+     * 127.0.0.2 on the server's port, where connects hang: the listener never accepts and its
+     * backlog is full, so further SYNs are dropped.
+     */
+    private InetAddress stalledAddress() throws Exception {
+        InetAddress address = loopback(2);
+        stalled = new ServerSocket();
+        stalled.bind(new InetSocketAddress(address, server.port()), 1);
+        for (int i = 0; i < 2; i++) {
+            Socket socket = new Socket();
+            socket.connect(stalled.getLocalSocketAddress(), 1000);
+            backlog.add(socket);
+        }
+        return address;
+    }
+
+    private static InetAddress loopback(int last) throws Exception {
+        return InetAddress.getByAddress(new byte[]{127, 0, 0, (byte) last});
+    }
+}
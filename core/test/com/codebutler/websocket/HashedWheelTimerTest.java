@@ -0,0 +1,85 @@
+package com.codebutler.websocket;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HashedWheelTimerTest {
+
+    // 8 buckets of 5ms: anything past 40ms takes more than one round.
+    private final HashedWheelTimer timer = new HashedWheelTimer(5, 8, "HashedWheelTimerTest");
+
+    @Test
+    public void expiresNoEarlierThanTheDelay() throws Exception {
+        for (long delay : new long[]{0, 12, 100}) {
+            LatchTimeout timeout = new LatchTimeout();
+            long start = System.nanoTime();
+            timer.schedule(timeout, delay);
+            assertTrue("delay " + delay, timeout.latch.await(2, TimeUnit.SECONDS));
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(timeout.expiredAt - start);
+            assertTrue("delay " + delay + " expired after " + elapsed + "ms", elapsed >= delay);
+            assertFalse(timeout.cancel());
+        }
+    }
+
+    @Test
+    public void expiresManyTimeoutsOnce() throws Exception {
+        final AtomicInteger expired = new AtomicInteger();
+        final CountDownLatch all = new CountDownLatch(1000);
+        for (int i = 0; i < 1000; i++) {
+            timer.schedule(new HashedWheelTimer.Timeout() {
+                @Override
+                void expire() {
+                    expired.incrementAndGet();
+                    all.countDown();
+                }
+            }, i % 60);
+        }
+        assertTrue(all.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1000, expired.get());
+    }
+
+    @Test
+    public void cancelledTimeoutsDoNotExpire() throws Exception {
+        LatchTimeout cancelled = new LatchTimeout();
+        LatchTimeout kept = new LatchTimeout();
+        timer.schedule(cancelled, 20);
+        timer.schedule(kept, 60);
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+
+        assertTrue(kept.latch.await(2, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.latch.getCount());
+    }
+
+    @Test
+    public void keepsRunningAfterAFailingTimeout() throws Exception {
+        timer.schedule(new HashedWheelTimer.Timeout() {
+            @Override
+            void expire() {
+                throw new IllegalStateException("expected by the test");
+            }
+        }, 0);
+        LatchTimeout next = new LatchTimeout();
+        timer.schedule(next, 10);
+        assertTrue(next.latch.await(2, TimeUnit.SECONDS));
+    }
+
+    private static final class LatchTimeout extends HashedWheelTimer.Timeout {
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile long expiredAt;
+
+        @Override
+        void expire() {
+            expiredAt = System.nanoTime();
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.codebutler.websocket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HybiParserTest {
+
+    private static final int FIN  = 0x80;
+    private static final int RSV1 = 0x40;
+
+    private final List<Object> received = new ArrayList<Object>();
+    private HybiParser parser;
+
+    @Before
+    public void setUp() {
+        WebSocketClient client = new WebSocketClient("ws://localhost/", new WSCallback() {
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(String message) {
+                received.add(message);
+            }
+
+            @Override
+            public void onMessage(byte[] data) {
+                received.add(data);
+            }
+
+            @Override
+            public void onDisconnect(int code, String reason) {
+            }
+
+            @Override
+            public void onError(Exception error) {
+            }
+        });
+        parser = new HybiParser(client);
+        parser.begin();
+    }
+
+    @Test
+    public void decodesSingleFrames() throws Exception {
+        feed(frame(FIN | 1, bytes("hello")), frame(FIN | 2, new byte[]{1, 2, 3}));
+        assertEquals(2, received.size());
+        assertEquals("hello", received.get(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) received.get(1));
+    }
+
+    @Test
+    public void decodesExtendedLengths() throws Exception {
+        byte[] medium = new byte[300];
+        byte[] large = new byte[70000];
+        Arrays.fill(large, (byte) 7);
+        feed(frame(FIN | 2, medium), frame(FIN | 2, large));
+        assertArrayEquals(medium, (byte[]) received.get(0));
+        assertArrayEquals(large, (byte[]) received.get(1));
+    }
+
+    @Test
+    public void joinsFragmentedMessages() throws Exception {
+        byte[] text = bytes("héllo wörld");
+        feed(frame(1, Arrays.copyOfRange(text, 0, 2)),
+                frame(0, Arrays.copyOfRange(text, 2, 8)),
+                frame(FIN, Arrays.copyOfRange(text, 8, text.length)),
+                frame(2, new byte[]{1, 2}),
+                frame(FIN, new byte[]{3}));
+        assertEquals(2, received.size());
+        assertEquals("héllo wörld", received.get(0));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) received.get(1));
+    }
+
+    @Test
+    public void decodesFramesDeliveredOneByteAtATime() throws Exception {
+        byte[] stream = concat(frame(1, bytes("ab")), frame(FIN | 9, bytes("p")), frame(FIN, bytes("cd")));
+        for (byte b : stream) {
+            parser.feed(ByteBuffer.wrap(new byte[]{b}));
+        }
+        assertEquals(Arrays.<Object>asList("abcd"), received);
+    }
+
+    @Test
+    public void handlesControlFramesBetweenFragments() throws Exception {
+        byte[] pong = ByteBuffer.allocate(8).putLong(System.nanoTime()).array();
+        feed(frame(1, bytes("one ")),
+                frame(FIN | 9, bytes("ping")),
+                frame(0, bytes("two ")),
+                frame(FIN | 10, pong),
+                frame(FIN, bytes("three")));
+        assertEquals(Arrays.<Object>asList("one two three"), received);
+    }
+
+    @Test
+    public void inflatesCompressedFrames() throws Exception {
+        DeflateOptions options = new DeflateOptions();
+        PerMessageDeflate sender = PerMessageDeflate.accept(options, "permessage-deflate");
+        parser.setDeflate(PerMessageDeflate.accept(options, "permessage-deflate"));
+
+        byte[] text = bytes(repeat("compressible text ", 50));
+        byte[] first = compress(sender, text);
+        byte[] second = compress(sender, text);
+        feed(frame(FIN | RSV1 | 1, first), frame(FIN | RSV1 | 1, second), frame(FIN | 1, bytes("plain")));
+        assertEquals(Arrays.<Object>asList(new String(text, "UTF-8"), new String(text, "UTF-8"), "plain"), received);
+    }
+
+    @Test
+    public void inflatesFragmentedCompressedMessages() throws Exception {
+        DeflateOptions options = new DeflateOptions();
+        PerMessageDeflate sender = PerMessageDeflate.accept(options, "permessage-deflate");
+        parser.setDeflate(PerMessageDeflate.accept(options, "permessage-deflate"));
+
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+        byte[] compressed = compress(sender, data);
+        int half = compressed.length / 2;
+        // RSV1 goes on the first fragment only.
+        feed(frame(RSV1 | 2, Arrays.copyOfRange(compressed, 0, half)),
+                frame(FIN | 9, bytes("ping")),
+                frame(FIN, Arrays.copyOfRange(compressed, half, compressed.length)));
+        assertEquals(1, received.size());
+        assertArrayEquals(data, (byte[]) received.get(0));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsRsv1WithoutDeflate() throws Exception {
+        feed(frame(FIN | RSV1 | 1, bytes("x")));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsRsv1OnControlFrames() throws Exception {
+        parser.setDeflate(PerMessageDeflate.accept(new DeflateOptions(), "permessage-deflate"));
+        feed(frame(FIN | RSV1 | 9, bytes("x")));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsFragmentedControlFrames() throws Exception {
+        feed(frame(9, bytes("x")));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsContinuationWithoutMessage() throws Exception {
+        feed(frame(FIN, bytes("x")));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsNewMessageInsideFragmentedMessage() throws Exception {
+        feed(frame(1, bytes("one")), frame(FIN | 2, bytes("two")));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsNewMessageInsideFragmentedCompressedMessage() throws Exception {
+        parser.setDeflate(PerMessageDeflate.accept(new DeflateOptions(), "permessage-deflate"));
+        feed(frame(RSV1 | 1, bytes("x")), frame(FIN | RSV1 | 1, bytes("y")));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsOversizedCloseFrames() throws Exception {
+        feed(frame(FIN | 8, new byte[126]));
+    }
+
+    @Test(expected = HybiParser.ProtocolError.class)
+    public void rejectsOversizedPings() throws Exception {
+        feed(frame(FIN | 9, new byte[126]));
+    }
+
+    @Test
+    public void shrinksReadBufferAfterLargeFrame() throws Exception {
+        int initial = parser.readBuffer().capacity();
+        byte[] large = new byte[100000];
+        feed(frame(FIN | 2, large));
+        assertArrayEquals(large, (byte[]) received.get(0));
+        assertEquals(initial, parser.readBuffer().capacity());
+
+        // A large frame still in progress keeps the buffer it needs.
+        byte[] partial = frame(FIN | 2, large);
+        parser.feed(ByteBuffer.wrap(partial, 0, 50000));
+        assertTrue(parser.readBuffer().capacity() >= partial.length);
+        parser.feed(ByteBuffer.wrap(partial, 50000, partial.length - 50000));
+        assertEquals(2, received.size());
+        assertEquals(initial, parser.readBuffer().capacity());
+    }
+
+    @Test
+    public void rejectsInvalidUtf8WithCloseCode1007() throws Exception {
+        try {
+            feed(frame(1, new byte[]{'a', (byte) 0xE2}), frame(FIN, new byte[]{0x28}));
+            fail("invalid UTF-8 accepted");
+        } catch (HybiParser.ProtocolError expected) {
+            assertEquals(1007, expected.getCode());
+        }
+    }
+
+    @Test
+    public void framesMessagesAsByteArrays() throws Exception {
+        assertArrayEquals(bytes("héllo"), unmask(parser.frame("héllo"), FIN | 1));
+        byte[] data = new byte[300];
+        Arrays.fill(data, (byte) 5);
+        assertArrayEquals(data, unmask(parser.frame(data), FIN | 2));
+    }
+
+    /**
+     * The payload of a masked client frame.
+     */
+    private static byte[] unmask(byte[] frame, int first) {
+        assertEquals(first, frame[0] & 0xFF);
+        assertTrue((frame[1] & 0x80) != 0);
+        int length = frame[1] & 0x7F;
+        int offset = 2;
+        if (length == 126) {
+            length = ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+            offset = 4;
+        }
+        assertEquals(offset + 4 + length, frame.length);
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (frame[offset + 4 + i] ^ frame[offset + (i & 3)]);
+        }
+        return payload;
+    }
+
+    private void feed(byte[]... frames) throws Exception {
+        parser.feed(ByteBuffer.wrap(concat(frames)));
+    }
+
+    private static byte[] compress(PerMessageDeflate deflate, byte[] data) {
+        ByteBuffer compressed = deflate.compress(data, 0, data.length, BufferPool.getDefault(), true);
+        byte[] result = new byte[compressed.remaining()];
+        compressed.get(result);
+        return result;
+    }
+
+    /**
+     * An unmasked frame as a server sends it.
+     */
+    static byte[] frame(int first, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first);
+        if (payload.length <= 125) {
+            out.write(payload.length);
+        } else if (payload.length <= 65535) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length & 0xFF);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift) & 0xFF);
+            }
+        }
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] bytes(String text) throws Exception {
+        return text.getBytes("UTF-8");
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(text);
+        }
+        return out.toString();
+    }
+}
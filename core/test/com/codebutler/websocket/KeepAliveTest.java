@@ -0,0 +1,118 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeepAliveTest {
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private SelectorEngine engine;
+    private final RecordingCallback callback = new RecordingCallback();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer(8 * 1024);
+        server.echo = false;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.disconnect();
+        }
+        if (engine != null) {
+            engine.shutdown();
+        }
+        server.close();
+    }
+
+    @Test
+    public void recordsPongLatency() throws Exception {
+        LoopbackServer.Connection connection = connect(100, 1000);
+        assertEquals(LoopbackServer.OP_PING, connection.nextFrame().opcode);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (client.getLatencyStats().getCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(client.getLatencyStats().getCount() > 0);
+    }
+
+    @Test
+    public void pingsWhileOnlySending() throws Exception {
+        LoopbackServer.Connection connection = connect(100, 1000);
+        // Writes succeed without the peer answering, so they must not postpone the ping.
+        for (int i = 0; i < 30; i++) {
+            client.send("message " + i);
+            Thread.sleep(20);
+        }
+        boolean pinged = false;
+        while (true) {
+            LoopbackServer.Frame frame = connection.nextFrame();
+            if (frame.opcode == LoopbackServer.OP_PING) {
+                pinged = true;
+            } else if (frame.text().equals("message 29")) {
+                break;
+            }
+        }
+        assertTrue("no ping while sending", pinged);
+    }
+
+    @Test
+    public void closesWhenPongIsLate() throws Exception {
+        server.pong = false;
+        connect(100, 200);
+        assertEquals(WebSocketClient.CODE_PING_TIMEOUT, callback.nextDisconnect());
+    }
+
+    @Test
+    public void closesWhileWriteIsBlocked() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        server.readGate = gate;
+        try {
+            connect(100, 200);
+            client.setSendQueueLimits(256 * 1024, 1024 * 1024, 64 * 1024 * 1024);
+            // The send thread sits in write() until the peer reads; the timeout must not wait for it.
+            SendFuture stuck = client.sendAsync(new byte[16 * 1024 * 1024]);
+            assertEquals(WebSocketClient.CODE_PING_TIMEOUT, callback.nextDisconnect());
+            // The send thread fails it once the close breaks its write.
+            try {
+                stuck.get(5, TimeUnit.SECONDS);
+                fail("sent to a peer that never read it");
+            } catch (ExecutionException expected) {
+                // Expected.
+            }
+        } finally {
+            gate.countDown();
+        }
+    }
+
+    @Test
+    public void closesWhenPongIsLateOnSelectorEngine() throws Exception {
+        server.pong = false;
+        engine = new SelectorEngine(1);
+        client = new WebSocketClient(server.uri(), callback);
+        client.setEngine(engine);
+        client.setKeepAlive(100, 200);
+        client.connect();
+        callback.awaitConnect();
+        assertEquals(WebSocketClient.CODE_PING_TIMEOUT, callback.nextDisconnect());
+    }
+
+    private LoopbackServer.Connection connect(long intervalMillis, long timeoutMillis) throws Exception {
+        client = new WebSocketClient(server.uri(), callback);
+        client.setKeepAlive(intervalMillis, timeoutMillis);
+        client.connect();
+        callback.awaitConnect();
+        return server.accept();
+    }
+}
@@ -0,0 +1,358 @@
+package com.codebutler.websocket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * In-process WebSocket server on the loopback interface. Each accepted connection completes
+ * the handshake, then records every frame it reads and answers as the server's settings say:
+ * data frames are echoed unless echo is off, pings get a pong unless pongs are off, and a
+ * close is echoed before the connection ends.
+ */
+class LoopbackServer {
+
+    static final int OP_CONTINUATION = 0;
+    static final int OP_TEXT         = 1;
+    static final int OP_BINARY       = 2;
+    static final int OP_CLOSE        = 8;
+    static final int OP_PING         = 9;
+    static final int OP_PONG         = 10;
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final ServerSocket serverSocket;
+    private final boolean secure;
+    private final BlockingQueue<Connection> accepted = new LinkedBlockingQueue<Connection>();
+
+    volatile boolean echo = true;
+    volatile boolean pong = true;
+    // Sec-WebSocket-Extensions sent back in the handshake, or null.
+    volatile String extensions;
+    // When set, new connections read nothing after the handshake until it is counted down.
+    volatile CountDownLatch readGate;
+
+    LoopbackServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * A wss server using the given context's key material.
+     * @param protocols the TLS versions to enable, or none for the context's defaults
+     */
+    LoopbackServer(SSLContext context, String... protocols) throws IOException {
+        this(secureSocket(context, protocols), 0);
+    }
+
+    private static ServerSocket secureSocket(SSLContext context, String[] protocols) throws IOException {
+        SSLServerSocket socket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket();
+        if (protocols.length > 0) {
+            socket.setEnabledProtocols(protocols);
+        }
+        return socket;
+    }
+
+    /**
+     * @param receiveBuffer SO_RCVBUF for accepted sockets, 0 for the default. A small buffer
+     *                      makes a client's writes block soon after the server stops reading.
+     */
+    LoopbackServer(int receiveBuffer) throws IOException {
+        this(new ServerSocket(), receiveBuffer);
+    }
+
+    private LoopbackServer(ServerSocket serverSocket, int receiveBuffer) throws IOException {
+        this.serverSocket = serverSocket;
+        secure = serverSocket instanceof SSLServerSocket;
+        if (receiveBuffer > 0) {
+            serverSocket.setReceiveBufferSize(receiveBuffer);
+        }
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 50);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, "loopback-accept");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    String uri() {
+        return (secure ? "wss" : "ws") + "://127.0.0.1:" + port() + "/";
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Waits for the next connection to complete its handshake.
+     */
+    Connection accept() throws InterruptedException {
+        Connection connection = accepted.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("no connection", connection);
+        return connection;
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            final Connection connection = new Connection(socket, readGate);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    connection.run();
+                }
+            }, "loopback-connection");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    static final class Frame {
+        final int     opcode;
+        final boolean fin;
+        final boolean rsv1;
+        final byte[]  payload;
+
+        Frame(int opcode, boolean fin, boolean rsv1, byte[] payload) {
+            this.opcode  = opcode;
+            this.fin     = fin;
+            this.rsv1    = rsv1;
+            this.payload = payload;
+        }
+
+        String text() throws IOException {
+            return new String(payload, "UTF-8");
+        }
+
+        boolean isControl() {
+            return opcode >= OP_CLOSE;
+        }
+    }
+
+    final class Connection {
+        private final Socket socket;
+        private final CountDownLatch gate;
+        private final BlockingQueue<Frame> frames = new LinkedBlockingQueue<Frame>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private OutputStream out;
+        private PerMessageDeflate inflater;
+
+        Connection(Socket socket, CountDownLatch gate) {
+            this.socket = socket;
+            this.gate   = gate;
+        }
+
+        /**
+         * The next frame read from the client, control frames included.
+         */
+        Frame nextFrame() throws InterruptedException {
+            Frame frame = frames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull("no frame", frame);
+            return frame;
+        }
+
+        /**
+         * The next frame read within the timeout, or null.
+         */
+        Frame pollFrame(long millis) throws InterruptedException {
+            return frames.poll(millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * The next data message, joined from its fragments and inflated if compressed.
+         * Control frames in between are skipped.
+         */
+        byte[] nextMessage() throws Exception {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            boolean compressed = false;
+            boolean first = true;
+            while (true) {
+                Frame frame = nextFrame();
+                if (frame.isControl()) continue;
+                if (first) {
+                    compressed = frame.rsv1;
+                    first = false;
+                }
+                message.write(frame.payload, 0, frame.payload.length);
+                if (frame.fin) break;
+            }
+            byte[] data = message.toByteArray();
+            if (!compressed) return data;
+            int length = inflater.decompress(data, 0, data.length);
+            byte[] inflated = new byte[length];
+            System.arraycopy(inflater.getInflated(), 0, inflated, 0, length);
+            return inflated;
+        }
+
+        String nextText() throws Exception {
+            return new String(nextMessage(), "UTF-8");
+        }
+
+        /**
+         * Sends an unmasked frame.
+         * @param first the first header byte: FIN, RSV and opcode
+         */
+        synchronized void send(int first, byte[] payload) throws IOException {
+            out.write(LoopbackServer.frame(first, payload));
+            out.flush();
+        }
+
+        void sendText(String text) throws IOException {
+            send(0x80 | OP_TEXT, text.getBytes("UTF-8"));
+        }
+
+        /**
+         * Drops the connection without a close frame.
+         */
+        void close() throws IOException {
+            socket.close();
+        }
+
+        /**
+         * Waits until the client's side of the connection is gone.
+         */
+        boolean awaitClosed(long millis) throws InterruptedException {
+            return closed.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        private void run() {
+            try {
+                handshake();
+                accepted.add(this);
+                if (gate != null) {
+                    gate.await();
+                }
+                read();
+            } catch (Exception ignored) {
+                // Client went away.
+            } finally {
+                closed.countDown();
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void handshake() throws Exception {
+            InputStream in = socket.getInputStream();
+            out = socket.getOutputStream();
+            String key = null;
+            String line;
+            while ((line = readLine(in)).length() > 0) {
+                if (line.regionMatches(true, 0, "Sec-WebSocket-Key:", 0, 18)) {
+                    key = line.substring(18).trim();
+                }
+            }
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            String accept = Base64.encode(sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes("US-ASCII")));
+            StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: " + accept + "\r\n");
+            String reply = extensions;
+            if (reply != null) {
+                response.append("Sec-WebSocket-Extensions: ").append(reply).append("\r\n");
+                inflater = PerMessageDeflate.accept(new DeflateOptions(), reply);
+            }
+            response.append("\r\n");
+            out.write(response.toString().getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        private void read() throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte[] mask = new byte[4];
+            while (true) {
+                int b0 = in.read();
+                if (b0 == -1) return;
+                int b1 = in.readUnsignedByte();
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = in.readUnsignedShort();
+                } else if (length == 127) {
+                    length = in.readLong();
+                }
+                if ((b1 & 0x80) != 0) {
+                    in.readFully(mask);
+                }
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i & 3];
+                }
+                Frame frame = new Frame(b0 & 0x0F, (b0 & 0x80) != 0, (b0 & 0x40) != 0, payload);
+                frames.add(frame);
+
+                if (frame.opcode == OP_CLOSE) {
+                    send(b0, payload);
+                    return;
+                } else if (frame.opcode == OP_PING) {
+                    if (pong) {
+                        send(0x80 | OP_PONG, payload);
+                    }
+                } else if (!frame.isControl() && echo) {
+                    send(b0, payload);
+                }
+            }
+        }
+    }
+
+    /**
+     * An unmasked frame as a server sends it.
+     */
+    static byte[] frame(int first, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first);
+        if (payload.length <= 125) {
+            out.write(payload.length);
+        } else if (payload.length <= 65535) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length & 0xFF);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift) & 0xFF);
+            }
+        }
+        out.write(payload, 0, payload.length);
+        return out.toByteArray();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c == -1) throw new EOFException();
+            if (c != '\r') line.append((char) c);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package com.codebutler.websocket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MaskerTest {
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void matchesBytewiseMaskInArrays() {
+        for (int offset = 0; offset < 9; offset++) {
+            for (int length = 0; length < 40; length++) {
+                byte[] data = randomBytes(offset + length + 5);
+                int key = random.nextInt();
+                byte[] expected = reference(data, offset, length, key);
+                Masker.mask(data, offset, length, key);
+                assertArrayEquals("offset " + offset + " length " + length, expected, data);
+            }
+        }
+    }
+
+    @Test
+    public void matchesBytewiseMaskInBuffers() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (boolean direct : new boolean[]{false, true}) {
+                for (int length = 0; length < 40; length++) {
+                    byte[] data = randomBytes(length + 11);
+                    int key = random.nextInt();
+                    byte[] expected = reference(data, 3, length, key);
+
+                    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+                    buffer.order(order);
+                    buffer.put(data);
+                    buffer.position(1);
+                    Masker.mask(buffer, 3, length, key);
+                    assertEquals(1, buffer.position());
+
+                    byte[] actual = new byte[data.length];
+                    buffer.clear();
+                    buffer.get(actual);
+                    assertArrayEquals(order + (direct ? " direct" : " heap") + " length " + length, expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void maskingTwiceRestoresData() {
+        byte[] data = randomBytes(1000);
+        byte[] original = data.clone();
+        int key = random.nextInt();
+        Masker.mask(data, 7, 990, key);
+        Masker.mask(data, 7, 990, key);
+        assertArrayEquals(original, data);
+    }
+
+    @Test
+    public void readsKeyInNetworkOrder() {
+        assertEquals(0x01020304, Masker.key(new byte[]{0, 1, 2, 3, 4}, 1));
+        assertEquals(0xFFFEFDFC, Masker.key(new byte[]{(byte) 0xFF, (byte) 0xFE, (byte) 0xFD, (byte) 0xFC}, 0));
+    }
+
+    private static byte[] reference(byte[] data, int offset, int length, int key) {
+        byte[] mask = {(byte) (key >>> 24), (byte) (key >>> 16), (byte) (key >>> 8), (byte) key};
+        byte[] result = Arrays.copyOf(data, data.length);
+        for (int i = 0; i < length; i++) {
+            result[offset + i] ^= mask[i % 4];
+        }
+        return result;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,189 @@
+package com.codebutler.websocket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PerMessageDeflateTest {
+
+    private static final byte[] MESSAGE = message(4000);
+
+    @Test
+    public void roundTripsWithContextTakeover() throws Exception {
+        PerMessageDeflate sender = accept(new DeflateOptions(), "permessage-deflate");
+        PerMessageDeflate receiver = accept(new DeflateOptions(), "permessage-deflate");
+
+        byte[] first = compress(sender, MESSAGE, true);
+        byte[] second = compress(sender, MESSAGE, true);
+        // The second copy refers back into the window kept from the first.
+        assertTrue(second.length < first.length);
+        assertArrayEquals(MESSAGE, decompress(receiver, first));
+        assertArrayEquals(MESSAGE, decompress(receiver, second));
+    }
+
+    @Test
+    public void roundTripsWithoutContextTakeover() throws Exception {
+        String response = "permessage-deflate; client_no_context_takeover; server_no_context_takeover";
+        PerMessageDeflate sender = accept(new DeflateOptions(), response);
+        PerMessageDeflate receiver = accept(new DeflateOptions(), response);
+
+        byte[] first = compress(sender, MESSAGE, true);
+        byte[] second = compress(sender, MESSAGE, true);
+        assertArrayEquals(first, second);
+        assertArrayEquals(MESSAGE, decompress(receiver, first));
+        assertArrayEquals(MESSAGE, decompress(receiver, second));
+    }
+
+    @Test
+    public void roundTripsMessageCompressedInPieces() throws Exception {
+        PerMessageDeflate sender = accept(new DeflateOptions(), "permessage-deflate");
+        PerMessageDeflate receiver = accept(new DeflateOptions(), "permessage-deflate");
+
+        byte[] head = compress(sender, Arrays.copyOfRange(MESSAGE, 0, 1000), false);
+        byte[] tail = compress(sender, Arrays.copyOfRange(MESSAGE, 1000, MESSAGE.length), true);
+        assertArrayEquals(MESSAGE, decompress(receiver, HybiParserTest.concat(head, tail)));
+    }
+
+    @Test
+    public void endsMessageWithEmptyPiece() throws Exception {
+        PerMessageDeflate sender = accept(new DeflateOptions(), "permessage-deflate");
+        PerMessageDeflate receiver = accept(new DeflateOptions(), "permessage-deflate");
+
+        byte[] head = compress(sender, MESSAGE, false);
+        byte[] tail = compress(sender, new byte[0], true);
+        assertArrayEquals(new byte[]{0}, tail);
+        assertArrayEquals(MESSAGE, decompress(receiver, HybiParserTest.concat(head, tail)));
+        assertArrayEquals(MESSAGE, decompress(receiver, compress(sender, MESSAGE, true)));
+    }
+
+    @Test
+    public void streamsInflatedChunks() throws Exception {
+        PerMessageDeflate sender = accept(new DeflateOptions(), "permessage-deflate");
+        PerMessageDeflate receiver = accept(new DeflateOptions(), "permessage-deflate");
+
+        byte[] compressed = compress(sender, MESSAGE, true);
+        receiver.setInflateInput(compressed, 0, compressed.length, true);
+        ByteBuffer out = ByteBuffer.allocate(MESSAGE.length);
+        int count;
+        while ((count = receiver.inflateSome()) > 0) {
+            out.put(receiver.getInflated(), 0, count);
+        }
+        receiver.endMessage();
+        assertArrayEquals(MESSAGE, out.array());
+    }
+
+    @Test
+    public void resetsAfterFinalBlock() throws Exception {
+        PerMessageDeflate receiver = accept(new DeflateOptions(), "permessage-deflate");
+
+        // A sender may end a message with BFINAL instead of the sync flush marker.
+        Deflater finishing = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        finishing.setInput(MESSAGE);
+        finishing.finish();
+        byte[] buffer = new byte[MESSAGE.length + 64];
+        byte[] finished = Arrays.copyOf(buffer, finishing.deflate(buffer));
+        assertArrayEquals(MESSAGE, decompress(receiver, finished));
+
+        PerMessageDeflate sender = accept(new DeflateOptions(), "permessage-deflate");
+        assertArrayEquals(MESSAGE, decompress(receiver, compress(sender, MESSAGE, true)));
+    }
+
+    @Test
+    public void failsWithCode1009AboveMaxMessageSize() throws Exception {
+        DeflateOptions options = new DeflateOptions();
+        options.setMaxMessageSize(MESSAGE.length);
+        PerMessageDeflate sender = accept(new DeflateOptions(), "permessage-deflate");
+        PerMessageDeflate receiver = accept(options, "permessage-deflate");
+
+        assertArrayEquals(MESSAGE, decompress(receiver, compress(sender, MESSAGE, true)));
+        try {
+            decompress(receiver, compress(sender, message(MESSAGE.length + 1), true));
+            fail("oversized message inflated");
+        } catch (HybiParser.ProtocolError expected) {
+            assertEquals(PerMessageDeflate.CLOSE_TOO_BIG, expected.getCode());
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedParameters() {
+        String[] responses = {
+                "permessage-deflate; client_max_window_bits=10",
+                // Not offered, so not allowed even at the default size.
+                "permessage-deflate; client_max_window_bits=15",
+                "permessage-deflate; client_max_window_bits",
+                "permessage-deflate; server_max_window_bits=16",
+                "permessage-deflate; unknown",
+                "x-webkit-deflate-frame",
+                "permessage-deflate, permessage-deflate",
+        };
+        for (String response : responses) {
+            try {
+                accept(new DeflateOptions(), response);
+                fail("accepted " + response);
+            } catch (HybiParser.ProtocolError expected) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void releasesContextWhenConnectionEnds() throws Exception {
+        LoopbackServer server = new LoopbackServer();
+        server.extensions = "permessage-deflate";
+        RecordingCallback callback = new RecordingCallback();
+        WebSocketClient client = new WebSocketClient(server.uri(), callback);
+        client.setDeflateOptions(new DeflateOptions());
+        try {
+            client.connect();
+            callback.awaitConnect();
+            server.accept();
+            PerMessageDeflate deflate = client.getParser().getDeflate();
+            assertNotNull(deflate);
+
+            client.disconnect();
+            callback.nextDisconnect();
+            assertNull(client.getParser().getDeflate());
+            try {
+                compress(deflate, MESSAGE, true);
+                fail("deflater still open");
+            } catch (NullPointerException expected) {
+                // Deflater.end() was called.
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private static PerMessageDeflate accept(DeflateOptions options, String response) throws HybiParser.ProtocolError {
+        return PerMessageDeflate.accept(options, response);
+    }
+
+    private static byte[] compress(PerMessageDeflate deflate, byte[] data, boolean last) {
+        ByteBuffer compressed = deflate.compress(data, 0, data.length, BufferPool.getDefault(), last);
+        byte[] result = new byte[compressed.remaining()];
+        compressed.get(result);
+        return result;
+    }
+
+    private static byte[] decompress(PerMessageDeflate deflate, byte[] data) throws HybiParser.ProtocolError {
+        int length = deflate.decompress(data, 0, data.length);
+        return Arrays.copyOf(deflate.getInflated(), length);
+    }
+
+    private static byte[] message(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) "the quick brown fox ".charAt(i % 20);
+        }
+        return data;
+    }
+}
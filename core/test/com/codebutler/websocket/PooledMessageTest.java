@@ -0,0 +1,134 @@
+package com.codebutler.websocket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledMessageTest {
+
+    @Test
+    public void staysReadableUntilTheLastRelease() {
+        PooledMessage message = PooledMessage.copyOf(new byte[]{1, 2, 3}, 0, 3);
+        message.retain();
+        message.release();
+        assertArrayEquals(new byte[]{1, 2, 3}, bytes(message));
+        message.release();
+        assertReleased(message);
+        try {
+            message.release();
+            fail("released twice");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void lentMessageSharesTheLendersBytes() {
+        byte[] array = {0, 1, 2, 3, 4};
+        PooledMessage message = new PooledMessage();
+        message.lend(array, 1, 3);
+        ByteBuffer view = message.buffer();
+        assertSame(view, message.buffer());
+        array[2] = 9;
+        assertArrayEquals(new byte[]{1, 9, 3}, bytes(message));
+
+        message.release();
+        assertTrue(message.isReusable());
+        assertReleased(message);
+    }
+
+    @Test
+    public void retainingALentMessageCopiesIt() {
+        byte[] array = {0, 1, 2, 3, 4};
+        PooledMessage message = new PooledMessage();
+        message.lend(array, 1, 3);
+        message.retain();
+        // The lender returns and reuses its array.
+        message.release();
+        array[2] = 9;
+        assertArrayEquals(new byte[]{1, 2, 3}, bytes(message));
+        assertFalse(message.isReusable());
+        message.release();
+        assertReleased(message);
+    }
+
+    @Test
+    public void retainedMessagesOutliveTheReadBuffer() throws Exception {
+        assertRetainedMessagesArrive(null);
+    }
+
+    @Test
+    public void retainedMessagesOutliveTheReadBufferWithAsyncCallbacks() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertRetainedMessagesArrive(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertRetainedMessagesArrive(ExecutorService executor) throws Exception {
+        LoopbackServer server = new LoopbackServer();
+        RetainingCallback callback = new RetainingCallback();
+        WebSocketClient client = new WebSocketClient(server.uri(), callback);
+        if (executor != null) {
+            client.setCallbackDispatch(executor, 16);
+        }
+        try {
+            client.connect();
+            callback.awaitConnect();
+            byte[][] sent = new byte[50][];
+            for (int i = 0; i < sent.length; i++) {
+                sent[i] = SendStreamTest.randomBytes(100 + i * 37);
+                client.send(sent[i]);
+            }
+            for (byte[] expected : sent) {
+                PooledMessage message = RecordingCallback.await(callback.pooled, "onMessage");
+                assertArrayEquals(expected, bytes(message));
+                message.release();
+            }
+            assertTrue(callback.messages.isEmpty());
+        } finally {
+            client.disconnect();
+            server.close();
+        }
+    }
+
+    private static byte[] bytes(PooledMessage message) {
+        ByteBuffer buffer = message.buffer().duplicate();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static void assertReleased(PooledMessage message) {
+        try {
+            message.buffer();
+            fail("buffer of a released message");
+        } catch (IllegalStateException expected) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Keeps every binary message past its callback.
+     */
+    private static final class RetainingCallback extends RecordingCallback implements ByteBufferCallback {
+        final BlockingQueue<PooledMessage> pooled = new LinkedBlockingQueue<PooledMessage>();
+
+        @Override
+        public void onMessage(PooledMessage message) {
+            pooled.add(message.retain());
+        }
+    }
+}
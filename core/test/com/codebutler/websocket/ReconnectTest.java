@@ -0,0 +1,98 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectTest {
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private final RecordingCallback callback = new RecordingCallback();
+    private final ReconnectPolicy policy = new ReconnectPolicy();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        server.echo = false;
+        policy.setInitialDelayMillis(50);
+        policy.setMaxDelayMillis(50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.disconnect();
+        }
+        server.close();
+    }
+
+    @Test
+    public void reconnectsAfterConnectionDrops() throws Exception {
+        LoopbackServer.Connection first = connect();
+        first.close();
+        callback.nextDisconnect();
+        assertEquals(1, (int) RecordingCallback.await(callback.reconnects, "onReconnecting"));
+        callback.awaitConnect();
+
+        LoopbackServer.Connection second = server.accept();
+        client.send("again");
+        assertEquals("again", second.nextText());
+    }
+
+    @Test
+    public void replaysMessagesSentWhileDisconnected() throws Exception {
+        policy.setReplayUnsent(true);
+        policy.setInitialDelayMillis(300);
+        policy.setMaxDelayMillis(300);
+        LoopbackServer.Connection first = connect();
+        first.close();
+        callback.nextDisconnect();
+
+        assertTrue(client.trySend("one"));
+        assertTrue(client.trySend("two"));
+        callback.awaitConnect();
+        LoopbackServer.Connection second = server.accept();
+        assertEquals("one", second.nextText());
+        assertEquals("two", second.nextText());
+        client.send("three");
+        assertEquals("three", second.nextText());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        policy.setMaxAttempts(2);
+        LoopbackServer.Connection first = connect();
+        server.close();
+        first.close();
+        callback.nextDisconnect();
+
+        assertEquals(1, (int) RecordingCallback.await(callback.reconnects, "onReconnecting"));
+        assertEquals(2, (int) RecordingCallback.await(callback.reconnects, "onReconnecting"));
+        assertEquals(-2, (int) RecordingCallback.await(callback.reconnects, "onReconnectFailed"));
+        assertNull(callback.reconnects.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void doesNotReconnectAfterDisconnect() throws Exception {
+        connect();
+        client.disconnect();
+        assertEquals(WebSocketClient.CODE_MANUAL, callback.nextDisconnect());
+        assertNull(callback.reconnects.poll(300, TimeUnit.MILLISECONDS));
+        assertTrue(callback.connects.isEmpty());
+    }
+
+    private LoopbackServer.Connection connect() throws Exception {
+        client = new WebSocketClient(server.uri(), callback);
+        client.setReconnectPolicy(policy);
+        client.connect();
+        callback.awaitConnect();
+        return server.accept();
+    }
+}
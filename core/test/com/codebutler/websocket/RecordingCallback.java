@@ -0,0 +1,74 @@
+package com.codebutler.websocket;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Collects WSCallback events so a test can wait for them in order.
+ */
+class RecordingCallback implements WSCallback, ReconnectCallback {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    final BlockingQueue<Object>    messages    = new LinkedBlockingQueue<Object>();
+    final BlockingQueue<Integer>   connects    = new LinkedBlockingQueue<Integer>();
+    final BlockingQueue<Integer>   disconnects = new LinkedBlockingQueue<Integer>();
+    final BlockingQueue<Exception> errors      = new LinkedBlockingQueue<Exception>();
+    final BlockingQueue<Integer>   reconnects  = new LinkedBlockingQueue<Integer>();
+
+    @Override
+    public void onConnect() {
+        connects.add(1);
+    }
+
+    @Override
+    public void onMessage(String message) {
+        messages.add(message);
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+        messages.add(data);
+    }
+
+    @Override
+    public void onDisconnect(int code, String reason) {
+        disconnects.add(code);
+    }
+
+    @Override
+    public void onError(Exception error) {
+        errors.add(error);
+    }
+
+    @Override
+    public void onReconnecting(int attempt, long delayMillis) {
+        reconnects.add(attempt);
+    }
+
+    @Override
+    public void onReconnectFailed(int attempts) {
+        reconnects.add(-attempts);
+    }
+
+    void awaitConnect() throws InterruptedException {
+        await(connects, "onConnect");
+    }
+
+    Object nextMessage() throws InterruptedException {
+        return await(messages, "onMessage");
+    }
+
+    int nextDisconnect() throws InterruptedException {
+        return await(disconnects, "onDisconnect");
+    }
+
+    static <T> T await(BlockingQueue<T> queue, String event) throws InterruptedException {
+        T value = queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("no " + event, value);
+        return value;
+    }
+}
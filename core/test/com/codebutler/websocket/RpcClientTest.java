@@ -0,0 +1,171 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RpcClientTest {
+
+    /**
+     * Messages are "id:body"; anything without a colon is a push.
+     */
+    private static final IdExtractor EXTRACTOR = new IdExtractor() {
+        @Override
+        public String getId(String message) {
+            int colon = message.indexOf(':');
+            return colon < 0 ? null : message.substring(0, colon);
+        }
+    };
+
+    private LoopbackServer server;
+    private RpcClient rpc;
+    private LoopbackServer.Connection connection;
+    private final RecordingCallback callback = new RecordingCallback();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        server.echo = false;
+        rpc = new RpcClient(server.uri().toString(), EXTRACTOR, callback);
+        rpc.getClient().connect();
+        callback.awaitConnect();
+        connection = server.accept();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        rpc.getClient().disconnect();
+        server.close();
+    }
+
+    @Test
+    public void completesCallsFromResponsesInAnyOrder() throws Exception {
+        RpcFuture[] futures = new RpcFuture[100];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = rpc.call("r" + i, "r" + i + ":request");
+        }
+        for (int i = 0; i < futures.length; i++) {
+            assertEquals("r" + i + ":request", connection.nextText());
+        }
+        assertEquals(futures.length, rpc.getPendingCount());
+        for (int i = futures.length - 1; i >= 0; i--) {
+            connection.sendText("r" + i + ":response");
+        }
+        for (int i = 0; i < futures.length; i++) {
+            assertEquals("r" + i + ":response", futures[i].get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, rpc.getPendingCount());
+        assertTrue(callback.messages.isEmpty());
+    }
+
+    @Test
+    public void passesPushesAndUnknownResponsesToTheCallback() throws Exception {
+        connection.sendText("push");
+        connection.sendText("nobody:response");
+        assertEquals("push", callback.nextMessage());
+        assertEquals("nobody:response", callback.nextMessage());
+    }
+
+    @Test
+    public void notifiesListeners() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        rpc.call("a", "a:request").addListener(listener);
+        connection.nextText();
+        connection.sendText("a:response");
+        assertEquals("a:response", RecordingCallback.await(listener.results, "onResponse"));
+    }
+
+    @Test
+    public void timesOutUnansweredCalls() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        RpcFuture future = rpc.call("slow", "slow:request", 50);
+        future.addListener(listener);
+        assertTrue(RecordingCallback.await(listener.results, "onFailure") instanceof TimeoutException);
+        try {
+            future.get();
+            fail("timed out call returned");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof TimeoutException);
+        }
+        assertEquals(0, rpc.getPendingCount());
+
+        // The id is free again, and the late response goes to the callback.
+        connection.sendText("slow:response");
+        assertEquals("slow:response", callback.nextMessage());
+        rpc.call("slow", "slow:again");
+    }
+
+    @Test
+    public void cancelledCallsLeaveTheirResponseToTheCallback() throws Exception {
+        RpcFuture future = rpc.call("c", "c:request");
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertEquals(0, rpc.getPendingCount());
+        try {
+            future.get();
+            fail("cancelled call returned");
+        } catch (CancellationException expected) {
+            // Expected.
+        }
+        connection.sendText("c:response");
+        assertEquals("c:response", callback.nextMessage());
+    }
+
+    @Test
+    public void rejectsDuplicateIds() throws Exception {
+        rpc.call("dup", "dup:first");
+        try {
+            rpc.call("dup", "dup:second");
+            fail("duplicate id accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected.
+        }
+        assertEquals(1, rpc.getPendingCount());
+        assertEquals("dup:first", connection.nextText());
+    }
+
+    @Test
+    public void failsPendingCallsWhenTheConnectionIsLost() throws Exception {
+        RpcFuture first = rpc.call("1", "1:request");
+        RpcFuture second = rpc.call("2", "2:request");
+        connection.nextText();
+        connection.nextText();
+        connection.close();
+        callback.nextDisconnect();
+        for (RpcFuture future : new RpcFuture[]{first, second}) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("call returned after the connection was lost");
+            } catch (ExecutionException expected) {
+                assertTrue(expected.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(0, rpc.getPendingCount());
+    }
+
+    private static final class RecordingListener implements RpcListener {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void onResponse(String response) {
+            results.add(response);
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            results.add(error);
+        }
+    }
+}
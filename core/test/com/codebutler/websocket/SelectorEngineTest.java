@@ -0,0 +1,94 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SelectorEngineTest {
+
+    private LoopbackServer server;
+    private SelectorEngine engine;
+    private final List<WebSocketClient> clients = new ArrayList<WebSocketClient>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        engine = new SelectorEngine(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (WebSocketClient client : clients) {
+            client.disconnect();
+        }
+        engine.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void runsManyConnectionsOnOneLoop() throws Exception {
+        List<RecordingCallback> callbacks = new ArrayList<RecordingCallback>();
+        for (int i = 0; i < 20; i++) {
+            RecordingCallback callback = new RecordingCallback();
+            connect(callback);
+            callbacks.add(callback);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < clients.size(); i++) {
+                clients.get(i).send("client " + i + " message " + round);
+            }
+        }
+        for (int i = 0; i < clients.size(); i++) {
+            for (int round = 0; round < 10; round++) {
+                assertEquals("client " + i + " message " + round, callbacks.get(i).nextMessage());
+            }
+        }
+    }
+
+    @Test
+    public void carriesLargeMessagesAcrossPartialReadsAndWrites() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        WebSocketClient client = connect(callback);
+        byte[] data = SendStreamTest.randomBytes(4 * 1024 * 1024);
+        client.sendAsync(data).get();
+        assertArrayEquals(data, (byte[]) callback.nextMessage());
+    }
+
+    @Test
+    public void disconnectsOnTheLoop() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        WebSocketClient client = connect(callback);
+        LoopbackServer.Connection connection = server.accept();
+        assertTrue(client.isConnected());
+        client.disconnect();
+        assertEquals(WebSocketClient.CODE_MANUAL, callback.nextDisconnect());
+        assertFalse(client.isConnected());
+        assertTrue(connection.awaitClosed(5000));
+    }
+
+    @Test
+    public void reportsServerClose() throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        connect(callback);
+        LoopbackServer.Connection connection = server.accept();
+        connection.send(0x80 | LoopbackServer.OP_CLOSE, new byte[]{0x03, (byte) 0xE8});
+        assertEquals(1000, callback.nextDisconnect());
+    }
+
+    private WebSocketClient connect(RecordingCallback callback) throws Exception {
+        WebSocketClient client = new WebSocketClient(server.uri(), callback);
+        client.setEngine(engine);
+        clients.add(client);
+        client.connect();
+        callback.awaitConnect();
+        return client;
+    }
+}
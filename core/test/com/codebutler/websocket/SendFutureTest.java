@@ -0,0 +1,213 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SendFutureTest {
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private final RecordingCallback callback = new RecordingCallback();
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer(8 * 1024);
+        server.echo = false;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        if (client != null) {
+            client.disconnect();
+        }
+        server.close();
+    }
+
+    @Test
+    public void completesOnlyOnce() throws Exception {
+        SendFuture future = new SendFuture();
+        assertFalse(future.isDone());
+        assertEquals(-1, future.getLatencyNanos());
+        assertTrue(future.complete(5));
+        assertFalse(future.fail(new IOException("late")));
+        assertTrue(future.isSent());
+        assertEquals(5, future.getLatencyNanos());
+        assertNull(future.get());
+
+        RecordingListener listener = new RecordingListener();
+        future.addListener(listener);
+        assertEquals(Long.valueOf(5), listener.results.poll());
+    }
+
+    @Test
+    public void reportsFailureThroughGetAndListeners() throws Exception {
+        SendFuture future = new SendFuture();
+        RecordingListener listener = new RecordingListener();
+        future.addListener(listener);
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail("pending future returned");
+        } catch (TimeoutException expected) {
+            // Expected.
+        }
+        IOException error = new IOException("lost");
+        future.fail(error);
+        assertFalse(future.isSent());
+        assertEquals(error, listener.results.poll());
+        try {
+            future.get();
+            fail("failed future returned");
+        } catch (ExecutionException expected) {
+            assertEquals(error, expected.getCause());
+        }
+    }
+
+    @Test
+    public void completesWhenWritten() throws Exception {
+        LoopbackServer.Connection connection = connect();
+        SendFuture future = client.sendAsync("hello");
+        RecordingListener listener = new RecordingListener();
+        future.addListener(listener);
+        future.get(5, TimeUnit.SECONDS);
+        assertTrue(future.isSent());
+        assertTrue(future.getLatencyNanos() >= 0);
+        assertEquals(future.getLatencyNanos(), RecordingCallback.await(listener.results, "onSent"));
+        assertEquals("hello", connection.nextText());
+    }
+
+    @Test
+    public void failsAtOnceWhenTheQueueIsFull() throws Exception {
+        server.readGate = gate;
+        connect();
+        client.setSendQueueLimits(16 * 1024, 64 * 1024, 1024 * 1024);
+        // An empty queue takes a message of any size.
+        SendFuture large = client.sendAsync(new byte[4 * 1024 * 1024]);
+        SendFuture rejected = client.sendAsync(new byte[1024 * 1024]);
+        assertTrue(rejected.isDone());
+        assertFalse(rejected.isSent());
+        assertFalse(large.isDone());
+    }
+
+    @Test
+    public void failsPendingSendsOnDisconnect() throws Exception {
+        server.readGate = gate;
+        connect();
+        SendFuture large = client.sendAsync(new byte[16 * 1024 * 1024]);
+        SendFuture queued = client.sendAsync("queued");
+        Thread.sleep(200);
+        client.disconnect();
+        callback.nextDisconnect();
+        try {
+            large.get(5, TimeUnit.SECONDS);
+            fail("large message sent to a peer that never read it");
+        } catch (ExecutionException expected) {
+            // Expected.
+        }
+        assertTrue(queued.isDone());
+        assertFalse(queued.isSent());
+    }
+
+    @Test
+    public void sendsBatchWithoutInterleaving() throws Exception {
+        LoopbackServer.Connection connection = connect();
+        final String[] batch = new String[100];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = "batch " + i;
+        }
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 200; i++) {
+                    client.send("other");
+                }
+            }
+        });
+        other.start();
+        SendFuture future = client.sendBatch(batch);
+        other.join();
+        future.get(5, TimeUnit.SECONDS);
+
+        int next = 0;
+        for (int i = 0; i < batch.length + 200; i++) {
+            String text = connection.nextText();
+            if (text.startsWith("batch")) {
+                assertEquals(batch[next++], text);
+            } else {
+                assertTrue("another message inside the batch", next == 0 || next == batch.length);
+            }
+        }
+        assertEquals(batch.length, next);
+    }
+
+    @Test
+    public void copiesBatchBuffersBeforeReturning() throws Exception {
+        LoopbackServer.Connection connection = connect();
+        ByteBuffer first = ByteBuffer.wrap(new byte[]{1, 2, 3});
+        ByteBuffer second = ByteBuffer.allocateDirect(2);
+        second.put(new byte[]{4, 5}).flip();
+        SendFuture future = client.sendBatch(new ByteBuffer[]{first, second});
+        first.array()[0] = 9;
+        second.put(0, (byte) 9);
+        future.get(5, TimeUnit.SECONDS);
+        assertArrayEquals(new byte[]{1, 2, 3}, connection.nextMessage());
+        assertArrayEquals(new byte[]{4, 5}, connection.nextMessage());
+    }
+
+    @Test
+    public void rejectsWholeBatchWhenTheQueueCannotTakeIt() throws Exception {
+        server.readGate = gate;
+        LoopbackServer.Connection connection = connect();
+        client.setSendQueueLimits(16 * 1024, 64 * 1024, 1024 * 1024);
+        SendFuture large = client.sendAsync(new byte[4 * 1024 * 1024]);
+        SendFuture batch = client.sendBatch(new String[]{"one", SendStreamTest.repeat("x", 2 * 1024 * 1024)});
+        assertTrue(batch.isDone());
+        assertFalse(batch.isSent());
+        gate.countDown();
+        large.get(5, TimeUnit.SECONDS);
+        client.send("after");
+
+        // Nothing of the rejected batch reached the wire.
+        assertEquals(4 * 1024 * 1024, connection.nextMessage().length);
+        assertEquals("after", connection.nextText());
+    }
+
+    private LoopbackServer.Connection connect() throws Exception {
+        client = new WebSocketClient(server.uri(), callback);
+        client.connect();
+        callback.awaitConnect();
+        return server.accept();
+    }
+
+    private static final class RecordingListener implements SendListener {
+        final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+
+        @Override
+        public void onSent(long latencyNanos) {
+            results.add(latencyNanos);
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            results.add(error);
+        }
+    }
+}
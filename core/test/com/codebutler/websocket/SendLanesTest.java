@@ -0,0 +1,107 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SendLanesTest {
+
+    private static final int FRAGMENT = 16 * 1024;
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private final RecordingCallback callback = new RecordingCallback();
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer(8 * 1024);
+        server.echo = false;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        if (client != null) {
+            client.disconnect();
+        }
+        server.close();
+    }
+
+    @Test
+    public void splitsLargeMessagesIntoFragments() throws Exception {
+        LoopbackServer.Connection connection = connect();
+        byte[] data = SendStreamTest.randomBytes(FRAGMENT * 2 + 100);
+        client.send(data);
+        client.send("short");
+
+        LoopbackServer.Frame first = connection.nextFrame();
+        assertEquals(LoopbackServer.OP_BINARY, first.opcode);
+        assertFalse(first.fin);
+        assertEquals(FRAGMENT, first.payload.length);
+        LoopbackServer.Frame second = connection.nextFrame();
+        assertEquals(LoopbackServer.OP_CONTINUATION, second.opcode);
+        assertFalse(second.fin);
+        LoopbackServer.Frame last = connection.nextFrame();
+        assertEquals(LoopbackServer.OP_CONTINUATION, last.opcode);
+        assertTrue(last.fin);
+        assertEquals(100, last.payload.length);
+
+        LoopbackServer.Frame text = connection.nextFrame();
+        assertEquals(LoopbackServer.OP_TEXT, text.opcode);
+        assertTrue(text.fin);
+        assertEquals("short", text.text());
+    }
+
+    @Test
+    public void controlAndPriorityFramesOvertakeQueuedMessages() throws Exception {
+        server.readGate = gate;
+        LoopbackServer.Connection connection = connect();
+        byte[] large = SendStreamTest.randomBytes(8 * 1024 * 1024);
+        client.send(large);
+        // Let the send thread block part way through the large message.
+        Thread.sleep(300);
+        client.send("second");
+        client.send("third");
+        client.sendPriority("urgent");
+        client.getParser().ping("probe");
+        gate.countDown();
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        boolean pingInsideMessage = false;
+        LoopbackServer.Frame frame;
+        do {
+            frame = connection.nextFrame();
+            if (frame.opcode == LoopbackServer.OP_PING) {
+                assertEquals("probe", frame.text());
+                pingInsideMessage = true;
+            } else {
+                received.write(frame.payload, 0, frame.payload.length);
+            }
+        } while (frame.opcode == LoopbackServer.OP_PING || !frame.fin);
+        assertTrue("ping waited for the whole message", pingInsideMessage);
+        assertArrayEquals(large, received.toByteArray());
+
+        // The priority message goes next, but not between the large message's fragments.
+        assertEquals("urgent", connection.nextText());
+        assertEquals("second", connection.nextText());
+        assertEquals("third", connection.nextText());
+    }
+
+    private LoopbackServer.Connection connect() throws Exception {
+        client = new WebSocketClient(server.uri(), callback);
+        client.setFragmentSize(FRAGMENT);
+        client.setSendQueueLimits(256 * 1024, 1024 * 1024, 64 * 1024 * 1024);
+        client.connect();
+        callback.awaitConnect();
+        return server.accept();
+    }
+}
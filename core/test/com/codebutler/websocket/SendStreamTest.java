@@ -0,0 +1,231 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SendStreamTest {
+
+    private LoopbackServer server;
+    private WebSocketClient client;
+    private final RecordingCallback callback = new RecordingCallback();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer(8 * 1024);
+        server.echo = false;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.disconnect();
+        }
+        server.close();
+    }
+
+    @Test
+    public void sendsStreamAsFragments() throws Exception {
+        LoopbackServer.Connection connection = connect();
+        client.setFragmentSize(1000);
+        byte[] data = randomBytes(2500);
+        client.sendStream(new ByteArrayInputStream(data), true);
+
+        LoopbackServer.Frame first = connection.nextFrame();
+        assertEquals(LoopbackServer.OP_BINARY, first.opcode);
+        assertFalse(first.fin);
+        assertEquals(LoopbackServer.OP_CONTINUATION, connection.nextFrame().opcode);
+        LoopbackServer.Frame last = connection.nextFrame();
+        assertEquals(LoopbackServer.OP_CONTINUATION, last.opcode);
+        assertTrue(last.fin);
+        assertEquals(500, last.payload.length);
+    }
+
+    @Test
+    public void otherSendersDoNotWaitForAStalledStream() throws Exception {
+        streamWhileStalled(false);
+    }
+
+    @Test
+    public void otherSendersDoNotWaitForAStalledCompressedStream() throws Exception {
+        server.extensions = "permessage-deflate";
+        streamWhileStalled(true);
+    }
+
+    private void streamWhileStalled(boolean compressed) throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        server.readGate = gate;
+        client = new WebSocketClient(server.uri(), callback);
+        client.setSendQueueLimits(16 * 1024, 64 * 1024, 64 * 1024 * 1024);
+        if (compressed) {
+            client.setDeflateOptions(new DeflateOptions());
+        }
+        client.connect();
+        callback.awaitConnect();
+        LoopbackServer.Connection connection = server.accept();
+
+        final byte[] data = randomBytes(4 * 1024 * 1024);
+        Thread streamer = startStream(data);
+        // Let the stream fill the queue and wait for it to drain.
+        Thread.sleep(300);
+        assertTrue(streamer.isAlive());
+
+        long start = System.nanoTime();
+        assertTrue(client.trySend("during"));
+        assertTrue("trySend waited for the stream", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+        gate.countDown();
+        streamer.join(10000);
+        assertFalse(streamer.isAlive());
+        client.send("after");
+
+        assertArrayEquals(data, connection.nextMessage());
+        assertEquals("during", connection.nextText());
+        assertEquals("after", connection.nextText());
+    }
+
+    @Test
+    public void messagesSentDuringAStreamAreNotCompressed() throws Exception {
+        server.extensions = "permessage-deflate";
+        client = new WebSocketClient(server.uri(), callback);
+        client.setDeflateOptions(new DeflateOptions());
+        client.setFragmentSize(100);
+        client.connect();
+        callback.awaitConnect();
+        LoopbackServer.Connection connection = server.accept();
+
+        final String text = repeat("compressible ", 100);
+        SlowStream slow = new SlowStream(text.getBytes("UTF-8"), 100);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread streamer = start(slow, false, failure);
+        slow.started.await();
+        client.send(text);
+        slow.release.countDown();
+        streamer.join(5000);
+        client.send(text);
+
+        assertEquals(null, failure.get());
+        assertTrue(firstFrameOfMessage(connection).rsv1);
+        assertFalse(firstFrameOfMessage(connection).rsv1);
+        assertTrue(firstFrameOfMessage(connection).rsv1);
+    }
+
+    @Test
+    public void failsOnceTheParserIsClosed() throws Exception {
+        server.readGate = new CountDownLatch(1);
+        connect();
+        client.getParser().close(1000, "bye");
+        try {
+            client.sendStream(new ByteArrayInputStream(new byte[10]), true);
+            fail("stream sent on a closed parser");
+        } catch (IOException expected) {
+            assertEquals("Socket closed", expected.getMessage());
+        }
+    }
+
+    /**
+     * Reads a whole message and returns its first frame, which carries RSV1.
+     */
+    private static LoopbackServer.Frame firstFrameOfMessage(LoopbackServer.Connection connection) throws Exception {
+        LoopbackServer.Frame first = connection.nextFrame();
+        LoopbackServer.Frame frame = first;
+        while (!frame.fin) {
+            frame = connection.nextFrame();
+        }
+        return first;
+    }
+
+    private LoopbackServer.Connection connect() throws Exception {
+        client = new WebSocketClient(server.uri(), callback);
+        client.connect();
+        callback.awaitConnect();
+        return server.accept();
+    }
+
+    private Thread startStream(byte[] data) {
+        return start(new ByteArrayInputStream(data), true, new AtomicReference<Exception>());
+    }
+
+    private Thread start(final InputStream data, final boolean binary, final AtomicReference<Exception> failure) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    client.sendStream(data, binary);
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    static String repeat(String text, int count) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            out.append(text);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Hands out the first prefix bytes, then waits to be released before the rest.
+     */
+    private static final class SlowStream extends InputStream {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final byte[] data;
+        private final int prefix;
+        private int position;
+
+        SlowStream(byte[] data, int prefix) {
+            this.data   = data;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (position == prefix) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (position == data.length) return -1;
+            int end = (position < prefix) ? prefix : data.length;
+            int count = Math.min(length, end - position);
+            System.arraycopy(data, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedExecutorTest {
+
+    private static final int STALLED = 6;
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final List<WebSocketClient> clients = new ArrayList<WebSocketClient>();
+    private LoopbackServer stalledServer;
+    private LoopbackServer server;
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        for (WebSocketClient client : clients) {
+            client.disconnect();
+        }
+        if (stalledServer != null) stalledServer.close();
+        if (server != null) server.close();
+    }
+
+    @Test
+    public void writesBlockedOnStalledPeersDoNotHoldUpOtherClients() throws Exception {
+        stalledServer = new LoopbackServer(8 * 1024);
+        stalledServer.readGate = gate;
+        List<RecordingCallback> stalledCallbacks = new ArrayList<RecordingCallback>();
+        List<SendFuture> stalledSends = new ArrayList<SendFuture>();
+        // More peers that stopped reading than there are CPUs, each with a writer stuck in write().
+        for (int i = 0; i < STALLED; i++) {
+            RecordingCallback callback = new RecordingCallback();
+            WebSocketClient client = connect(stalledServer, callback);
+            stalledCallbacks.add(callback);
+            stalledSends.add(client.sendAsync(new byte[16 * 1024 * 1024]));
+        }
+        Thread.sleep(300);
+        for (SendFuture send : stalledSends) {
+            assertFalse(send.isDone());
+        }
+
+        server = new LoopbackServer();
+        RecordingCallback callback = new RecordingCallback();
+        WebSocketClient healthy = connect(server, callback);
+        LoopbackServer.Connection connection = server.accept();
+        healthy.sendAsync("hello").get(2, TimeUnit.SECONDS);
+        assertEquals("hello", connection.nextText());
+        assertEquals("hello", callback.nextMessage());
+
+        // disconnect() does not wait behind the stuck write.
+        long start = System.nanoTime();
+        clients.get(0).disconnect();
+        assertEquals(WebSocketClient.CODE_MANUAL, stalledCallbacks.get(0).nextDisconnect());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertFalse(clients.get(0).isConnected());
+        // The send thread fails it once the close breaks its write.
+        try {
+            stalledSends.get(0).get(5, TimeUnit.SECONDS);
+            fail("sent to a peer that never read it");
+        } catch (ExecutionException expected) {
+            // Expected.
+        }
+        assertTrue(stalledCallbacks.get(0).errors.isEmpty());
+    }
+
+    private WebSocketClient connect(LoopbackServer target, RecordingCallback callback) throws Exception {
+        WebSocketClient client = new WebSocketClient(target.uri(), callback);
+        client.setSendQueueLimits(256 * 1024, 1024 * 1024, 64 * 1024 * 1024);
+        clients.add(client);
+        client.connect();
+        callback.awaitConnect();
+        return client;
+    }
+}
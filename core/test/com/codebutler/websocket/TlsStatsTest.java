@@ -0,0 +1,115 @@
+package com.codebutler.websocket;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TlsStatsTest {
+
+    private static final char[] PASSWORD = "loopback".toCharArray();
+
+    private static SSLContext serverContext;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        KeyStore keyStore = selfSignedKeyStore();
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, PASSWORD);
+        serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keys.getKeyManagers(), null, null);
+
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+        WebSocketClient.setTrustManagers(trust.getTrustManagers());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        WebSocketClient.setTrustManagers(null);
+    }
+
+    @Test
+    public void countsTls13Resumption() throws Exception {
+        assertResumesOnReconnect("TLSv1.3");
+    }
+
+    @Test
+    public void countsTls12Resumption() throws Exception {
+        assertResumesOnReconnect("TLSv1.2");
+    }
+
+    private static void assertResumesOnReconnect(String protocol) throws Exception {
+        LoopbackServer server = new LoopbackServer(serverContext, protocol);
+        TlsStats stats = WebSocketClient.getTlsStats();
+        try {
+            long full = stats.getFullHandshakes();
+            long resumed = stats.getResumedHandshakes();
+
+            connectAndDisconnect(server);
+            assertEquals(full + 1, stats.getFullHandshakes());
+            assertFalse(stats.isLastResumed());
+
+            connectAndDisconnect(server);
+            assertEquals(full + 1, stats.getFullHandshakes());
+            assertEquals(resumed + 1, stats.getResumedHandshakes());
+            assertTrue(stats.isLastResumed());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void connectAndDisconnect(LoopbackServer server) throws Exception {
+        RecordingCallback callback = new RecordingCallback();
+        WebSocketClient client = new WebSocketClient(server.uri(), callback);
+        client.connect();
+        callback.awaitConnect();
+        server.accept();
+        client.disconnect();
+        callback.nextDisconnect();
+    }
+
+    /**
+     * A key store holding a fresh self-signed certificate for 127.0.0.1, made with the JDK's keytool.
+     */
+    private static KeyStore selfSignedKeyStore() throws Exception {
+        File file = File.createTempFile("loopback", ".p12");
+        file.delete();
+        try {
+            String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+            Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "loopback",
+                    "-keyalg", "EC", "-dname", "CN=127.0.0.1", "-ext", "san=ip:127.0.0.1", "-validity", "1",
+                    "-storetype", "PKCS12", "-keystore", file.getPath(),
+                    "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                    .redirectErrorStream(true)
+                    .start();
+            InputStream output = process.getInputStream();
+            while (output.read() != -1) {
+                // keytool may block on a full pipe.
+            }
+            assertEquals("keytool failed", 0, process.waitFor());
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            InputStream in = new FileInputStream(file);
+            try {
+                keyStore.load(in, PASSWORD);
+            } finally {
+                in.close();
+            }
+            return keyStore;
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.codebutler.websocket;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class Utf8DecoderTest {
+
+    private static final String TEXT = "aé€😀z";
+
+    @Test
+    public void decodesWholeMessage() throws Exception {
+        byte[] data = TEXT.getBytes("UTF-8");
+        assertEquals(TEXT, new Utf8Decoder().decodeMessage(data, 0, data.length));
+    }
+
+    @Test
+    public void decodesCodePointsSplitAcrossChunks() throws Exception {
+        byte[] data = TEXT.getBytes("UTF-8");
+        for (int split = 0; split <= data.length; split++) {
+            Utf8Decoder decoder = new Utf8Decoder();
+            decoder.decode(data, 0, split);
+            decoder.decode(data, split, data.length - split);
+            assertEquals("split at " + split, TEXT, decoder.finish());
+        }
+    }
+
+    @Test
+    public void decodesOneByteAtATime() throws Exception {
+        byte[] data = TEXT.getBytes("UTF-8");
+        Utf8Decoder decoder = new Utf8Decoder();
+        for (int i = 0; i < data.length; i++) {
+            decoder.decode(data, i, 1);
+        }
+        assertEquals(TEXT, decoder.finish());
+    }
+
+    @Test
+    public void rejectsOverlongForms() {
+        assertInvalid(0xC0, 0x80);
+        assertInvalid(0xC1, 0xBF);
+        assertInvalid(0xE0, 0x80, 0x80);
+        assertInvalid(0xE0, 0x9F, 0xBF);
+        assertInvalid(0xF0, 0x80, 0x80, 0x80);
+        assertInvalid(0xF0, 0x8F, 0xBF, 0xBF);
+    }
+
+    @Test
+    public void rejectsSurrogates() {
+        assertInvalid(0xED, 0xA0, 0x80);
+        assertInvalid(0xED, 0xBF, 0xBF);
+    }
+
+    @Test
+    public void rejectsCodePointsAboveMaximum() {
+        assertInvalid(0xF4, 0x90, 0x80, 0x80);
+        assertInvalid(0xF5, 0x80, 0x80, 0x80);
+        assertInvalid(0xFF);
+    }
+
+    @Test
+    public void rejectsBadContinuationBytes() {
+        assertInvalid(0x80);
+        assertInvalid(0xE2, 0x28, 0xA1);
+        assertInvalid(0xE2, 0x82);
+    }
+
+    @Test
+    public void rejectsInvalidSequenceSplitAcrossChunks() {
+        // Each one only turns out to be invalid after the chunk boundary.
+        assertInvalidInChunks(new byte[]{(byte) 0xE0}, new byte[]{(byte) 0x80, (byte) 0x80});
+        assertInvalidInChunks(new byte[]{(byte) 0xED}, new byte[]{(byte) 0xA0, (byte) 0x80});
+        assertInvalidInChunks(new byte[]{(byte) 0xF4, (byte) 0x8F}, new byte[]{(byte) 0xBF, (byte) 0xC0});
+        assertInvalidInChunks(new byte[]{(byte) 0xE2, (byte) 0x82}, new byte[0]);
+    }
+
+    @Test
+    public void validatesStreamedChunks() throws Exception {
+        byte[] data = TEXT.getBytes("UTF-8");
+        Utf8Decoder decoder = new Utf8Decoder();
+        decoder.validate(data, 0, 2);
+        decoder.validate(data, 2, data.length - 2);
+        assertEquals("", decoder.finish());
+    }
+
+    @Test
+    public void recoversAfterError() throws Exception {
+        Utf8Decoder decoder = new Utf8Decoder();
+        decoder.decode(new byte[]{(byte) 0xE2}, 0, 1);
+        try {
+            decoder.finish();
+            fail("truncated sequence accepted");
+        } catch (HybiParser.ProtocolError expected) {
+            assertEquals(Utf8Decoder.CLOSE_INVALID_DATA, expected.getCode());
+        }
+        decoder.decode(new byte[]{'o', 'k'}, 0, 2);
+        assertEquals("ok", decoder.finish());
+    }
+
+    private static void assertInvalid(int... bytes) {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        try {
+            new Utf8Decoder().decodeMessage(data, 0, data.length);
+            fail("accepted " + hex(data));
+        } catch (HybiParser.ProtocolError expected) {
+            assertEquals(Utf8Decoder.CLOSE_INVALID_DATA, expected.getCode());
+        }
+        assertInvalidInChunks(data);
+    }
+
+    private static void assertInvalidInChunks(byte[]... chunks) {
+        Utf8Decoder decoder = new Utf8Decoder();
+        try {
+            for (byte[] chunk : chunks) {
+                decoder.decode(chunk, 0, chunk.length);
+            }
+            decoder.finish();
+            fail("accepted " + chunks.length + " chunks");
+        } catch (HybiParser.ProtocolError expected) {
+            assertEquals(Utf8Decoder.CLOSE_INVALID_DATA, expected.getCode());
+        }
+    }
+
+    private static String hex(byte[] data) {
+        StringBuilder out = new StringBuilder();
+        for (byte b : data) {
+            out.append(String.format("%02X ", b & 0xFF));
+        }
+        return out.toString().trim();
+    }
+}
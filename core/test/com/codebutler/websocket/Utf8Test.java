@@ -0,0 +1,89 @@
+package com.codebutler.websocket;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Utf8Test {
+
+    @Test
+    public void matchesGetBytes() throws Exception {
+        assertEncodes("");
+        assertEncodes("hello");
+        assertEncodes("aé€😀z");
+        assertEncodes(repeat('a', 5000));
+        assertEncodes(repeat('a', 3000) + "é" + repeat('b', 3000));
+    }
+
+    @Test
+    public void encodesUnpairedSurrogatesAsQuestionMarks() throws Exception {
+        assertEncodes("a\uD800b");
+        assertEncodes("a\uDC00b");
+        assertEncodes(repeat('a', 100) + "\uD800");
+    }
+
+    @Test
+    public void keepsSurrogatePairsAcrossChunkBoundaries() throws Exception {
+        for (int length = 2040; length < 2056; length++) {
+            assertEncodes(repeat('a', length) + "😀" + repeat('b', 10));
+        }
+    }
+
+    @Test
+    public void matchesGetBytesForRandomText() throws Exception {
+        Random random = new Random(1);
+        for (int n = 0; n < 500; n++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(5000);
+            boolean ascii = random.nextBoolean();
+            for (int i = 0; i < length; i++) {
+                int kind = random.nextInt(100);
+                if (ascii || kind < 90) {
+                    text.append((char) random.nextInt(0x80));
+                } else if (kind < 95) {
+                    text.append((char) (0x80 + random.nextInt(0x780)));
+                } else {
+                    text.append((char) random.nextInt(0x10000));
+                }
+            }
+            assertEncodes(text.toString());
+        }
+    }
+
+    @Test
+    public void writesAtBufferPosition() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.position(5);
+        ByteBuffer slice = buffer.slice();
+        slice.position(3);
+        Utf8.encode("é!", slice);
+        assertEquals(6, slice.position());
+        assertArrayEquals("é!".getBytes("UTF-8"), Arrays.copyOfRange(buffer.array(), 8, 11));
+    }
+
+    private static void assertEncodes(String text) throws Exception {
+        byte[] expected = text.getBytes("UTF-8");
+        assertEquals(expected.length, Utf8.encodedLength(text));
+
+        ByteBuffer exact = ByteBuffer.allocate(expected.length);
+        Utf8.encode(text, exact);
+        assertEquals(expected.length, exact.position());
+        assertArrayEquals(expected, exact.array());
+
+        // A CharSequence that is not a String takes the char by char path.
+        ByteBuffer fromBuilder = ByteBuffer.allocate(expected.length);
+        Utf8.encode(new StringBuilder(text), fromBuilder);
+        assertArrayEquals(expected, fromBuilder.array());
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,169 @@
+package com.codebutler.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WebSocketPoolTest {
+
+    private LoopbackServer server;
+    private LoopbackServer stalledServer;
+    private final CountDownLatch gate = new CountDownLatch(1);
+    private final List<WebSocketClient> members = new ArrayList<WebSocketClient>();
+    private final List<RecordingCallback> callbacks = new ArrayList<RecordingCallback>();
+    private WebSocketPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LoopbackServer();
+        stalledServer = new LoopbackServer(8 * 1024);
+        stalledServer.readGate = gate;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gate.countDown();
+        if (pool != null) {
+            pool.disconnect();
+        }
+        server.close();
+        stalledServer.close();
+    }
+
+    @Test
+    public void rejectsAnEmptyPool() {
+        try {
+            new WebSocketPool(Collections.<WebSocketClient>emptyList());
+            fail("empty pool accepted");
+        } catch (IllegalArgumentException expected) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void roundRobinUsesEveryMemberInTurn() throws Exception {
+        connect(server, server, server);
+        for (int i = 0; i < 30; i++) {
+            pool.send("message " + i);
+        }
+        for (RecordingCallback callback : callbacks) {
+            for (int i = 0; i < 10; i++) {
+                callback.nextMessage();
+            }
+        }
+        Thread.sleep(100);
+        for (RecordingCallback callback : callbacks) {
+            assertTrue(callback.messages.isEmpty());
+        }
+    }
+
+    @Test
+    public void roundRobinSkipsABackedUpMember() throws Exception {
+        connect(stalledServer, server);
+        backUp(members.get(0));
+        for (int i = 0; i < 10; i++) {
+            assertSame(members.get(1), pool.next());
+        }
+        assertEquals(1, pool.getHealthyCount());
+    }
+
+    @Test
+    public void leastQueuedPicksTheShortestQueue() throws Exception {
+        connect(stalledServer, server);
+        pool.setBalance(WebSocketPool.LEAST_QUEUED);
+        // A high watermark above the backlog keeps both members healthy.
+        members.get(0).setSendQueueLimits(256 * 1024, 32 * 1024 * 1024, 64 * 1024 * 1024);
+        members.get(0).sendAsync(new byte[16 * 1024 * 1024]);
+        awaitQueued(members.get(0));
+        assertEquals(2, pool.getHealthyCount());
+        for (int i = 0; i < 10; i++) {
+            pool.send("message " + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals("message " + i, callbacks.get(1).nextMessage());
+        }
+    }
+
+    @Test
+    public void keyedSendsStayOnOneMemberInOrder() throws Exception {
+        connect(server, server, server, server);
+        WebSocketClient member = pool.forKey("user-42");
+        for (int i = 0; i < 100; i++) {
+            assertSame(member, pool.forKey("user-42"));
+            pool.send("user-42", "message " + i);
+        }
+        RecordingCallback callback = callbacks.get(members.indexOf(member));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("message " + i, callback.nextMessage());
+        }
+    }
+
+    @Test
+    public void keysMoveOnlyOffADisconnectedMember() throws Exception {
+        connect(server, server, server, server);
+        List<WebSocketClient> before = new ArrayList<WebSocketClient>();
+        for (int i = 0; i < 200; i++) {
+            before.add(pool.forKey("key " + i));
+        }
+        WebSocketClient lost = pool.forKey("key 0");
+        lost.disconnect();
+        callbacks.get(members.indexOf(lost)).nextDisconnect();
+        assertFalse(lost.isOpen());
+
+        for (int i = 0; i < 200; i++) {
+            WebSocketClient now = pool.forKey("key " + i);
+            if (before.get(i) == lost) {
+                assertNotSame(lost, now);
+            } else {
+                assertSame(before.get(i), now);
+            }
+        }
+    }
+
+    private void connect(LoopbackServer... targets) throws Exception {
+        for (LoopbackServer target : targets) {
+            RecordingCallback callback = new RecordingCallback();
+            WebSocketClient member = new WebSocketClient(target.uri(), callback);
+            member.setSendQueueLimits(256 * 1024, 1024 * 1024, 64 * 1024 * 1024);
+            members.add(member);
+            callbacks.add(callback);
+        }
+        pool = new WebSocketPool(members);
+        pool.connect();
+        for (RecordingCallback callback : callbacks) {
+            callback.awaitConnect();
+        }
+    }
+
+    /**
+     * Queues more than the high watermark on a member whose peer does not read.
+     */
+    private static void backUp(WebSocketClient member) throws InterruptedException {
+        member.sendAsync(new byte[16 * 1024 * 1024]);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (member.isWritable() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(member.isWritable());
+    }
+
+    private static void awaitQueued(WebSocketClient member) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (member.getMetrics().getQueuedBytes() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(member.getMetrics().getQueuedBytes() > 0);
+    }
+}
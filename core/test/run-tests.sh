@@ -0,0 +1,30 @@
+#!/bin/sh
+# Compiles core/src with the tests in core/test and runs every *Test class, or the classes named
+# on the command line. JUnit 4 and Hamcrest are downloaded into core/test/lib on first use;
+# set JUNIT_CLASSPATH to use jars from elsewhere.
+set -e
+
+cd "$(dirname "$0")/../.."
+LIB=core/test/lib
+OUT=${TEST_OUT:-core/test/out}
+REPO=https://repo1.maven.org/maven2
+
+if [ -z "$JUNIT_CLASSPATH" ]; then
+    mkdir -p "$LIB"
+    for jar in junit/junit/4.13.2/junit-4.13.2.jar org/hamcrest/hamcrest-core/1.3/hamcrest-core-1.3.jar; do
+        file="$LIB/$(basename "$jar")"
+        if [ ! -f "$file" ]; then
+            curl -fsSL -o "$file" "$REPO/$jar"
+        fi
+    done
+    JUNIT_CLASSPATH="$LIB/junit-4.13.2.jar:$LIB/hamcrest-core-1.3.jar"
+fi
+
+rm -rf "$OUT"
+mkdir -p "$OUT"
+javac -encoding UTF-8 -Xlint:all -cp "$JUNIT_CLASSPATH" -d "$OUT" $(find core/src core/test -name '*.java')
+
+if [ $# -eq 0 ]; then
+    set -- $(cd core/test && find . -name '*Test.java' | sed -e 's|^\./||' -e 's|\.java$||' -e 's|/|.|g' | sort)
+fi
+java -cp "$OUT:$JUNIT_CLASSPATH" org.junit.runner.JUnitCore "$@"
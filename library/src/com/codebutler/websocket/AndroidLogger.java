@@ -0,0 +1,17 @@
+package com.codebutler.websocket;
+
+import android.util.Log;
+
+/**
+ * 输出到 logcat 的 {@link WSLog.Logger}
+ */
+public class AndroidLogger implements WSLog.Logger {
+
+    @Override
+    public void log(int level, String tag, String message, Throwable error) {
+        if (error != null) {
+            message = message + '\n' + Log.getStackTraceString(error);
+        }
+        Log.println(level, tag, message);
+    }
+}
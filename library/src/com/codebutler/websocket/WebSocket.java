@@ -1,61 +1,20 @@
 package com.codebutler.websocket;
 
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.text.TextUtils;
-import android.util.Base64;
-import android.util.Log;
-import org.apache.http.*;
-import org.apache.http.client.HttpResponseException;
-import org.apache.http.message.BasicLineParser;
+import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
 
-import javax.net.SocketFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLException;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.Socket;
 import java.net.URI;
-import java.security.KeyManagementException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * 单线程WebSocket客户端
+ * 协议实现在 {@link WebSocketClient} 中，这里只接入Android平台：日志输出到 logcat。
  */
-public class WebSocket {
+public class WebSocket extends WebSocketClient {
 
-    public static final int CODE_EOF = 1;
-    public static final int CODE_SSL = 3;
-    public static final int CODE_MANUAL = 5;
-
-    private static final String TAG = "WebSocket";
-    private URI uri;
-    private WSCallback wsCallback;
-    private Socket socket;
-    private Thread workThread;
-    private HandlerThread handlerThread;
-    private Handler handler;
-    private List<BasicNameValuePair> extraHeaders;
-    private HybiParser parser;
-    private final Object sendLock = new Object();
-    private boolean manualDisconnect = false;
-    private static TrustManager[] trustManagers;
-
-    /**
-     * 这是用于 JSSE 信任管理器的基接口。
-     * TrustManager 负责管理做出信任决定时使用的的信任材料，也负责决定是否接受同位体提供的证书。
-     * 通过使用 TrustManagerFactory，或实现 TrustManager 子类之一创建 TrustManager。
-     * @param tm 信任管理器的接口
-     */
-    public static void setTrustManagers(TrustManager[] tm) {
-        trustManagers = tm;
+    static {
+        WSLog.installPlatformLogger(new AndroidLogger());
     }
 
     public WebSocket(String wsUrl,WSCallback wsCallback){
@@ -67,13 +26,7 @@ public class WebSocket {
     }
 
     public WebSocket(URI uri, WSCallback WSCallback, List<BasicNameValuePair> extraHeaders) {
-        this.uri = uri;
-        wsCallback = WSCallback;
-        this.extraHeaders = extraHeaders;
-        parser = new HybiParser(this);
-        handlerThread = new HandlerThread("WebSocket-Thread");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
+        super(uri, WSCallback, toHeaders(extraHeaders));
     }
 
     /**
@@ -81,258 +34,15 @@ public class WebSocket {
      * @param extraHeaders  Header数据
      */
     public void setExtraHeaders (List<BasicNameValuePair> extraHeaders) {
-        this.extraHeaders = extraHeaders;
-    }
-
-    /**
-     * 返回WebSocket的连接状态
-     * @return 当WebSocket为连接状态为true，否则为false。
-     */
-    public boolean isConnected(){
-        return workThread != null && workThread.isAlive();
-    }
-
-    /**
-     * 连接，如果WebSocket已经连接，则不做操作。
-     */
-    public void connect() {
-        // 初始化这个标识位
-        manualDisconnect = false;
-
-        if (isConnected()) {
-            return;
-        }
-        workThread = new Thread(buildConnection());
-        workThread.start();
-        Log.i(TAG,"WebSocket CONNECTING...");
-    }
-
-    Runnable buildConnection(){
-        return
-        new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    String scheme = uri.getScheme();
-
-                    if (verifyScheme(scheme)) {
-
-                        String path = uri.getPath();
-                        final boolean isSSL = scheme.equalsIgnoreCase("wss");
-                        int port = (uri.getPort() != -1) ? uri.getPort() : (isSSL ? 443 : 80);
-
-                        path = TextUtils.isEmpty(path) ? "/" : path;
-                        if (!TextUtils.isEmpty(uri.getQuery())) {
-                            path += "?" + uri.getQuery();
-                        }
-
-                        String originScheme = isSSL ? "https" : "http";
-                        URI origin = new URI(originScheme, "//" + uri.getHost(), null);
-
-                        SocketFactory factory = isSSL ?
-                                getSSLSocketFactory() : SocketFactory.getDefault();
-                        socket = factory.createSocket(uri.getHost(), port);
-                        String secret = createSecret();
-
-                        PrintWriter out = new PrintWriter(socket.getOutputStream());
-                        out.print("GET " + path + " HTTP/1.1\r\n");
-                        out.print("Upgrade: websocket\r\n");
-                        out.print("Connection: Upgrade\r\n");
-                        out.print("Host: " + uri.getHost() + "\r\n");
-                        out.print("Origin: " + origin.toString() + "\r\n");
-                        out.print("Sec-WebSocket-Key: " + secret + "\r\n");
-                        out.print("Sec-WebSocket-Version: 13\r\n");
-                        if (extraHeaders != null) {
-                            for (NameValuePair pair : extraHeaders) {
-                                out.print(String.format("%s: %s\r\n", pair.getName(), pair.getValue()));
-                            }
-                        }
-                        out.print("\r\n");
-                        out.flush();
-
-                        HybiParser.HappyDataInputStream stream =
-                                new HybiParser.HappyDataInputStream(socket.getInputStream());
-
-                        // Read HTTP response status line.
-                        StatusLine statusLine = parseStatusLine(readLine(stream));
-                        if (statusLine == null) {
-                            throw new HttpException("Received no reply from server.");
-                        } else if (statusLine.getStatusCode() != HttpStatus.SC_SWITCHING_PROTOCOLS) {
-                            throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
-                        }
-
-                        // Read HTTP response headers.
-                        String line;
-                        boolean validated = false;
-
-                        while (!TextUtils.isEmpty(line = readLine(stream))) {
-                            Header header = parseHeader(line);
-                            if (header.getName().equals("Sec-WebSocket-Accept")) {
-                                String expected = createSecretValidation(secret);
-                                String actual = header.getValue().trim();
-
-                                if (!expected.equals(actual)) {
-                                    throw new HttpException("Bad Sec-WebSocket-Accept header value.");
-                                }
-
-                                validated = true;
-                            }
-                        }
-
-                        if (!validated) {
-                            throw new HttpException("No Sec-WebSocket-Accept header.");
-                        }
-
-                        wsCallback.onConnect();
-
-                        // Now decode websocket frames.
-                        parser.start(stream);
-                    } else {
-                        throw new IllegalArgumentException("Illegal WebSocket scheme: " + scheme);
-                    }
-
-                } catch (EOFException ex) {
-                    Log.d(TAG, "WebSocket EOF!", ex);
-                    wsCallback.onDisconnect(CODE_EOF, "EOF");
-
-                } catch (SSLException ex) {
-                    // Connection reset by peer
-                    Log.d(TAG, "WebSocket SSL error!", ex);
-                    wsCallback.onDisconnect(CODE_SSL, "SSL");
-
-                } catch (IllegalStateException ex){
-                    if(manualDisconnect){
-                        wsCallback.onDisconnect(CODE_MANUAL, "MANUAL");
-                    }else{
-                        wsCallback.onError(ex);
-                    }
-                } catch (Exception ex) {
-                    Log.i(TAG,"WebSocket UNKNOWN Error: "+ex);
-                    wsCallback.onError(ex);
-                }
-            }
-        };
+        setHeaders(toHeaders(extraHeaders));
     }
 
-    /**
-     * 主动断开WebSocket连接
-     */
-    public void disconnect() {
-        if (socket == null) return;
-
-        manualDisconnect = true;
-
-        //将断开连接的请求，放到一个消息队列中处理
-        handler.post(new Runnable() {
-            @Override
-            public void run () {
-                try {
-                    socket.close();
-                    socket = null;
-                } catch (IOException ex) {
-                    Log.d(TAG, "Error while disconnecting", ex);
-                    wsCallback.onError(ex);
-                }
-            }
-        });
-    }
-
-    /**
-     * 发送文本数据
-     * @param data 文本数据
-     */
-    public void send(String data) {
-        sendFrame(parser.frame(data));
-    }
-
-    /**
-     * 发送字节数据
-     * @param data 字节数据
-     */
-    public void send(byte[] data) {
-        sendFrame(parser.frame(data));
-    }
-
-    WSCallback getCallback () {
-        return wsCallback;
-    }
-
-    private StatusLine parseStatusLine(String line) {
-        if (TextUtils.isEmpty(line)) {
-            return null;
-        }
-        return BasicLineParser.parseStatusLine(line, new BasicLineParser());
-    }
-
-    private Header parseHeader(String line) {
-        return BasicLineParser.parseHeader(line, new BasicLineParser());
-    }
-
-    // Can't use BufferedReader because it buffers past the HTTP data.
-    private String readLine(HybiParser.HappyDataInputStream reader) throws IOException {
-        int readChar = reader.read();
-        if (readChar == -1) {
-            return null;
-        }
-        StringBuilder string = new StringBuilder("");
-        while (readChar != '\n') {
-            if (readChar != '\r') {
-                string.append((char) readChar);
-            }
-            readChar = reader.read();
-            if (readChar == -1) {
-                return null;
-            }
+    private static List<HttpHeader> toHeaders(List<? extends NameValuePair> pairs) {
+        if (pairs == null) return null;
+        List<HttpHeader> headers = new ArrayList<HttpHeader>(pairs.size());
+        for (NameValuePair pair : pairs) {
+            headers.add(new HttpHeader(pair.getName(), pair.getValue()));
         }
-        return string.toString();
-    }
-
-    private String createSecret() {
-        byte[] nonce = new byte[16];
-        for (int i = 0; i < 16; i++) {
-            nonce[i] = (byte) (Math.random() * 256);
-        }
-        return Base64.encodeToString(nonce, Base64.DEFAULT).trim();
-    }
-
-    private String createSecretValidation(String secret) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.update((secret + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes());
-            return Base64.encodeToString(md.digest(), Base64.DEFAULT).trim();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private boolean verifyScheme(String scheme){
-        if( scheme == null ) return false;
-        return scheme.equalsIgnoreCase("ws") || scheme.equalsIgnoreCase("wss");
-    }
-
-    void sendFrame(final byte[] frame) {
-        handler.post(new Runnable() {
-            @Override
-            public void run () {
-                try {
-                    synchronized (sendLock) {
-                        if (socket == null) {
-                            throw new IllegalStateException("Socket not connected");
-                        }
-                        OutputStream outputStream = socket.getOutputStream();
-                        outputStream.write(frame);
-                        outputStream.flush();
-                    }
-                } catch (Exception e) {
-                    wsCallback.onError(e);
-                }
-            }
-        });
-    }
-
-    private SSLSocketFactory getSSLSocketFactory() throws NoSuchAlgorithmException, KeyManagementException {
-        SSLContext context = SSLContext.getInstance("TLS");
-        context.init(null, trustManagers, null);
-        return context.getSocketFactory();
+        return headers;
     }
 }